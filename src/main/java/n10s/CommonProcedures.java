@@ -1,25 +1,47 @@
 package n10s;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedWriter;
 import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStreamWriter;
 import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLConnection;
 import java.nio.charset.Charset;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
-import java.util.zip.GZIPInputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 import java.util.zip.ZipInputStream;
 
+import n10s.graphconfig.RDFParserConfig;
+import n10s.utils.DocumentScopedValueFactory;
+import n10s.utils.ParallelGzipInputStream;
+import n10s.utils.ParallelLineParser;
 import org.apache.commons.compress.archivers.ArchiveEntry;
 import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
 import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
-import org.apache.commons.io.IOUtils;
+import org.apache.commons.compress.compressors.xz.XZCompressorInputStream;
+import org.apache.commons.compress.compressors.zstandard.ZstdCompressorInputStream;
+import org.apache.commons.compress.compressors.zstandard.ZstdUtils;
 import org.eclipse.rdf4j.common.lang.FileFormat;
 import org.eclipse.rdf4j.rio.RDFFormat;
 import org.eclipse.rdf4j.rio.RDFParser;
@@ -41,12 +63,21 @@ public class CommonProcedures {
   public static final String UNIQUENESS_CONSTRAINT_ON_URI = "n10s_unique_uri";
   public static final String UNIQUENESS_CONSTRAINT_STATEMENT = "CREATE CONSTRAINT " + UNIQUENESS_CONSTRAINT_ON_URI +
           " FOR (r:Resource) REQUIRE r.uri IS UNIQUE";
+  public static final String QUAD_INDEX_ON_URI_AND_GRAPH_STATEMENT = "CREATE INDEX "
+      + "n10s_resource_uri_graph IF NOT EXISTS FOR (r:Resource) ON (r.uri, r.graphUri)";
+  public static final String QUAD_INDEX_ON_GRAPH_STATEMENT = "CREATE INDEX n10s_resource_graph "
+      + "IF NOT EXISTS FOR (r:Resource) ON (r.graphUri)";
 
   protected static RDFFormat[] availableParsers = new RDFFormat[]{RDFFormat.RDFXML,
       RDFFormat.JSONLD,
       RDFFormat.TURTLE, RDFFormat.NTRIPLES, RDFFormat.TRIG, RDFFormat.NQUADS,
       RDFFormat.TURTLESTAR, RDFFormat.TRIGSTAR};
 
+  //threads inflating BGZF files
+  private static final int DEFAULT_DECOMPRESS_THREADS = 4;
+  private static final int LOCAL_FILE_BUFFER_SIZE = 256 * 1024;
+  private static final Pattern GLOB_CHARS = Pattern.compile("[*?\\[{]");
+
   @Context
   public GraphDatabaseService db;
 
@@ -96,6 +127,20 @@ public class CommonProcedures {
     }
   }
 
+  /**
+   * @return whether there is an index on :Resource on exactly the given properties (in order)
+   */
+  public static boolean isIndexOnResourcePresent(Transaction tx, String... propertyKeys) {
+    for (IndexDefinition indexDef : tx.schema().getIndexes(Label.label("Resource"))) {
+      List<String> keys = new ArrayList<>();
+      indexDef.getPropertyKeys().forEach(keys::add);
+      if (keys.equals(Arrays.asList(propertyKeys))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
   protected boolean missingIndexOnResourceUri() {
     Iterator<IndexDefinition> indexesIterator = tx.schema().getIndexes().iterator();
     while (indexesIterator.hasNext()) {
@@ -111,102 +156,298 @@ public class CommonProcedures {
     return true;
   }
 
-  protected void parseRDFPayloadOrFromUrl( RDFFormat format, String url, String rdfFragment,
+  /**
+   * @return the number of bytes (uncompressed) passed on to the parser
+   */
+  protected long parseRDFPayloadOrFromUrl( RDFFormat format, String url, String rdfFragment,
      Map<String, Object> props, ConfiguredStatementHandler statementLoader) throws IOException {
     if (rdfFragment != null) {
-      instantiateAndKickOffParser(
+      return parseRDFPayload(format, "http://neo4j.com/base/",
           new ByteArrayInputStream(rdfFragment.getBytes(Charset.defaultCharset())),
-          "http://neo4j.com/base/", format, statementLoader);
-    } else {
-      instantiateAndKickOffParser(getInputStream(url, props), url, format, statementLoader);
+          statementLoader);
+    }
+    RDFParserConfig conf = statementLoader.getParserConfig();
+    Path localFile = localFile(url);
+    if (localFile != null && conf.getParseThreads() > 1 && ParallelLineParser.isLineBased(format)) {
+      //the parser threads read their chunks straight from the file
+      return new ParallelLineParser(format, conf.getParseThreads(), conf.isVerifyUriSyntax(),
+          statementLoader.getBNodeScope()).parse(localFile, url, statementLoader);
     }
+    try (InputStream in = getInputStream(url, props)) {
+      return parseRDFPayload(format, url, in, statementLoader);
+    }
+  }
+
+  /**
+   * @return the number of bytes (uncompressed) passed on to the parser. The stream is not closed
+   */
+  protected long parseRDFPayload(RDFFormat format, String baseUri, InputStream inputStream,
+      ConfiguredStatementHandler statementLoader) throws IOException {
+    CountingInputStream in = new CountingInputStream(inputStream);
+    instantiateAndKickOffParser(in, baseUri, format, statementLoader);
+    return in.count;
   }
 
   protected void instantiateAndKickOffParser(InputStream inputStream, @Name("url") String url,
       @Name("format") RDFFormat format,
       ConfiguredStatementHandler handler)
       throws IOException {
+    RDFParserConfig conf = handler.getParserConfig();
+    if (conf.getParseThreads() > 1 && ParallelLineParser.isLineBased(format)) {
+      new ParallelLineParser(format, conf.getParseThreads(), conf.isVerifyUriSyntax(),
+          handler.getBNodeScope()).parse(inputStream, url, handler);
+      return;
+    }
     RDFParser rdfParser = Rio.createParser(format);
     rdfParser
         .set(BasicParserSettings.VERIFY_URI_SYNTAX, handler.getParserConfig().isVerifyUriSyntax());
+    if (handler.getBNodeScope() != null) {
+      rdfParser.setValueFactory(DocumentScopedValueFactory.forKey(handler.getBNodeScope()));
+      rdfParser.set(BasicParserSettings.PRESERVE_BNODE_IDS, true);
+    }
     rdfParser.setRDFHandler(handler);
     rdfParser.parse(inputStream, url);
   }
 
   protected InputStream getInputStream(String url, Map<String, Object> props) throws IOException {
-    URLConnection urlConn;
-
-    if ((url.contains(".zip") || url.contains(".tgz")|| url.contains(".gz")|| url.contains(".bz2"))) {
-      String zipFileName = null;
-      if (url.contains("!")) {
-        String[] tokens = url.split("!");
-        url = tokens[0];
-        zipFileName = tokens[1];
-        if (zipFileName.equals("")){
-          throw new IllegalArgumentException("filename can't be empty");
-        }
-        if (!(url.endsWith(".tar.gz") || url.endsWith(".tgz")||url.endsWith(".zip"))){
-          throw new IllegalArgumentException("'!' notation for filenames can only be used with zip or tgz files");
-        }
+    if (!isCompressedOrArchive(url)) {
+      if (url.startsWith("file:")) {
+        return openLocalFile(url);
       }
-      urlConn = new URL(url).openConnection();
-
-      if (url.endsWith(".zip")) {
-        ZipInputStream zip = new ZipInputStream(urlConn.getInputStream());
-        if (zipFileName!=null){
-          ZipEntry zipEntry;
-          while ((zipEntry = zip.getNextEntry()) != null) {
-            if (!zipEntry.isDirectory() && zipEntry.getName().equals(zipFileName)) {
-              return new ByteArrayInputStream(IOUtils.toByteArray(zip));
-            }
-          }
-        }else {
-          throw new IllegalArgumentException("Filename is required for zip files (use '!' notation)");
+      URLConnection urlConn = openConnection(url, props);
+      String newUrl = handleRedirect(urlConn, url);
+      if (newUrl != null && !url.equals(newUrl)) {
+        urlConn.getInputStream().close();
+        return getInputStream(newUrl, props);
+      }
+      return urlConn.getInputStream();
+    }
+
+    String zipFileName = null;
+    if (url.contains("!")) {
+      String[] tokens = url.split("!");
+      url = tokens[0];
+      zipFileName = tokens[1];
+      if (zipFileName.equals("")){
+        throw new IllegalArgumentException("filename can't be empty");
+      }
+      if (!(isTarGz(url) || url.endsWith(".zip"))){
+        throw new IllegalArgumentException("'!' notation for filenames can only be used with zip or tgz files");
+      }
+    }
+
+    if (url.endsWith(".zip")) {
+      if (zipFileName == null) {
+        throw new IllegalArgumentException("Filename is required for zip files (use '!' notation)");
+      }
+      Path zipFile = localPath(url);
+      if (zipFile != null) {
+        return openZipEntry(zipFile, zipFileName, url);
+      }
+      ZipInputStream zip = new ZipInputStream(openArchive(url, props));
+      ZipEntry zipEntry;
+      while ((zipEntry = zip.getNextEntry()) != null) {
+        if (!zipEntry.isDirectory() && zipEntry.getName().equals(zipFileName)) {
+          //reads stop at the end of the entry, it's streamed without loading it in memory
+          return zip;
         }
-      } else if (url.endsWith(".tar.gz") || url.endsWith(".tgz")) {
-        TarArchiveInputStream tgz = new TarArchiveInputStream(new GZIPInputStream(urlConn.getInputStream()));
-        if (zipFileName!=null){
-          ArchiveEntry zipEntry;
-          while ((zipEntry = tgz.getNextEntry()) != null) {
-            if (!zipEntry.isDirectory() && zipEntry.getName().equals(zipFileName)) {
-              return new ByteArrayInputStream(IOUtils.toByteArray(tgz));
-            }
+      }
+      zip.close();
+      throw new IllegalArgumentException("Entry " + zipFileName + " not found in " + url);
+    } else if (isTarGz(url)) {
+      TarArchiveInputStream tgz = openTarGz(url, props);
+      if (zipFileName!=null){
+        ArchiveEntry zipEntry;
+        while ((zipEntry = tgz.getNextEntry()) != null) {
+          if (!zipEntry.isDirectory() && zipEntry.getName().equals(zipFileName)) {
+            return tgz;
           }
-        } else {
-          return tgz;
         }
-      } else if (url.endsWith(".gz")){
-        return new GZIPInputStream(urlConn.getInputStream());
-      } else if (url.endsWith(".bz2")){
-        return new BZip2CompressorInputStream(urlConn.getInputStream());
+        tgz.close();
+        throw new IllegalArgumentException("Entry " + zipFileName + " not found in " + url);
+      } else {
+        return tgz;
       }
-    }else {
-      urlConn = new URL(url).openConnection();
     }
 
+    InputStream compressed = openArchive(url, props);
+    if (url.endsWith(".gz")){
+      return ParallelGzipInputStream.open(compressed, decompressThreads(props));
+    } else if (url.endsWith(".bz2")){
+      return new BZip2CompressorInputStream(compressed);
+    } else if (url.endsWith(".xz")) {
+      return new XZCompressorInputStream(compressed, true);
+    } else if (url.endsWith(".zst") || url.endsWith(".zstd")) {
+      if (!ZstdUtils.isZstdCompressionAvailable()) {
+        compressed.close();
+        throw new IllegalArgumentException("zstd decompression requires the "
+            + "com.github.luben:zstd-jni jar in the plugins directory (it is not bundled with "
+            + "n10s as it includes native code)");
+      }
+      return new ZstdCompressorInputStream(compressed);
+    }
+    //the extension is somewhere else in the name, it's not compressed
+    return compressed;
+  }
 
-      if (props.containsKey("headerParams")) {
-        Map<String, String> headerParams = (Map<String, String>) props.get("headerParams");
-        Object method = headerParams.get("method");
-        if (method != null && urlConn instanceof HttpURLConnection) {
-          HttpURLConnection http = (HttpURLConnection) urlConn;
-          http.setRequestMethod(method.toString());
+  /**
+   * Opens the connection to a remote url, sending the headerParams and the payload in the props
+   */
+  private static URLConnection openConnection(String url, Map<String, Object> props)
+      throws IOException {
+    URLConnection urlConn = new URL(url).openConnection();
+    if (props.containsKey("headerParams")) {
+      Map<String, String> headerParams = (Map<String, String>) props.get("headerParams");
+      Object method = headerParams.get("method");
+      if (method != null && urlConn instanceof HttpURLConnection) {
+        HttpURLConnection http = (HttpURLConnection) urlConn;
+        http.setRequestMethod(method.toString());
+      }
+      headerParams.forEach((k, v) -> urlConn.setRequestProperty(k, v));
+    }
+    if (props.containsKey("payload")) {
+      urlConn.setDoOutput(true);
+      BufferedWriter writer = new BufferedWriter(
+          new OutputStreamWriter(urlConn.getOutputStream(), "UTF-8"));
+      writer.write(props.get("payload").toString());
+      writer.close();
+    }
+    return urlConn;
+  }
+
+  /**
+   * @return the raw (still compressed) content of an archive or compressed file
+   */
+  private static InputStream openArchive(String url, Map<String, Object> props)
+      throws IOException {
+    if (url.startsWith("file:")) {
+      return openLocalFile(url);
+    }
+    URLConnection urlConn = openConnection(url, props);
+    String newUrl = handleRedirect(urlConn, url);
+    if (newUrl != null && !url.equals(newUrl)) {
+      urlConn.getInputStream().close();
+      return openArchive(newUrl, props);
+    }
+    return urlConn.getInputStream();
+  }
+
+  private static TarArchiveInputStream openTarGz(String url, Map<String, Object> props)
+      throws IOException {
+    return new TarArchiveInputStream(
+        ParallelGzipInputStream.open(openArchive(url, props), decompressThreads(props)));
+  }
+
+  /**
+   * Local zip files are read with ZipFile, which finds the entry in the central directory at the
+   * end of the file instead of reading through all the entries stored before it.
+   */
+  private static InputStream openZipEntry(Path path, String entryName, String url)
+      throws IOException {
+    ZipFile zipFile = new ZipFile(path.toFile());
+    ZipEntry zipEntry = zipFile.getEntry(entryName);
+    if (zipEntry == null || zipEntry.isDirectory()) {
+      zipFile.close();
+      throw new IllegalArgumentException("Entry " + entryName + " not found in " + url);
+    }
+    return new FilterInputStream(zipFile.getInputStream(zipEntry)) {
+      @Override
+      public void close() throws IOException {
+        try {
+          super.close();
+        } finally {
+          zipFile.close();
         }
-        headerParams.forEach((k, v) -> urlConn.setRequestProperty(k, v));
       }
-      if (props.containsKey("payload")) {
-        urlConn.setDoOutput(true);
-        BufferedWriter writer = new BufferedWriter(
-            new OutputStreamWriter(urlConn.getOutputStream(), "UTF-8"));
-        writer.write(props.get("payload").toString());
-        writer.close();
+    };
+  }
+
+  private static boolean isTarGz(String url) {
+    return url.endsWith(".tar.gz") || url.endsWith(".tgz");
+  }
+
+  private static int decompressThreads(Map<String, Object> props) {
+    return props.containsKey("decompressThreads")
+        ? ((Number) props.get("decompressThreads")).intValue()
+        : Math.min(DEFAULT_DECOMPRESS_THREADS, Runtime.getRuntime().availableProcessors());
+  }
+
+  private static boolean isCompressedOrArchive(String url) {
+    return url.contains(".zip") || url.contains(".tgz") || url.contains(".gz")
+        || url.contains(".bz2") || url.contains(".xz") || url.contains(".zst");
+  }
+
+  /**
+   * Local files are read without going through URLConnection, with a larger buffer than the one
+   * it uses.
+   */
+  private static InputStream openLocalFile(String url) throws IOException {
+    try {
+      return new BufferedInputStream(Files.newInputStream(Paths.get(new URI(url))),
+          LOCAL_FILE_BUFFER_SIZE);
+    } catch (URISyntaxException | IllegalArgumentException e) {
+      //not a valid file uri (relative paths and the like), let URLConnection deal with it
+      return new URL(url).openConnection().getInputStream();
+    }
+  }
+
+  /**
+   * @return the path of an uncompressed local file, null for any other url
+   */
+  private static Path localFile(String url) {
+    return url == null || isCompressedOrArchive(url) ? null : localPath(url);
+  }
+
+  /**
+   * @return the path of a local file, null for any other url
+   */
+  private static Path localPath(String url) {
+    if (!url.startsWith("file:")) {
+      return null;
+    }
+    try {
+      Path path = Paths.get(new URI(url));
+      return Files.isRegularFile(path) ? path : null;
+    } catch (URISyntaxException | IllegalArgumentException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Keeps track of the bytes read by the parser
+   */
+  private static class CountingInputStream extends FilterInputStream {
+
+    private long count = 0;
+
+    CountingInputStream(InputStream in) {
+      super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+      int b = super.read();
+      if (b >= 0) {
+        count++;
       }
-      String newUrl = handleRedirect(urlConn, url);
-      if (newUrl != null && !url.equals(newUrl)) {
-        urlConn.getInputStream().close();
-        return getInputStream(newUrl, props);
+      return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      int read = super.read(b, off, len);
+      if (read > 0) {
+        count += read;
       }
-      return urlConn.getInputStream();
+      return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      long skipped = super.skip(n);
+      count += skipped;
+      return skipped;
+    }
   }
 
   //Taken from APOC (apoc.util.Util)
@@ -231,6 +472,222 @@ public class CommonProcedures {
   }
 
 
+  /**
+   * Expands the wildcards in a url into the urls of all the sources it refers to: files in a
+   * directory (file:///data/*.nt.gz) and/or entries in zip and tgz archives (dump.zip!*.ttl).
+   * Sources are returned in name order. Urls without wildcards are returned as they are.
+   */
+  protected List<String> expandGlobs(String url, Map<String, Object> props) throws IOException {
+    int bang = url.indexOf('!');
+    String entry = bang < 0 ? null : url.substring(bang + 1);
+    List<String> files = expandFileGlob(bang < 0 ? url : url.substring(0, bang));
+    if (entry == null || !GLOB_CHARS.matcher(entry).find()) {
+      if (entry == null) {
+        return files;
+      }
+      List<String> urls = new ArrayList<>();
+      files.forEach(f -> urls.add(f + "!" + entry));
+      return urls;
+    }
+    PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + entry);
+    List<String> urls = new ArrayList<>();
+    for (String archive : files) {
+      for (String name : listArchiveEntries(archive, props)) {
+        if (matcher.matches(Paths.get(name))) {
+          urls.add(archive + "!" + name);
+        }
+      }
+    }
+    return urls;
+  }
+
+  /**
+   * @return the names of the files in a zip or tgz archive, sorted. Only the central directory of
+   * local zip files is read, tgz archives need to be decompressed to find their entries.
+   */
+  private List<String> listArchiveEntries(String archiveUrl, Map<String, Object> props)
+      throws IOException {
+    List<String> names = new ArrayList<>();
+    Path localZip = archiveUrl.endsWith(".zip") ? localPath(archiveUrl) : null;
+    if (localZip != null) {
+      try (ZipFile zipFile = new ZipFile(localZip.toFile())) {
+        zipFile.stream().filter(zipEntry -> !zipEntry.isDirectory())
+            .forEach(zipEntry -> names.add(zipEntry.getName()));
+      }
+    } else if (archiveUrl.endsWith(".zip")) {
+      try (ZipInputStream zip = new ZipInputStream(openArchive(archiveUrl, props))) {
+        ZipEntry zipEntry;
+        while ((zipEntry = zip.getNextEntry()) != null) {
+          if (!zipEntry.isDirectory()) {
+            names.add(zipEntry.getName());
+          }
+        }
+      }
+    } else if (isTarGz(archiveUrl)) {
+      try (TarArchiveInputStream tgz = openTarGz(archiveUrl, props)) {
+        ArchiveEntry tgzEntry;
+        while ((tgzEntry = tgz.getNextEntry()) != null) {
+          if (!tgzEntry.isDirectory()) {
+            names.add(tgzEntry.getName());
+          }
+        }
+      }
+    } else {
+      throw new IllegalArgumentException(
+          "'!' notation for filenames can only be used with zip or tgz files");
+    }
+    names.sort(null);
+    return names;
+  }
+
+  /**
+   * Reads one after the other the sources a url refers to (see expandGlobs). The entries of tgz
+   * archives matching a wildcard are read in a single pass over each archive, in the order they
+   * are stored in it, instead of decompressing the archive once to list them and once more for
+   * each one of them.
+   */
+  protected class SourceReader implements Closeable {
+
+    private final Map<String, Object> props;
+    //the sources, or the tgz archives when their entries are read in a single pass
+    private final Iterator<String> urls;
+    private final PathMatcher entryMatcher;
+    private final boolean severalSources;
+    private final List<String> sourcesRead = new ArrayList<>();
+    private TarArchiveInputStream archive;
+    private String archiveUrl;
+    private String current;
+
+    /**
+     * @param url the url of the sources, null for inline RDF
+     */
+    public SourceReader(String url, Map<String, Object> props) throws IOException {
+      this.props = props;
+      int bang = url == null ? -1 : url.indexOf('!');
+      if (bang >= 0 && isTarGz(url.substring(0, bang))
+          && GLOB_CHARS.matcher(url.substring(bang + 1)).find()) {
+        urls = expandFileGlob(url.substring(0, bang)).iterator();
+        entryMatcher = FileSystems.getDefault().getPathMatcher("glob:" + url.substring(bang + 1));
+        severalSources = true;
+      } else {
+        List<String> sources = url == null ? Collections.singletonList(null)
+            : expandGlobs(url, props);
+        urls = sources.iterator();
+        entryMatcher = null;
+        severalSources = sources.size() > 1;
+      }
+    }
+
+    /**
+     * Moves on to the next source
+     *
+     * @return false when there are no more sources
+     */
+    public boolean next() throws IOException {
+      if (entryMatcher != null) {
+        current = nextEntry();
+        if (current == null) {
+          return false;
+        }
+      } else if (urls.hasNext()) {
+        current = urls.next();
+      } else {
+        return false;
+      }
+      sourcesRead.add(current);
+      return true;
+    }
+
+    private String nextEntry() throws IOException {
+      while (archive != null || urls.hasNext()) {
+        if (archive == null) {
+          archiveUrl = urls.next();
+          archive = openTarGz(archiveUrl, props);
+        }
+        ArchiveEntry tgzEntry;
+        while ((tgzEntry = archive.getNextEntry()) != null) {
+          if (!tgzEntry.isDirectory() && entryMatcher.matches(Paths.get(tgzEntry.getName()))) {
+            return archiveUrl + "!" + tgzEntry.getName();
+          }
+        }
+        archive.close();
+        archive = null;
+      }
+      return null;
+    }
+
+    /**
+     * @return the url of the current source
+     */
+    public String url() {
+      return current;
+    }
+
+    /**
+     * @return the urls of the sources returned so far
+     */
+    public List<String> sourcesRead() {
+      return sourcesRead;
+    }
+
+    /**
+     * @return whether the url can refer to more than one source (it's not known in advance for
+     * the entries of tgz archives)
+     */
+    public boolean isSeveralSources() {
+      return severalSources;
+    }
+
+    /**
+     * Parses the current source
+     *
+     * @return the number of bytes (uncompressed) passed on to the parser
+     */
+    public long parse(RDFFormat format, String rdfFragment, ConfiguredStatementHandler handler)
+        throws IOException {
+      if (archive != null) {
+        //reads stop at the end of the entry, the archive stays open for the next ones
+        return parseRDFPayload(format, current, archive, handler);
+      }
+      return parseRDFPayloadOrFromUrl(format, current, rdfFragment, props, handler);
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (archive != null) {
+        archive.close();
+        archive = null;
+      }
+    }
+  }
+
+  /**
+   * Expands a file url with wildcards in its last segment (like file:///data/*.nt.gz) into the
+   * urls of the matching files, in name order. Any other url is returned as is.
+   */
+  protected List<String> expandFileGlob(String url) throws IOException {
+    int lastSlash = url.lastIndexOf('/');
+    if (!url.startsWith("file:") || lastSlash < 0 || !GLOB_CHARS.matcher(url.substring(lastSlash))
+        .find()) {
+      return List.of(url);
+    }
+    Path dir;
+    try {
+      dir = Paths.get(new URI(url.substring(0, lastSlash + 1)));
+    } catch (URISyntaxException | IllegalArgumentException e) {
+      throw new IOException("Invalid file url: " + url, e);
+    }
+    PathMatcher matcher = dir.getFileSystem()
+        .getPathMatcher("glob:" + url.substring(lastSlash + 1));
+    List<String> urls = new ArrayList<>();
+    try (Stream<Path> files = Files.list(dir)) {
+      files.filter(f -> Files.isRegularFile(f) && matcher.matches(f.getFileName()))
+          .sorted()
+          .forEach(f -> urls.add(f.toUri().toString()));
+    }
+    return urls;
+  }
+
   protected RDFFormat getFormat(String format) throws RDFImportBadParams {
     if (format != null) {
       for (RDFFormat parser : availableParsers) {
@@ -8,6 +8,14 @@ public abstract class ConfiguredStatementHandler implements RDFHandler {
 
     public abstract RDFParserConfig getParserConfig();
 
+    /**
+     * @return the key blank node ids are derived from, so that they are the same in every parse
+     * given the same key, or null for random ids
+     */
+    public String getBNodeScope() {
+        return null;
+    }
+
     public class TripleLimitReached extends RDFParseException {
 
     public TripleLimitReached(String s) {
@@ -0,0 +1,19 @@
+package n10s;
+
+import static org.neo4j.configuration.SettingValueParsers.BOOL;
+
+import org.neo4j.configuration.Description;
+import org.neo4j.configuration.SettingImpl;
+import org.neo4j.configuration.SettingsDeclaration;
+import org.neo4j.graphdb.config.Setting;
+
+/**
+ * Settings of the n10s plugin, set in neo4j.conf.
+ */
+public class N10sSettings implements SettingsDeclaration {
+
+  @Description("Allow n10s.rdf.import.adminFiles to write neo4j-admin import files into the "
+      + "import directory (server.directories.import).")
+  public static final Setting<Boolean> admin_files_enabled = SettingImpl.newBuilder(
+      "dbms.n10s.import.admin_files.enabled", BOOL, false).build();
+}
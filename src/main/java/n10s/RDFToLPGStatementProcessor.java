@@ -1,10 +1,14 @@
 package n10s;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import n10s.graphconfig.GraphConfig;
 import n10s.graphconfig.RDFParserConfig;
 import n10s.utils.DateUtils;
 import n10s.utils.InvalidNamespacePrefixDefinitionInDB;
 import n10s.utils.NsPrefixMap;
+import org.eclipse.collections.impl.set.mutable.primitive.DoubleHashSet;
+import org.eclipse.collections.impl.set.mutable.primitive.LongHashSet;
 import org.eclipse.rdf4j.model.*;
 import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
 import org.eclipse.rdf4j.model.vocabulary.RDF;
@@ -12,6 +16,8 @@ import org.eclipse.rdf4j.model.vocabulary.XMLSchema;
 import org.eclipse.rdf4j.rio.RDFHandlerException;
 import org.neo4j.exceptions.InvalidArgumentException;
 import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.RelationshipType;
 import org.neo4j.graphdb.Transaction;
 import org.neo4j.internal.helpers.collection.Iterables;
 import org.neo4j.logging.Log;
@@ -46,11 +52,50 @@ public abstract class RDFToLPGStatementProcessor extends ConfiguredStatementHand
   public static final int DATATYPE = 3;
   protected final Log log;
   private static final String[] EMPTY_ARRAY = new String[0];
+  //entries in each of the memoised names caches
+  private static final int MEMO_CACHE_SIZE = 10_000;
+
+  private enum LiteralType {STRING, LONG, DOUBLE, BOOLEAN, DATETIME, DATE, WKT}
+
+  private static final Map<IRI, LiteralType> LITERAL_TYPES = createLiteralTypesMap();
+
+  private static Map<IRI, LiteralType> createLiteralTypesMap() {
+    Map<IRI, LiteralType> types = new HashMap<>();
+    types.put(XMLSchema.STRING, LiteralType.STRING);
+    types.put(RDF.LANGSTRING, LiteralType.STRING);
+    for (IRI longType : new IRI[]{XMLSchema.INTEGER, XMLSchema.LONG, XMLSchema.INT,
+        XMLSchema.SHORT, XMLSchema.BYTE, XMLSchema.NON_NEGATIVE_INTEGER,
+        XMLSchema.POSITIVE_INTEGER, XMLSchema.UNSIGNED_LONG, XMLSchema.UNSIGNED_INT,
+        XMLSchema.UNSIGNED_SHORT, XMLSchema.UNSIGNED_BYTE, XMLSchema.NON_POSITIVE_INTEGER,
+        XMLSchema.NEGATIVE_INTEGER}) {
+      types.put(longType, LiteralType.LONG);
+    }
+    types.put(XMLSchema.DECIMAL, LiteralType.DOUBLE);
+    types.put(XMLSchema.DOUBLE, LiteralType.DOUBLE);
+    types.put(XMLSchema.FLOAT, LiteralType.DOUBLE);
+    types.put(XMLSchema.BOOLEAN, LiteralType.BOOLEAN);
+    types.put(XMLSchema.DATETIME, LiteralType.DATETIME);
+    types.put(XMLSchema.DATE, LiteralType.DATE);
+    types.put(WKTLITERAL_URI, LiteralType.WKT);
+    return types;
+  }
+
+  private static final Pattern WKT_POINT = Pattern.compile(
+      "^Point\\((?:(\\-?\\d+(?:\\.\\d+)?)\\s+)?(\\-?\\d+(?:\\.\\d+)?)\\s+(\\-?\\d+(?:\\.\\d+)?)\\)$");
+  private static final DateTimeFormatter NEO4J_ZONED_DATETIME_FORMAT =
+      new DateTimeFormatterBuilder()
+          .appendPattern("yyyy-MM-dd'T'HH:mm:ss")
+          .appendFraction(ChronoField.MILLI_OF_SECOND, 0, 9, true)
+          .appendPattern("'['").appendZoneId().appendPattern("']'").toFormatter();
   protected Transaction tx;
   protected final RDFParserConfig parserConfig;
   private final Map<String, String> vocMappings;
   protected GraphDatabaseService graphdb;
   protected NsPrefixMap namespaces;
+  //what is staged between partial commits. The ontology, SKOS, quad, delete and preview processors
+  //read and write these directly. DirectStatementLoader stages into a dictionary encoded
+  //ImportBatch instead, overriding the methods that add resources, labels, properties and
+  //relationships
   protected Set<Statement> statements = new HashSet<>();
   protected Map<String, Map<String, Object>> resourceProps = new HashMap<>();
   protected Map<Statement, Map<String, Object>> relProps = new HashMap<>();
@@ -61,6 +106,16 @@ public abstract class RDFToLPGStatementProcessor extends ConfiguredStatementHand
   protected final ValueFactory vf = SimpleValueFactory.getInstance();
   protected StringBuilder loadWarnings = new StringBuilder();
   protected boolean datatypeConflictFound = false;
+  //memoised handleIRI results (one cache per element type) and the token objects built from them.
+  //handleIRI can be invoked from writer threads so they're concurrent caches, bounded as
+  //vocabularies in the data (labels from rdf:type in particular) can be arbitrarily large
+  private final List<Cache<IRI, String>> handledIRIs = List.of(newMemoCache(), newMemoCache(),
+      newMemoCache(), newMemoCache());
+  private final Cache<IRI, RelationshipType> relationshipTypes = newMemoCache();
+  private final Cache<String, Label> labels = newMemoCache();
+  //namespace map (and version of it) the memoised names were produced with
+  private volatile NsPrefixMap handledIRIsNamespaces;
+  private volatile long handledIRIsNsVersion;
 
 
   public RDFToLPGStatementProcessor(GraphDatabaseService db, Transaction tx, RDFParserConfig conf,
@@ -88,6 +143,17 @@ public abstract class RDFToLPGStatementProcessor extends ConfiguredStatementHand
 
   private void loadNamespaces() throws InvalidNamespacePrefixDefinitionInDB {
     namespaces = new NsPrefixMap(tx, false);
+    if (allocatesPrefixesInDB()) {
+      namespaces.allocateGeneratedPrefixesIn(graphdb);
+    }
+  }
+
+  /**
+   * @return true when generated prefixes are to be committed as soon as they're allocated (see
+   * NsPrefixMap.allocateGeneratedPrefixesIn). Only for processors writing in partial commits
+   */
+  protected boolean allocatesPrefixesInDB() {
+    return false;
   }
 
   /**
@@ -100,59 +166,8 @@ public abstract class RDFToLPGStatementProcessor extends ConfiguredStatementHand
    */
   protected Object getObjectValue(IRI propertyIRI, Literal object) {
     IRI datatype = object.getDatatype();
-    if (datatype.equals(XMLSchema.STRING) || datatype.equals(RDF.LANGSTRING)) {
-      final Optional<String> language = object.getLanguage();
-      if (parserConfig.getLanguageFilter() == null || !language.isPresent() || parserConfig
-          .getLanguageFilter().equals(language.get())) {
-        return object.stringValue() + (
-            parserConfig.getGraphConf().isKeepLangTag() && language.isPresent() ? "@"
-                + language.get()
-                : "");
-      } else {
-        //filtered by lang
-        return null;
-      }
-    } else if (typeMapsToLongType(datatype)) {
-      return object.longValue();
-    } else if (typeMapsToDouble(datatype)) {
-      return object.doubleValue();
-    } else if (datatype.equals(XMLSchema.BOOLEAN)) {
-      return object.booleanValue();
-    } else if (datatype.equals(XMLSchema.DATETIME)) {
-      try {
-        return ZonedDateTime.parse(object.stringValue());
-      }catch(DateTimeParseException dtpe){
-        try{
-          //formatter to support the format shown int the cypher refcard (timezone but no offset)
-          DateTimeFormatter neo4jZonedDateFormat = new DateTimeFormatterBuilder()
-                  .appendPattern("yyyy-MM-dd'T'HH:mm:ss")
-                  .appendFraction(ChronoField.MILLI_OF_SECOND, 0, 9, true)
-                  .appendPattern("'['").appendZoneId().appendPattern("']'").toFormatter();
-          return ZonedDateTime.parse(object.stringValue(), neo4jZonedDateFormat);
-        }catch(DateTimeParseException dtpe2){
-          try {
-            return DateUtils.parseDateTime(object.stringValue());
-          } catch (IllegalArgumentException e) {
-            //if date cannot be parsed we return string value
-            return object.stringValue();
-          }
-        }
-      }
-    }else if (datatype.equals(vf.createIRI(GEOSPARQL_NS, WKTLITERAL))) {
-      try {
-        return PointValue.parse(wktToCartesian(object.stringValue()));
-      } catch (InvalidArgumentException e) {
-        //if pointvalue cannot be parsed we return string value
-        return object.stringValue();
-      }
-    } else if (datatype.equals(XMLSchema.DATE)) {
-      try {
-        return DateUtils.parseDate(object.stringValue());
-      } catch (IllegalArgumentException e) {
-        //if date cannot be parsed we return string value
-        return object.stringValue();
-      }
-    } else {
+    LiteralType literalType = LITERAL_TYPES.get(datatype);
+    if (literalType == null) {
       //it's a custom data type
       if (parserConfig.getGraphConf().isKeepCustomDataTypes() && !(
           parserConfig.getGraphConf().getHandleVocabUris() == GRAPHCONF_VOC_URI_IGNORE
@@ -162,22 +177,145 @@ public abstract class RDFToLPGStatementProcessor extends ConfiguredStatementHand
             .getGraphConf().getCustomDataTypePropList()
             .contains(propertyIRI.stringValue())) {
           return getValueWithDatatype(datatype, object.stringValue());
+        }
+      }
+      return object.stringValue();
+    }
+    switch (literalType) {
+      case STRING:
+        final Optional<String> language = object.getLanguage();
+        if (parserConfig.getLanguageFilter() == null || !language.isPresent() || parserConfig
+            .getLanguageFilter().equals(language.get())) {
+          return object.stringValue() + (
+              parserConfig.getGraphConf().isKeepLangTag() && language.isPresent() ? "@"
+                  + language.get()
+                  : "");
         } else {
+          //filtered by lang
+          return null;
+        }
+      case LONG:
+        return parseLong(object);
+      case DOUBLE:
+        return parseDouble(object);
+      case BOOLEAN:
+        return object.booleanValue();
+      case DATETIME:
+        return parseDateTime(object.stringValue());
+      case DATE:
+        try {
+          return DateUtils.parseDate(object.stringValue());
+        } catch (IllegalArgumentException e) {
+          //if date cannot be parsed we return string value
           return object.stringValue();
         }
+      case WKT:
+        try {
+          return PointValue.parse(wktToCartesian(object.stringValue()));
+        } catch (InvalidArgumentException e) {
+          //if pointvalue cannot be parsed we return string value
+          return object.stringValue();
+        }
+      default:
+        return object.stringValue();
+    }
+  }
+
+  /**
+   * Picks the parser from the shape of the value instead of trying them in sequence and catching
+   * the parse exceptions. Only malformed values go through more than one parser.
+   */
+  private static Object parseDateTime(String value) {
+    int timeStart = value.indexOf('T');
+    int zoneIdStart = value.indexOf('[');
+    int timeEnd = zoneIdStart < 0 ? value.length() : zoneIdStart;
+    if (timeStart > 0 && hasOffset(value, timeStart, timeEnd)) {
+      try {
+        return ZonedDateTime.parse(value);
+      } catch (DateTimeParseException e) {
+        //malformed, let the other parsers have a go
+      }
+    }
+    if (zoneIdStart > 0) {
+      try {
+        //the format shown int the cypher refcard (timezone but no offset)
+        return ZonedDateTime.parse(value, NEO4J_ZONED_DATETIME_FORMAT);
+      } catch (DateTimeParseException e) {
+        //malformed, let the other parsers have a go
+      }
+    }
+    try {
+      return DateUtils.parseDateTime(value);
+    } catch (IllegalArgumentException e) {
+      //if date cannot be parsed we return string value
+      return value;
+    }
+  }
+
+  private static boolean hasOffset(String value, int timeStart, int timeEnd) {
+    for (int i = timeStart + 1; i < timeEnd; i++) {
+      char c = value.charAt(i);
+      if (c == 'Z' || c == 'z' || c == '+' || c == '-') {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Plain (optionally signed) integers that fit in a long are parsed in place, anything else goes
+   * through the canonical XSD parsing.
+   */
+  private static long parseLong(Literal object) {
+    String label = object.getLabel();
+    int length = label.length();
+    int start = length > 0 && (label.charAt(0) == '-' || label.charAt(0) == '+') ? 1 : 0;
+    if (start == length || length - start > 18) {
+      return object.longValue();
+    }
+    long value = 0;
+    for (int i = start; i < length; i++) {
+      char c = label.charAt(i);
+      if (c < '0' || c > '9') {
+        return object.longValue();
       }
+      value = value * 10 + (c - '0');
     }
-    // default
-    return object.stringValue();
+    return label.charAt(0) == '-' ? -value : value;
   }
 
-  private String wktToCartesian(String wktString) {
-    Pattern wktRegex = Pattern.compile("^Point\\((?:(\\-?\\d+(?:\\.\\d+)?)\\s+)?(\\-?\\d+(?:\\.\\d+)?)\\s+(\\-?\\d+(?:\\.\\d+)?)\\)$");
-    Matcher m = wktRegex.matcher(wktString);
-    if(m.matches() && m.groupCount() == 3 && m.group(1)==null){
-      return m.replaceFirst("point({x: $2, y: $3, crs: 'cartesian'})");
-    } else if(m.matches() && m.groupCount() == 3 && m.group(1)!=null){
-      return m.replaceFirst("point({x: $1, y: $2, z: $3, crs: 'cartesian-3d'})");
+  /**
+   * Values made only of digits, sign, decimal point and exponent are handed to the JDK parser
+   * directly, the XSD special values (INF, NaN) and anything else go through the canonical XSD
+   * parsing.
+   */
+  private static double parseDouble(Literal object) {
+    String label = object.getLabel();
+    int length = label.length();
+    if (length == 0) {
+      return object.doubleValue();
+    }
+    for (int i = 0; i < length; i++) {
+      char c = label.charAt(i);
+      if ((c < '0' || c > '9') && c != '.' && c != '-' && c != '+' && c != 'e' && c != 'E') {
+        return object.doubleValue();
+      }
+    }
+    try {
+      return Double.parseDouble(label);
+    } catch (NumberFormatException e) {
+      return object.doubleValue();
+    }
+  }
+
+  private static String wktToCartesian(String wktString) {
+    Matcher m = WKT_POINT.matcher(wktString);
+    boolean isPoint = m.matches();
+    if (isPoint && m.group(1) == null) {
+      return "point({x: " + m.group(2) + ", y: " + m.group(3) + ", crs: 'cartesian'})";
+    } else if (isPoint) {
+      return "point({x: " + m.group(1) + ", y: " + m.group(2) + ", z: " + m.group(3)
+          + ", crs: 'cartesian-3d'})";
     } else {
       // if it cannot be parsed it's left unchanged and will crash
       // when trying to create a PointObject out of it (exception will be thrown)
@@ -197,31 +335,66 @@ public abstract class RDFToLPGStatementProcessor extends ConfiguredStatementHand
     return result.toString();
   }
 
-  private boolean typeMapsToDouble(IRI datatype) {
-    return datatype.equals(XMLSchema.DECIMAL) || datatype.equals(XMLSchema.DOUBLE) ||
-        datatype.equals(XMLSchema.FLOAT);
+  @Override
+  public void handleComment(String comment) throws RDFHandlerException {
+
+  }
+
+
+  protected String handleIRI(IRI iri, int elementType) {
+    checkHandledIRIs();
+    Cache<IRI, String> handled = handledIRIs.get(elementType);
+    String name = handled.getIfPresent(iri);
+    if (name == null) {
+      name = buildName(iri, elementType);
+      handled.put(iri, name);
+    }
+    return name;
+  }
+
+  protected RelationshipType relationshipTypeFor(IRI predicate) {
+    checkHandledIRIs();
+    RelationshipType type = relationshipTypes.getIfPresent(predicate);
+    if (type == null) {
+      type = RelationshipType.withName(handleIRI(predicate, RELATIONSHIP));
+      relationshipTypes.put(predicate, type);
+    }
+    return type;
   }
 
-  private boolean typeMapsToLongType(IRI datatype) {
-    return datatype.equals(XMLSchema.INTEGER) || datatype.equals(XMLSchema.LONG) || datatype
-        .equals(XMLSchema.INT) ||
-        datatype.equals(XMLSchema.SHORT) || datatype.equals(XMLSchema.BYTE) ||
-        datatype.equals(XMLSchema.NON_NEGATIVE_INTEGER) || datatype
-        .equals(XMLSchema.POSITIVE_INTEGER) ||
-        datatype.equals(XMLSchema.UNSIGNED_LONG) || datatype.equals(XMLSchema.UNSIGNED_INT) ||
-        datatype.equals(XMLSchema.UNSIGNED_SHORT) || datatype.equals(XMLSchema.UNSIGNED_BYTE) ||
-        datatype.equals(XMLSchema.NON_POSITIVE_INTEGER) || datatype
-        .equals(XMLSchema.NEGATIVE_INTEGER);
+  protected Label labelFor(String name) {
+    Label label = labels.getIfPresent(name);
+    if (label == null) {
+      label = Label.label(name);
+      labels.put(name, label);
+    }
+    return label;
   }
 
-  @Override
-  public void handleComment(String comment) throws RDFHandlerException {
+  private static <K, V> Cache<K, V> newMemoCache() {
+    return CacheBuilder.newBuilder().maximumSize(MEMO_CACHE_SIZE).build();
+  }
 
+  /**
+   * Prefixes can only be removed or replaced outside an import but the memoised names are
+   * dropped whenever the namespace map is swapped or changes in a way that alters existing
+   * prefixes, just in case.
+   */
+  private void checkHandledIRIs() {
+    if (handledIRIsNamespaces != namespaces
+        || (namespaces != null && handledIRIsNsVersion != namespaces.getVersion())) {
+      resetHandledIRIs();
+    }
   }
 
+  private synchronized void resetHandledIRIs() {
+    handledIRIs.forEach(Cache::invalidateAll);
+    relationshipTypes.invalidateAll();
+    handledIRIsNamespaces = namespaces;
+    handledIRIsNsVersion = namespaces == null ? 0 : namespaces.getVersion();
+  }
 
-  protected String handleIRI(IRI iri, int elementType) {
-    //TODO: would caching this improve perf? It's kind of cached in getPrefix()
+  private String buildName(IRI iri, int elementType) {
     if (parserConfig.getGraphConf().getHandleVocabUris() == GRAPHCONF_VOC_URI_SHORTEN ||
         parserConfig.getGraphConf().getHandleVocabUris() == GRAPHCONF_VOC_URI_SHORTEN_STRICT) {
       String localName = iri.getLocalName();
@@ -274,10 +447,13 @@ public abstract class RDFToLPGStatementProcessor extends ConfiguredStatementHand
     if (parserConfig.getGraphConf().getHandleVocabUris() == GRAPHCONF_VOC_URI_SHORTEN ||
         parserConfig.getGraphConf().getHandleVocabUris() == GRAPHCONF_VOC_URI_SHORTEN_STRICT) {
       //differentiate between map/shorten and keep_long urls?
-      try {
-        loadNamespaces();
-      } catch (InvalidNamespacePrefixDefinitionInDB e) {
-        throw new RDFHandlerException(e.getMessage());
+      if (namespaces == null) {
+        //unless shared with other processors
+        try {
+          loadNamespaces();
+        } catch (InvalidNamespacePrefixDefinitionInDB e) {
+          throw new RDFHandlerException(e.getMessage());
+        }
       }
       log.debug(
           "Found " + namespaces.getPrefixes().size() + " namespaces in the DB: " + namespaces);
@@ -343,32 +519,36 @@ public abstract class RDFToLPGStatementProcessor extends ConfiguredStatementHand
 
     String propName = handleIRI(propertyIRI, PROPERTY);
 
-    if (parserConfig.getGraphConf().getHandleMultival() == GRAPHCONF_MULTIVAL_PROP_OVERWRITE) {
+    if (isMultivalued(propertyIRI)) {
+      if (props.containsKey(propName)) {
+        List<Object> propVals = (List<Object>) props.get(propName);
+        propVals.add(propValue);
+
+        // If multiple datatypes are tried to be stored in the same List,
+        // a java.lang.ArrayStoreException arises
+      } else {
+        List<Object> propVals = new ArrayList<>();
+        propVals.add(propValue);
+        props.put(propName, propVals);
+      }
+    } else {
       // Ok for single valued props. If applied to multivalued ones
       // only the last value read is kept.
       props.put(propName, propValue);
-    } else if (parserConfig.getGraphConf().getHandleMultival() == GRAPHCONF_MULTIVAL_PROP_ARRAY) {
-      if (parserConfig.getGraphConf().getMultivalPropList() == null || parserConfig.getGraphConf()
-          .getMultivalPropList()
-          .contains(propertyIRI.stringValue())) {
-        if (props.containsKey(propName)) {
-          List<Object> propVals = (List<Object>) props.get(propName);
-          propVals.add(propValue);
-
-          // If multiple datatypes are tried to be stored in the same List,
-          // a java.lang.ArrayStoreException arises
-        } else {
-          List<Object> propVals = new ArrayList<>();
-          propVals.add(propValue);
-          props.put(propName, propVals);
-        }
-      } else {
-        //if handleMultival set to ARRAY but prop not in list, then default to overwrite.
-        props.put(propName, propValue);
-      }
     }
   }
 
+  /**
+   * @return true when the values of the property are collected in an array, false when each value
+   * overwrites the previous one
+   */
+  protected boolean isMultivalued(IRI propertyIRI) {
+    //if handleMultival set to ARRAY but prop not in list, then default to overwrite.
+    return parserConfig.getGraphConf().getHandleMultival() == GRAPHCONF_MULTIVAL_PROP_ARRAY
+        && (parserConfig.getGraphConf().getMultivalPropList() == null || parserConfig
+        .getGraphConf().getMultivalPropList().contains(propertyIRI.stringValue()));
+  }
+
   protected void setLabel(String subjectUri, String label) {
     Set<String> labels;
 
@@ -382,7 +562,7 @@ public abstract class RDFToLPGStatementProcessor extends ConfiguredStatementHand
     labels.add(label);
   }
 
-  private void addResource(String subjectUri) {
+  protected void addResource(String subjectUri) {
 
     if (!resourceLabels.containsKey(subjectUri)) {
       initialise(subjectUri);
@@ -416,10 +596,9 @@ public abstract class RDFToLPGStatementProcessor extends ConfiguredStatementHand
 
           addResource(subjectUri1);
           addResource(objectUri1);
-          Statement stmt = vf.createStatement(vf.createIRI(subjectUri1),
-              reifiedStatement.getPredicate(), vf.createIRI(objectUri1));
-          addStatement(stmt);
-          addRelProp(stmt, predicate, (Literal)object);
+          addRelationship(subjectUri1, reifiedStatement.getPredicate(), objectUri1);
+          addRelProp(subjectUri1, reifiedStatement.getPredicate(), objectUri1, predicate,
+              (Literal) object);
           mappedTripleCounter++;
         }
       } else if (object instanceof Literal) {
@@ -439,9 +618,7 @@ public abstract class RDFToLPGStatementProcessor extends ConfiguredStatementHand
             == GRAPHCONF_RDFTYPES_AS_LABELS_AND_NODES) {
           addResource(subjectUri);
           addResource(object.stringValue());
-          //addStatement(st);
-          addStatement(vf.createStatement(vf.createIRI(subjectUri),
-                  predicate, object));
+          addRelationship(subjectUri, predicate, object.stringValue());
         }
 
         mappedTripleCounter++;
@@ -452,8 +629,7 @@ public abstract class RDFToLPGStatementProcessor extends ConfiguredStatementHand
         addResource(subjectUri);
         String objectUri = object instanceof BNode? "bnode://" + object.stringValue(): object.stringValue();
         addResource(objectUri);
-        addStatement(vf.createStatement(vf.createIRI(subjectUri),
-                predicate, vf.createIRI(objectUri)));
+        addRelationship(subjectUri, predicate, objectUri);
         mappedTripleCounter++;
       }
     }
@@ -465,6 +641,22 @@ public abstract class RDFToLPGStatementProcessor extends ConfiguredStatementHand
     }
   }
 
+  /**
+   * Stages the relationship between two resources
+   */
+  protected void addRelationship(String subjectUri, IRI predicate, String objectUri) {
+    addStatement(vf.createStatement(vf.createIRI(subjectUri), predicate, vf.createIRI(objectUri)));
+  }
+
+  /**
+   * Stages a property of the relationship between two resources (from an RDF-star statement)
+   */
+  protected boolean addRelProp(String subjectUri, IRI relPredicate, String objectUri,
+      IRI predicate, Literal propValueRaw) {
+    return addRelProp(vf.createStatement(vf.createIRI(subjectUri), relPredicate,
+        vf.createIRI(objectUri)), predicate, propValueRaw);
+  }
+
   protected boolean addRelProp(Statement stmt, IRI predicate, Literal propValueRaw){
 
     Map<String, Object> props;
@@ -494,21 +686,139 @@ public abstract class RDFToLPGStatementProcessor extends ConfiguredStatementHand
     return (namespaces == null ? null : namespaces.getPrefixToNs());
   }
 
-  // Stolen from APOC ;)
-  protected Object toPropertyValue(Object value) {
-    Iterable it = (Iterable) value;
-    Object first = Iterables.firstOrNull(it);
-    if (first == null) {
+  /**
+   * Builds the array to be stored for a multivalued property. The type of the array is picked once
+   * from the first value and the values are copied straight into a primitive array (long[],
+   * double[], boolean[]) or a String or temporal array, so that Neo4j doesn't need to unbox them
+   * again. Values of different types fall back to the generic (originally from APOC) conversion.
+   */
+  protected static Object toPropertyValue(Object value) {
+    Collection<?> values = value instanceof Collection ? (Collection<?>) value
+        : Iterables.asList((Iterable<?>) value);
+    Iterator<?> it = values.iterator();
+    if (!it.hasNext()) {
       return EMPTY_ARRAY;
     }
-    return Iterables.asArray(first.getClass(), it);
+    Object first = it.next();
+    try {
+      int i = 0;
+      if (first instanceof String) {
+        String[] array = new String[values.size()];
+        for (Object v : values) {
+          array[i++] = (String) v;
+        }
+        return array;
+      } else if (first instanceof Long) {
+        long[] array = new long[values.size()];
+        for (Object v : values) {
+          array[i++] = (Long) v;
+        }
+        return array;
+      } else if (first instanceof Double) {
+        double[] array = new double[values.size()];
+        for (Object v : values) {
+          array[i++] = (Double) v;
+        }
+        return array;
+      } else if (first instanceof Boolean) {
+        boolean[] array = new boolean[values.size()];
+        for (Object v : values) {
+          array[i++] = (Boolean) v;
+        }
+        return array;
+      } else if (first instanceof LocalDate) {
+        return values.toArray(new LocalDate[0]);
+      } else if (first instanceof LocalDateTime) {
+        return values.toArray(new LocalDateTime[0]);
+      } else if (first instanceof ZonedDateTime) {
+        return values.toArray(new ZonedDateTime[0]);
+      }
+    } catch (ClassCastException | ArrayStoreException e) {
+      //heterogeneous values, handled below
+    }
+    // Stolen from APOC ;)
+    return Iterables.asArray(first.getClass(), (Iterable) values);
+  }
+
+  /**
+   * Removes values from the stored value of a multivalued property. The values to delete are put
+   * in a hash set matching the type of the stored array, and the array is compacted in place.
+   * Removing m values from an array of n therefore costs O(n + m) instead of O(n·m).
+   *
+   * @return the remaining values: the same array when nothing was removed, or null when no values
+   * remain
+   */
+  protected static Object removePropertyValues(Object current, Collection<?> valuesToDelete) {
+    int kept = 0;
+    if (current instanceof long[]) {
+      long[] values = (long[]) current;
+      LongHashSet toDelete = new LongHashSet();
+      for (Object v : valuesToDelete) {
+        if (v instanceof Long) {
+          toDelete.add((Long) v);
+        }
+      }
+      for (long value : values) {
+        if (!toDelete.contains(value)) {
+          values[kept++] = value;
+        }
+      }
+      return kept == values.length ? current : kept == 0 ? null : Arrays.copyOf(values, kept);
+    } else if (current instanceof double[]) {
+      double[] values = (double[]) current;
+      DoubleHashSet toDelete = new DoubleHashSet();
+      for (Object v : valuesToDelete) {
+        if (v instanceof Double) {
+          toDelete.add((Double) v);
+        }
+      }
+      for (double value : values) {
+        if (!toDelete.contains(value)) {
+          values[kept++] = value;
+        }
+      }
+      return kept == values.length ? current : kept == 0 ? null : Arrays.copyOf(values, kept);
+    } else if (current instanceof boolean[]) {
+      boolean[] values = (boolean[]) current;
+      boolean deleteTrue = valuesToDelete.contains(Boolean.TRUE);
+      boolean deleteFalse = valuesToDelete.contains(Boolean.FALSE);
+      for (boolean value : values) {
+        if (!(value ? deleteTrue : deleteFalse)) {
+          values[kept++] = value;
+        }
+      }
+      return kept == values.length ? current : kept == 0 ? null : Arrays.copyOf(values, kept);
+    } else if (current instanceof Object[]) {
+      Object[] values = (Object[]) current;
+      Set<Object> toDelete = new HashSet<>(valuesToDelete);
+      for (Object value : values) {
+        if (!toDelete.contains(value)) {
+          values[kept++] = value;
+        }
+      }
+      return kept == values.length ? current : kept == 0 ? null : Arrays.copyOf(values, kept);
+    } else {
+      //single value stored
+      return valuesToDelete.contains(current) ? null : current;
+    }
   }
 
   protected List<String> defaultToString(Iterator it) {
       List<String> list = new ArrayList<>();
+      //the datatype is only guessed again when the class of the values changes
+      Class<?> lastClass = null;
+      IRI datatype = null;
       while(it.hasNext()) {
         Object next = it.next();
-        list.add(next instanceof String? next.toString(): getValueWithDatatype(getBestGuessDatatype(next.getClass()),next.toString()));
+        if (next instanceof String) {
+          list.add((String) next);
+        } else {
+          if (next.getClass() != lastClass) {
+            lastClass = next.getClass();
+            datatype = getBestGuessDatatype(lastClass);
+          }
+          list.add(getValueWithDatatype(datatype, next.toString()));
+        }
       }
     return list;
 
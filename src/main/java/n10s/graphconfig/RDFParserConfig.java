@@ -16,17 +16,42 @@ public class RDFParserConfig {
   private static final long DEFAULT_NODE_CACHE_SIZE = 10000;
   //number of triples streamed by default
   private static final int DEFAULT_STREAM_TRIPLE_LIMIT = 1000;
+  //concurrent transactions used to write each partial commit
+  private static final int DEFAULT_WRITER_THREADS = 1;
+  //adaptive commit sizing aims at partial commits taking this long (ms)...
+  private static final long DEFAULT_TARGET_COMMIT_MILLIS = 2000;
+  //...and staging no more than this (estimated bytes)
+  private static final long DEFAULT_TARGET_COMMIT_MEMORY = 64 * 1024 * 1024;
+  //threads parsing line based formats (N-Triples, N-Quads)
+  private static final int DEFAULT_PARSE_THREADS = 1;
+  //resumeFrom value meaning the last checkpoint saved for the url
+  public static final long RESUME_FROM_LAST_CHECKPOINT = -1;
+  //nodes a graph replace can move between graphs in its swap transaction
+  private static final long DEFAULT_SWAP_LIMIT = 1000000;
   private final Set<String> predicateExclusionList;
   private final boolean verifyUriSyntax;
   private final long nodeCacheSize;
   private final String languageFilter;
-  private long commitSize;
+  //can be updated by the writer thread in adaptive pipelined imports
+  private volatile long commitSize;
   private long streamTripleLimit;
   private boolean abortOnError;
   private GraphConfig graphConf;
   private boolean strictDataTypeCheck;
 
   private boolean singleTx;
+  private boolean pipelined;
+  private int writerThreads;
+  private boolean adaptiveCommit;
+  private long targetCommitMillis;
+  private long targetCommitMemory;
+  private int parseThreads;
+  private boolean checkpoint;
+  private Long resumeFrom;
+  //triples to skip per source when several sources are resumed
+  private Map<String, Long> resumeFromBySource;
+  private boolean appendOnly;
+  private long swapLimit;
 
   public RDFParserConfig(Map<String, Object> props, GraphConfig gc) {
     this.graphConf = gc;
@@ -51,6 +76,37 @@ public class RDFParserConfig {
             .get("strictDataTypeCheck") : true;
     singleTx = props.containsKey("singleTx") ? (Boolean) props
               .get("singleTx") : false;
+    pipelined = props.containsKey("pipelined") ? (Boolean) props
+            .get("pipelined") : false;
+    writerThreads = (props.containsKey("writerThreads") ? ((long) props.get("writerThreads") > 0
+        ? ((Long) props.get("writerThreads")).intValue() : DEFAULT_WRITER_THREADS)
+        : DEFAULT_WRITER_THREADS);
+    adaptiveCommit = props.containsKey("adaptiveCommit") ? (Boolean) props
+        .get("adaptiveCommit") : false;
+    targetCommitMillis = (props.containsKey("targetCommitMillis")
+        && (long) props.get("targetCommitMillis") > 0 ? (long) props.get("targetCommitMillis")
+        : DEFAULT_TARGET_COMMIT_MILLIS);
+    targetCommitMemory = (props.containsKey("targetCommitMemory")
+        && (long) props.get("targetCommitMemory") > 0 ? (long) props.get("targetCommitMemory")
+        : DEFAULT_TARGET_COMMIT_MEMORY);
+    parseThreads = (props.containsKey("parseThreads") && (long) props.get("parseThreads") > 0
+        ? ((Long) props.get("parseThreads")).intValue() : DEFAULT_PARSE_THREADS);
+    checkpoint = props.containsKey("checkpoint") ? (Boolean) props
+        .get("checkpoint") : false;
+    Object resume = props.get("resumeFrom");
+    if (resume instanceof Boolean) {
+      resumeFrom = (Boolean) resume ? RESUME_FROM_LAST_CHECKPOINT : null;
+    } else if (resume instanceof Map) {
+      resumeFromBySource = new HashMap<>();
+      ((Map<String, Object>) resume).forEach((source, skip) ->
+          resumeFromBySource.put(source, Math.max(0, ((Number) skip).longValue())));
+    } else if (resume != null) {
+      resumeFrom = Math.max(0, (long) resume);
+    }
+    appendOnly = props.containsKey("appendOnly") ? (Boolean) props
+        .get("appendOnly") : false;
+    swapLimit = (props.containsKey("swapLimit") && (long) props.get("swapLimit") > 0
+        ? (long) props.get("swapLimit") : DEFAULT_SWAP_LIMIT);
   }
 
   public Set<String> getPredicateExclusionList() {
@@ -65,6 +121,72 @@ public class RDFParserConfig {
     return singleTx;
   }
 
+  public boolean isPipelined() {
+    return pipelined;
+  }
+
+  public int getWriterThreads() {
+    return writerThreads;
+  }
+
+  public boolean isAdaptiveCommit() {
+    return adaptiveCommit;
+  }
+
+  public long getTargetCommitMillis() {
+    return targetCommitMillis;
+  }
+
+  public long getTargetCommitMemory() {
+    return targetCommitMemory;
+  }
+
+  /**
+   * @return whether the resources imported are assumed not to be in the DB yet
+   */
+  public boolean isAppendOnly() {
+    return appendOnly;
+  }
+
+  public long getSwapLimit() {
+    return swapLimit;
+  }
+
+  public int getParseThreads() {
+    return parseThreads;
+  }
+
+  /**
+   * @return true when checkpoints are saved with each partial commit (implied by resumeFrom)
+   */
+  public boolean isCheckpoint() {
+    return checkpoint || resumeFrom != null || resumeFromBySource != null;
+  }
+
+  /**
+   * @return number of triples to skip, RESUME_FROM_LAST_CHECKPOINT or null when not resuming (or
+   * when resuming from a number of triples per source)
+   */
+  public Long getResumeFrom() {
+    return resumeFrom;
+  }
+
+  /**
+   * @return number of triples to skip for the source, RESUME_FROM_LAST_CHECKPOINT or null when it
+   * is imported from the beginning
+   */
+  public Long getResumeFrom(String source) {
+    return resumeFromBySource != null ? resumeFromBySource.get(source) : resumeFrom;
+  }
+
+  /**
+   * @return true when resuming from the same number of triples in every source, which only makes
+   * sense for a single source
+   */
+  public boolean isResumeFromTripleCount() {
+    return resumeFrom != null && resumeFrom != RESUME_FROM_LAST_CHECKPOINT;
+  }
+
   public long getCommitSize() {
     return commitSize;
   }
@@ -120,6 +242,49 @@ public class RDFParserConfig {
       summary.put("abortOnError", abortOnError);
     }
 
+    if (pipelined) {
+      summary.put("pipelined", pipelined);
+    }
+
+    if (writerThreads != DEFAULT_WRITER_THREADS) {
+      summary.put("writerThreads", writerThreads);
+    }
+
+    if (adaptiveCommit) {
+      summary.put("adaptiveCommit", adaptiveCommit);
+    }
+
+    if (targetCommitMillis != DEFAULT_TARGET_COMMIT_MILLIS) {
+      summary.put("targetCommitMillis", targetCommitMillis);
+    }
+
+    if (targetCommitMemory != DEFAULT_TARGET_COMMIT_MEMORY) {
+      summary.put("targetCommitMemory", targetCommitMemory);
+    }
+
+    if (parseThreads != DEFAULT_PARSE_THREADS) {
+      summary.put("parseThreads", parseThreads);
+    }
+
+    if (checkpoint) {
+      summary.put("checkpoint", checkpoint);
+    }
+
+    if (resumeFrom != null) {
+      summary.put("resumeFrom",
+          resumeFrom == RESUME_FROM_LAST_CHECKPOINT ? Boolean.TRUE : (Object) resumeFrom);
+    } else if (resumeFromBySource != null) {
+      summary.put("resumeFrom", resumeFromBySource);
+    }
+
+    if (appendOnly) {
+      summary.put("appendOnly", appendOnly);
+    }
+
+    if (swapLimit != DEFAULT_SWAP_LIMIT) {
+      summary.put("swapLimit", swapLimit);
+    }
+
     if (streamTripleLimit != DEFAULT_STREAM_TRIPLE_LIMIT) {
       summary.put("limit", streamTripleLimit);
     }
@@ -1,7 +1,13 @@
 package n10s.quadrdf;
 
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicReference;
 import n10s.CommonProcedures;
 import n10s.graphconfig.GraphConfig;
 import n10s.graphconfig.RDFParserConfig;
@@ -10,15 +16,30 @@ import n10s.rdf.RDFProcedures.ImportResults;
 import org.eclipse.rdf4j.rio.RDFFormat;
 import org.eclipse.rdf4j.rio.RDFHandlerException;
 import org.eclipse.rdf4j.rio.RDFParseException;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.QueryExecutionException;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.ResourceIterator;
+import org.neo4j.graphdb.Transaction;
 import org.neo4j.procedure.Name;
 
 public class QuadRDFProcedures extends CommonProcedures {
 
+  private static final Label RESOURCE = Label.label("Resource");
+
   protected ImportResults doQuadRDFImport(@Name("format") String format, @Name("url") String url,
       @Name("rdf") String rdfFragment,
       @Name(value = "params", defaultValue = "{}") Map<String, Object> props) {
 
+    return doQuadRDFImport(format, url, rdfFragment, props,
+        conf -> new RDFQuadDirectStatementLoader(db, tx, conf, log));
+  }
+
+  private ImportResults doQuadRDFImport(String format, String url, String rdfFragment,
+      Map<String, Object> props,
+      LoaderFactory loaderFactory) {
+
     RDFQuadDirectStatementLoader statementLoader = null;
     RDFParserConfig conf = null;
     RDFFormat rdfFormat = null;
@@ -30,7 +51,7 @@ public class QuadRDFProcedures extends CommonProcedures {
       if (rdfFormat != RDFFormat.TRIG && rdfFormat != RDFFormat.NQUADS) {
         throw new RDFImportBadParams(rdfFormat.getName() + " is not a Quad serialisation format");
       }
-      statementLoader = new RDFQuadDirectStatementLoader(db, tx, conf, log);
+      statementLoader = loaderFactory.create(conf);
     } catch (RDFImportPreRequisitesNotMet e) {
       importResults.setTerminationKO(e.getMessage());
     } catch (GraphConfig.GraphConfigNotFound e) {
@@ -46,6 +67,7 @@ public class QuadRDFProcedures extends CommonProcedures {
         importResults.setTriplesLoaded(statementLoader.totalTriplesMapped);
         importResults.setTriplesParsed(statementLoader.totalTriplesParsed);
         importResults.setNamespaces(statementLoader.getNamespaces());
+        importResults.setExtraInfo(statementLoader.getWarnings());
         importResults.setConfigSummary(props);
 
       } catch (IOException | RDFHandlerException | QueryExecutionException | RDFParseException e) {
@@ -53,6 +75,8 @@ public class QuadRDFProcedures extends CommonProcedures {
         importResults.setTriplesLoaded(statementLoader.totalTriplesMapped);
         importResults.setTriplesParsed(statementLoader.totalTriplesParsed);
         importResults.setConfigSummary(props);
+      } finally {
+        statementLoader.close();
       }
     }
 
@@ -103,4 +127,155 @@ public class QuadRDFProcedures extends CommonProcedures {
     }
     return deleteResults;
   }
+
+  protected GraphDropResults doDropGraph(String graphUri, Map<String, Object> props) {
+
+    GraphDropResults dropResults = new GraphDropResults();
+    try {
+      RDFParserConfig conf = new RDFParserConfig(props, new GraphConfig(tx));
+      if (!isIndexOnResourcePresent(tx, "graphUri")) {
+        log.info("No index on :Resource(graphUri), the nodes in graph " + graphUri
+            + " are found with a label scan. Run '" + QUAD_INDEX_ON_GRAPH_STATEMENT
+            + "' to find them with index seeks.");
+      }
+      dropGraph(graphUri, conf.getCommitSize(), dropResults);
+    } catch (GraphConfig.GraphConfigNotFound e) {
+      dropResults
+          .setTerminationKO("A Graph Config is required for RDF deleting procedures to run");
+    } catch (QueryExecutionException e) {
+      dropResults.setTerminationKO(e.getMessage());
+    }
+    return dropResults;
+  }
+
+  /**
+   * Loads the new version of a named graph into a staging graph and, once it is fully loaded,
+   * swaps it in for the current version in a single transaction. The previous version is then
+   * dropped in partial commits. If the load fails the current version is left untouched.
+   * The swap sets the graphUri of every node in both versions, so that transaction holds all of
+   * them in memory and locked. It is refused when there are more than swapLimit nodes to swap:
+   * before loading anything if the current version alone is over the limit, and otherwise once
+   * the staging graph is loaded (which is then dropped).
+   */
+  protected ImportResults doReplaceGraph(String graphUri, String format, String url,
+      String rdfFragment, Map<String, Object> props) {
+
+    String stagingGraphUri = "urn:n10s:staging:" + UUID.randomUUID();
+    //a partially loaded staging graph must never be swapped in
+    Map<String, Object> stagingProps = new HashMap<>(props);
+    stagingProps.put("abortOnError", true);
+    AtomicReference<RDFParserConfig> stagingConf = new AtomicReference<>();
+    ImportResults importResults = doQuadRDFImport(format, url, rdfFragment, stagingProps, conf -> {
+      if (countNodesInGraph(tx, graphUri, conf.getSwapLimit()) > conf.getSwapLimit()) {
+        throw new RDFImportBadParams(swapLimitExceeded(graphUri, conf.getSwapLimit()));
+      }
+      stagingConf.set(conf);
+      return new RDFQuadGraphStagingLoader(db, tx, conf, log, graphUri, stagingGraphUri);
+    });
+    if (stagingConf.get() == null) {
+      //failed before loading anything
+      return importResults;
+    }
+    long commitSize = stagingConf.get().getCommitSize();
+    long swapLimit = stagingConf.get().getSwapLimit();
+    if (!importResults.terminationStatus.equals("OK")) {
+      dropGraph(stagingGraphUri, commitSize, new GraphDropResults());
+      return importResults;
+    }
+
+    String retiredGraphUri = "urn:n10s:retired:" + UUID.randomUUID();
+    boolean swapped = false;
+    try (Transaction swapTx = db.beginTx()) {
+      List<Node> current = nodesInGraph(swapTx, graphUri, swapLimit);
+      List<Node> staged = nodesInGraph(swapTx, stagingGraphUri, swapLimit);
+      if (current.size() + staged.size() <= swapLimit) {
+        current.forEach(node -> node.setProperty("graphUri", retiredGraphUri));
+        staged.forEach(node -> node.setProperty("graphUri", graphUri));
+        swapTx.commit();
+        swapped = true;
+      }
+    }
+    if (!swapped) {
+      dropGraph(stagingGraphUri, commitSize, new GraphDropResults());
+      importResults.setTerminationKO(swapLimitExceeded(graphUri, swapLimit));
+      return importResults;
+    }
+    GraphDropResults dropResults = new GraphDropResults();
+    dropGraph(retiredGraphUri, commitSize, dropResults);
+    importResults.extraInfo = "Replaced graph " + graphUri + ": " + dropResults.nodesDeleted
+        + " nodes and " + dropResults.relationshipsDeleted
+        + " relationships of the previous version deleted";
+    return importResults;
+  }
+
+  private static String swapLimitExceeded(String graphUri, long swapLimit) {
+    return "Replacing graph " + graphUri + " needs to update more than swapLimit (" + swapLimit
+        + ") nodes in a single transaction. Use a larger swapLimit, or delete the graph with "
+        + "n10s.experimental.quadrdf.delete.graph and import it again";
+  }
+
+  /**
+   * @return the number of nodes in a named graph, only counted up to one more than the limit
+   */
+  private static long countNodesInGraph(Transaction tx, String graphUri, long limit) {
+    try (ResourceIterator<Node> nodes = tx.findNodes(RESOURCE, "graphUri", graphUri)) {
+      return Iterators.size(Iterators.limit(nodes,
+          (int) Math.min(limit, Integer.MAX_VALUE - 1) + 1));
+    }
+  }
+
+  /**
+   * @return the nodes in a named graph, only up to one more than the limit
+   */
+  private static List<Node> nodesInGraph(Transaction tx, String graphUri, long limit) {
+    try (ResourceIterator<Node> nodes = tx.findNodes(RESOURCE, "graphUri", graphUri)) {
+      return Lists.newArrayList(Iterators.limit(nodes,
+          (int) Math.min(limit, Integer.MAX_VALUE - 1) + 1));
+    }
+  }
+
+  /**
+   * Deletes all the nodes in a named graph, and so their relationships (both ends of a
+   * relationship are always in the same graph), in partial commits of up to batchSize nodes. The
+   * nodes are found with a seek on the index on :Resource(graphUri) if there is one and with a
+   * label scan otherwise.
+   */
+  private void dropGraph(String graphUri, long batchSize, GraphDropResults dropResults) {
+    List<Node> batch;
+    do {
+      try (Transaction batchTx = db.beginTx()) {
+        try (ResourceIterator<Node> nodes = batchTx.findNodes(RESOURCE, "graphUri", graphUri)) {
+          batch = Lists.newArrayList(Iterators.limit(nodes, (int) Math.min(batchSize,
+              Integer.MAX_VALUE)));
+        }
+        for (Node node : batch) {
+          for (Relationship rel : node.getRelationships()) {
+            rel.delete();
+            dropResults.relationshipsDeleted++;
+          }
+          node.delete();
+        }
+        batchTx.commit();
+      }
+      dropResults.nodesDeleted += batch.size();
+    } while (!batch.isEmpty());
+  }
+
+  private interface LoaderFactory {
+
+    RDFQuadDirectStatementLoader create(RDFParserConfig conf) throws RDFImportBadParams;
+  }
+
+  public static class GraphDropResults {
+
+    public String terminationStatus = "OK";
+    public long nodesDeleted = 0;
+    public long relationshipsDeleted = 0;
+    public String extraInfo = "";
+
+    public void setTerminationKO(String message) {
+      this.terminationStatus = "KO";
+      this.extraInfo = message;
+    }
+  }
 }
@@ -2,18 +2,23 @@ package n10s.quadrdf;
 
 import static n10s.graphconfig.GraphConfig.GRAPHCONF_VOC_URI_SHORTEN;
 
-import com.google.common.cache.Cache;
-import com.google.common.cache.CacheBuilder;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.NoSuchElementException;
+import java.util.Objects;
 import java.util.Set;
-import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
-import n10s.RDFToLPGStatementProcessor;
 import n10s.graphconfig.RDFParserConfig;
+import n10s.utils.NodeIdCache;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Resource;
 import org.eclipse.rdf4j.model.Statement;
 import org.eclipse.rdf4j.rio.RDFHandlerException;
 import org.neo4j.graphdb.Direction;
@@ -22,7 +27,6 @@ import org.neo4j.graphdb.Label;
 import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.Relationship;
 import org.neo4j.graphdb.RelationshipType;
-import org.neo4j.graphdb.Result;
 import org.neo4j.graphdb.Transaction;
 import org.neo4j.logging.Log;
 
@@ -35,231 +39,301 @@ import org.neo4j.logging.Log;
 public class RDFQuadDirectStatementLoader extends RDFQuadToLPGStatementProcessor {
 
   private static final Label RESOURCE = Label.label("Resource");
-  private Cache<ContextResource, Node> nodeCache;
+
+  //one node cache per writer, named graphs are always written by the same writer
+  private final List<NodeIdCache<ContextResource>> writerCaches = new ArrayList<>();
+  private ExecutorService writerPool;
+  //triples mapped since the last partial commit by graph, when written by several writers
+  private final Map<String, Long> mappedTriplesByGraph = new HashMap<>();
+  //triples lost in partial commits that failed
+  private long failedTriples = 0;
 
   public RDFQuadDirectStatementLoader(GraphDatabaseService db, Transaction tx, RDFParserConfig conf,
       Log l) {
 
     super(db, tx, conf, l);
-    nodeCache = CacheBuilder.newBuilder()
-        .maximumSize(conf.getNodeCacheSize())
-        .build();
+    if (conf.getWriterThreads() > 1) {
+      for (int i = 0; i < conf.getWriterThreads(); i++) {
+        writerCaches.add(newNodeIdCache(
+            Math.max(1, conf.getNodeCacheSize() / conf.getWriterThreads())));
+      }
+    }
+  }
+
+  @Override
+  protected boolean allocatesPrefixesInDB() {
+    return true;
   }
 
   @Override
   public void endRDF() throws RDFHandlerException {
 
     periodicOperation();
+    if (failedTriples > 0) {
+      loadWarnings.append(failedTriples).append(" triples could not be imported because of failed "
+          + "partial commits. Check logs for details. ");
+    }
     log.debug("Import complete: " + totalTriplesMapped + "  triples ingested out of "
         + totalTriplesParsed + " parsed");
+    log.debug(nodeIdCache.toString());
   }
 
 
+  /**
+   * Shuts down the writer threads. Needs to be invoked once the import is over, whether parsing
+   * completed or not.
+   */
+  public void close() {
+    if (writerPool != null) {
+      writerPool.shutdown();
+    }
+  }
+
+  @Override
+  protected void tripleMapped(Resource context) {
+    super.tripleMapped(context);
+    if (parserConfig.getWriterThreads() > 1) {
+      mappedTriplesByGraph.merge(context != null ? context.stringValue() : null, 1L, Long::sum);
+    }
+  }
+
   public Integer runPartialTx(Transaction txInThread) {
-    int count = 0;
+    return runPartialTx(txInThread, resolveRelationshipTypes());
+  }
+
+  private Integer runPartialTx(Transaction txInThread, Map<IRI, RelationshipType> relTypes) {
+    writeBatch(txInThread, resourceLabels, resourceProps, statements, relTypes, nodeIdCache);
+
+    statements.clear();
+    resourceLabels.clear();
+    resourceProps.clear();
+    relProps.clear();
+    Integer result = 0;
+    if (parserConfig.getGraphConf().getHandleVocabUris() == GRAPHCONF_VOC_URI_SHORTEN) {
+      result = namespaces.partialRefresh(txInThread);
+    }
+
+    return result;
+  }
 
+  /**
+   * Writes the batch using writerThreads concurrent transactions. Resources and statements are
+   * partitioned by named graph: both ends of a statement are in the statement's graph, so every
+   * partition is self-contained and no two partitions create or update the same node. Partitions
+   * are committed independently, only the triples of the ones that fail are lost.
+   */
+  private void runPartitionedTx(Map<IRI, RelationshipType> relTypes) {
+    int partitionCount = parserConfig.getWriterThreads();
+    List<GraphPartition> partitions = new ArrayList<>(partitionCount);
+    for (int i = 0; i < partitionCount; i++) {
+      partitions.add(new GraphPartition());
+    }
     for (Map.Entry<ContextResource, Set<String>> entry : resourceLabels.entrySet()) {
-      try {
-        final Node node = nodeCache.get(entry.getKey(), new Callable<Node>() {
-          @Override
-          public Node call() {
-            Node node = null;
-            Map<String, Object> params = new HashMap<>();
-            String cypher = buildCypher(entry.getKey().getUri(),
-                entry.getKey().getGraphUri(),
-                params);
-            Result result = txInThread.execute(cypher, params);
-            if (result.hasNext()) {
-              node = (Node) result.next().get("n");
-              if (result.hasNext()) {
-                String props =
-                    "{uri: " + entry.getKey().getUri() +
-                        (entry.getKey().getGraphUri() == null ? "}" :
-                            ", graphUri: " + entry.getKey().getGraphUri() + "}");
-                throw new IllegalStateException(
-                    "There are multiple matching nodes for the given properties " + props);
-              }
-            }
-            if (node == null) {
-              node = txInThread.createNode(RESOURCE);
-              node.setProperty("uri", entry.getKey().getUri());
-              if (entry.getKey().getGraphUri() != null) {
-                node.setProperty("graphUri", entry.getKey().getGraphUri());
-              }
-            }
-            return node;
-          }
-        });
-
-        entry.getValue().forEach(l -> node.addLabel(Label.label(l)));
-        resourceProps.get(entry.getKey()).forEach((k, v) -> {
-          if (v instanceof List) {
-            Object currentValue = node.getProperty(k, null);
-            if (currentValue == null) {
-              node.setProperty(k, toPropertyValue(v));
-            } else {
-              if (currentValue.getClass().isArray()) {
-                Object[] properties = (Object[]) currentValue;
-                for (int i = 0; i < properties.length; i++) {
-                  ((List) v).add(properties[i]);
-                  //here an exception can be raised if types are conflicting
-                }
-              } else {
-                ((List) v).add(node.getProperty(k));
-              }
-              //we make it a set to remove duplicates. Semantics of multivalued props in RDF.
-              node.setProperty(k, toPropertyValue(((List) v).stream().collect(Collectors.toSet())));
-            }
-          } else {
-            node.setProperty(k, v);
+      GraphPartition partition = partitions.get(
+          partitionFor(entry.getKey().getGraphUri(), partitionCount));
+      partition.resourceLabels.put(entry.getKey(), entry.getValue());
+      partition.resourceProps.put(entry.getKey(), resourceProps.get(entry.getKey()));
+    }
+    for (Statement st : statements) {
+      partitions.get(partitionFor(st.getContext() != null ? st.getContext().stringValue() : null,
+          partitionCount)).statements.add(st);
+    }
+    mappedTriplesByGraph.forEach((graphUri, triples) ->
+        partitions.get(partitionFor(graphUri, partitionCount)).triples += triples);
+    mappedTriplesByGraph.clear();
+
+    if (writerPool == null) {
+      writerPool = Executors.newFixedThreadPool(partitionCount, r -> {
+        Thread t = new Thread(r, "n10s-quad-writer");
+        t.setDaemon(true);
+        return t;
+      });
+    }
+    Map<GraphPartition, Future<?>> pending = new LinkedHashMap<>();
+    for (int i = 0; i < partitionCount; i++) {
+      GraphPartition partition = partitions.get(i);
+      NodeIdCache<ContextResource> cache = writerCaches.get(i);
+      if (!partition.resourceLabels.isEmpty()) {
+        pending.put(partition, writerPool.submit(() -> {
+          try (Transaction partitionTx = graphdb.beginTx()) {
+            writeBatch(partitionTx, partition.resourceLabels, partition.resourceProps,
+                partition.statements, relTypes, cache);
+            partitionTx.commit();
           }
-        });
+        }));
+      }
+    }
+    Exception failure = null;
+    long lost = 0;
+    for (Map.Entry<GraphPartition, Future<?>> partitionResult : pending.entrySet()) {
+      try {
+        partitionResult.getValue().get();
+        totalTriplesMapped += partitionResult.getKey().triples;
       } catch (ExecutionException e) {
-        e.printStackTrace();
+        lost += partitionResult.getKey().triples;
+        failure = failure == null ? e : failure;
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        lost += partitionResult.getKey().triples;
+        failure = failure == null ? e : failure;
       }
     }
+    if (failure != null) {
+      partialCommitFailed(lost, failure);
+    }
+  }
+
+  private void partialCommitFailed(long lost, Exception e) {
+    log.error("Problems when running partial commit. Partial transaction rolled back. " + lost
+        + " triples lost.", e);
+    failedTriples += lost;
+    if (getParserConfig().isAbortOnError()) {
+      throw new PartialCommitException(
+          "Problems when running partial commit. Partial transaction rolled back. ", e);
+    }
+  }
 
+  /**
+   * Relationship types are resolved on the parser thread, before the namespace prefixes are
+   * synced, so that any prefix they add is persisted with the partial commit.
+   */
+  private Map<IRI, RelationshipType> resolveRelationshipTypes() {
+    Map<IRI, RelationshipType> relTypes = new HashMap<>();
     for (Statement st : statements) {
-      try {
-        ContextResource from = new ContextResource(st.getSubject().stringValue(),
-            st.getContext() != null ? st.getContext().stringValue() : null);
-        final Node fromNode = nodeCache.get(from, new Callable<Node>() {
-          @Override
-          public Node call() {  //throws AnyException
-            Node node;
-            Map<String, Object> params = new HashMap<>();
-            String cypher = buildCypher(st.getSubject().stringValue(),
-                st.getContext() != null ? st.getContext().stringValue() : null,
-                params);
-            Result result = txInThread.execute(cypher, params);
-            if (result.hasNext()) {
-              node = (Node) result.next().get("n");
-              if (result.hasNext()) {
-                String props =
-                    "{uri: " + st.getSubject().stringValue() +
-                        (st.getContext() == null ? "}" :
-                            ", graphUri: " + st.getContext().stringValue() + "}");
-                throw new IllegalStateException(
-                    "There are multiple matching nodes for the given properties " + props);
-              }
-            } else {
-              throw new NoSuchElementException(
-                  "There exists no node with \"uri\": " + st.getSubject().stringValue()
-                      + " and \"graphUri\": " + st.getContext().stringValue());
-            }
-            return node;
-          }
-        });
-        ContextResource to = new ContextResource(st.getObject().stringValue(),
-            st.getContext() != null ? st.getContext().stringValue() : null);
-        final Node toNode = nodeCache.get(to, new Callable<Node>() {
-          @Override
-          public Node call() {  //throws AnyException
-            Node node;
-            Map<String, Object> params = new HashMap<>();
-            String cypher = buildCypher(st.getObject().stringValue(),
-                st.getContext() != null ? st.getContext().stringValue() : null,
-                params);
-            Result result = txInThread.execute(cypher, params);
-            if (result.hasNext()) {
-              node = (Node) result.next().get("n");
-              if (result.hasNext()) {
-                String props =
-                    "{uri: " + st.getObject().stringValue() +
-                        (st.getContext() == null ? "}" :
-                            ", graphUri: " + st.getContext().stringValue() + "}");
-                throw new IllegalStateException(
-                    "There are multiple matching nodes for the given properties " + props);
+      relTypes.computeIfAbsent(st.getPredicate(), this::relationshipTypeFor);
+    }
+    return relTypes;
+  }
+
+  private static int partitionFor(String graphUri, int partitionCount) {
+    return Math.floorMod(Objects.hashCode(graphUri), partitionCount);
+  }
+
+  private void writeBatch(Transaction txInThread,
+      Map<ContextResource, Set<String>> resourceLabels,
+      Map<ContextResource, Map<String, Object>> resourceProps, Collection<Statement> statements,
+      Map<IRI, RelationshipType> relTypes, NodeIdCache<ContextResource> cache) {
+
+    //every resource used in the batch (statement ends included) is in resourceLabels
+    Map<ContextResource, Node> nodes = findNodes(txInThread, resourceLabels.keySet(), false,
+        cache);
+    for (Map.Entry<ContextResource, Set<String>> entry : resourceLabels.entrySet()) {
+      Node existing = nodes.get(entry.getKey());
+      if (existing == null) {
+        existing = txInThread.createNode(RESOURCE);
+        existing.setProperty("uri", entry.getKey().getUri());
+        if (entry.getKey().getGraphUri() != null) {
+          existing.setProperty("graphUri", entry.getKey().getGraphUri());
+        }
+        cache.put(entry.getKey(), existing);
+        nodes.put(entry.getKey(), existing);
+      }
+      final Node node = existing;
+      entry.getValue().forEach(l -> node.addLabel(labelFor(l)));
+      resourceProps.get(entry.getKey()).forEach((k, v) -> {
+        if (v instanceof List) {
+          Object currentValue = node.getProperty(k, null);
+          if (currentValue == null) {
+            node.setProperty(k, toPropertyValue(v));
+          } else {
+            if (currentValue.getClass().isArray()) {
+              Object[] properties = (Object[]) currentValue;
+              for (int i = 0; i < properties.length; i++) {
+                ((List) v).add(properties[i]);
+                //here an exception can be raised if types are conflicting
               }
             } else {
-              throw new NoSuchElementException(
-                  "There exists no node with \"uri\": " + st.getSubject().stringValue()
-                      + " and \"graphUri\": " + st.getContext().stringValue());
-            }
-            return node;
-          }
-        });
-
-        // check if the rel is already present. If so, don't recreate.
-        // explore the node with the lowest degree
-        boolean found = false;
-        if (fromNode.getDegree(RelationshipType
-                .withName(handleIRI(st.getPredicate(), RDFToLPGStatementProcessor.RELATIONSHIP)),
-            Direction.OUTGOING) <
-            toNode.getDegree(RelationshipType
-                    .withName(handleIRI(st.getPredicate(), RDFToLPGStatementProcessor.RELATIONSHIP)),
-                Direction.INCOMING)) {
-          for (Relationship rel : fromNode
-              .getRelationships(Direction.OUTGOING,
-                  RelationshipType.withName(
-                      handleIRI(st.getPredicate(), RDFToLPGStatementProcessor.RELATIONSHIP)))) {
-            if (rel.getEndNode().equals(toNode)) {
-              found = true;
-              break;
+              ((List) v).add(node.getProperty(k));
             }
+            //we make it a set to remove duplicates. Semantics of multivalued props in RDF.
+            node.setProperty(k, toPropertyValue(((List) v).stream().collect(Collectors.toSet())));
           }
         } else {
-          for (Relationship rel : toNode
-              .getRelationships(Direction.INCOMING,
-                  RelationshipType.withName(
-                      handleIRI(st.getPredicate(), RDFToLPGStatementProcessor.RELATIONSHIP)))) {
-            if (rel.getStartNode().equals(fromNode)) {
-              found = true;
-              break;
-            }
-          }
+          node.setProperty(k, v);
         }
+      });
+    }
 
-        if (!found) {
-          fromNode.createRelationshipTo(
-              toNode,
-              RelationshipType
-                  .withName(handleIRI(st.getPredicate(), RDFToLPGStatementProcessor.RELATIONSHIP)));
+    for (Statement st : statements) {
+      String graphUri = st.getContext() != null ? st.getContext().stringValue() : null;
+      final Node fromNode = requireNode(nodes,
+          new ContextResource(st.getSubject().stringValue(), graphUri));
+      final Node toNode = requireNode(nodes,
+          new ContextResource(st.getObject().stringValue(), graphUri));
+
+      RelationshipType relType = relTypes.get(st.getPredicate());
+      // check if the rel is already present. If so, don't recreate.
+      // explore the node with the lowest degree
+      boolean found = false;
+      if (fromNode.getDegree(relType, Direction.OUTGOING) <
+          toNode.getDegree(relType, Direction.INCOMING)) {
+        for (Relationship rel : fromNode.getRelationships(Direction.OUTGOING, relType)) {
+          if (rel.getEndNode().equals(toNode)) {
+            found = true;
+            break;
+          }
+        }
+      } else {
+        for (Relationship rel : toNode.getRelationships(Direction.INCOMING, relType)) {
+          if (rel.getStartNode().equals(fromNode)) {
+            found = true;
+            break;
+          }
         }
-      } catch (ExecutionException e) {
-        e.printStackTrace();
       }
-    }
 
-    statements.clear();
-    resourceLabels.clear();
-    resourceProps.clear();
-    relProps.clear();
-    nodeCache.invalidateAll();
-    Integer result = 0;
-    if (parserConfig.getGraphConf().getHandleVocabUris() == GRAPHCONF_VOC_URI_SHORTEN) {
-      result = namespaces.partialRefresh(txInThread);
+      if (!found) {
+        fromNode.createRelationshipTo(toNode, relType);
+      }
     }
-
-    return result;
   }
 
 
   @Override
   protected void periodicOperation() {
 
+    Map<IRI, RelationshipType> relTypes = resolveRelationshipTypes();
     if (parserConfig.getGraphConf().getHandleVocabUris() == GRAPHCONF_VOC_URI_SHORTEN) {
       try (Transaction tempTransaction = graphdb.beginTx()) {
         namespaces.partialRefresh(tempTransaction);
         tempTransaction.commit();
         log.debug("namespace prefixes synced: " + namespaces.toString());
       }catch (Exception e) {
-        e.printStackTrace();
+        log.error("Problems syncing up namespace prefixes in partial commit. ", e);
       }
     }
 
-    try (Transaction tempTransaction = graphdb.beginTx()) {
-      this.runPartialTx(tempTransaction);
-      tempTransaction.commit();
-      log.debug("partial commit: " + mappedTripleCounter + " triples ingested. Total so far: "
+    try {
+      if (parserConfig.getWriterThreads() > 1) {
+        runPartitionedTx(relTypes);
+      } else {
+        try (Transaction tempTransaction = graphdb.beginTx()) {
+          this.runPartialTx(tempTransaction, relTypes);
+          tempTransaction.commit();
+          totalTriplesMapped += mappedTripleCounter;
+        } catch (Exception e) {
+          partialCommitFailed(mappedTripleCounter, e);
+        }
+      }
+      log.debug("partial commit: " + mappedTripleCounter + " triples mapped. Total so far: "
           + totalTriplesMapped);
-    }catch (Exception e) {
-      e.printStackTrace();
+    } finally {
+      //whatever could not be written is dropped, not carried over to the next partial commit
+      statements.clear();
+      resourceLabels.clear();
+      resourceProps.clear();
+      relProps.clear();
+      mappedTriplesByGraph.clear();
+      mappedTripleCounter = 0;
     }
+  }
 
-    totalTriplesMapped += mappedTripleCounter;
-    mappedTripleCounter = 0;
+  private static class GraphPartition {
 
+    final Map<ContextResource, Set<String>> resourceLabels = new HashMap<>();
+    final Map<ContextResource, Map<String, Object>> resourceProps = new HashMap<>();
+    final List<Statement> statements = new ArrayList<>();
+    long triples = 0;
   }
 
 }
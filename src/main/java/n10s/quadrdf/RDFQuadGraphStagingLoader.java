@@ -0,0 +1,40 @@
+package n10s.quadrdf;
+
+import n10s.graphconfig.RDFParserConfig;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Statement;
+import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.logging.Log;
+
+/**
+ * Loads the statements of one named graph into a staging graph, so that a new version of the
+ * graph can be imported without touching the current one. Statements in any other graph are
+ * parsed but not loaded.
+ */
+public class RDFQuadGraphStagingLoader extends RDFQuadDirectStatementLoader {
+
+  private static final ValueFactory vf = SimpleValueFactory.getInstance();
+
+  private final String graphUri;
+  private final IRI stagingGraph;
+
+  public RDFQuadGraphStagingLoader(GraphDatabaseService db, Transaction tx, RDFParserConfig conf,
+      Log l, String graphUri, String stagingGraphUri) {
+    super(db, tx, conf, l);
+    this.graphUri = graphUri;
+    this.stagingGraph = vf.createIRI(stagingGraphUri);
+  }
+
+  @Override
+  public void handleStatement(Statement st) {
+    if (st.getContext() != null && st.getContext().stringValue().equals(graphUri)) {
+      super.handleStatement(vf.createStatement(st.getSubject(), st.getPredicate(),
+          st.getObject(), stagingGraph));
+    } else {
+      totalTriplesParsed++;
+    }
+  }
+}
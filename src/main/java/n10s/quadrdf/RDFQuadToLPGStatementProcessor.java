@@ -3,16 +3,22 @@ package n10s.quadrdf;
 import static n10s.graphconfig.GraphConfig.GRAPHCONF_RDFTYPES_AS_LABELS;
 import static n10s.graphconfig.GraphConfig.GRAPHCONF_RDFTYPES_AS_LABELS_AND_NODES;
 
-import com.google.common.base.Preconditions;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
 import java.util.Set;
+import n10s.CommonProcedures;
 import n10s.RDFToLPGStatementProcessor;
 import n10s.graphconfig.GraphConfig;
 import n10s.graphconfig.RDFParserConfig;
+import n10s.utils.NodeIdCache;
+import n10s.utils.ResourceNodeLookup;
 import org.eclipse.rdf4j.model.BNode;
 import org.eclipse.rdf4j.model.IRI;
 import org.eclipse.rdf4j.model.Literal;
@@ -22,6 +28,10 @@ import org.eclipse.rdf4j.model.Value;
 import org.eclipse.rdf4j.model.vocabulary.RDF;
 import org.eclipse.rdf4j.rio.RDFHandler;
 import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.ResourceIterator;
+import org.neo4j.graphdb.Result;
 import org.neo4j.graphdb.Transaction;
 import org.neo4j.logging.Log;
 
@@ -35,14 +45,36 @@ import org.neo4j.logging.Log;
 abstract class RDFQuadToLPGStatementProcessor extends RDFToLPGStatementProcessor implements
     RDFHandler {
 
+  private static final Label RESOURCE = Label.label("Resource");
+  private static final String DEFAULT_GRAPH_NODES = "UNWIND $uris AS uri "
+      + "MATCH (node:Resource { uri: uri }) WHERE node.graphUri IS NULL "
+      + "RETURN uri, node";
+
   Map<ContextResource, Map<String, Object>> resourceProps;
   Map<ContextResource, Set<String>> resourceLabels;
+  //resolved nodes are remembered across partial commits
+  final NodeIdCache<ContextResource> nodeIdCache;
+  //whether resources in named graphs can be looked up on the index on :Resource(uri, graphUri)
+  private final boolean seekOnUriAndGraphUri;
 
   RDFQuadToLPGStatementProcessor(GraphDatabaseService db, Transaction tx, RDFParserConfig conf,
       Log l) {
     super(db, tx, conf, l);
     resourceProps = new HashMap<>();
     resourceLabels = new HashMap<>();
+    nodeIdCache = newNodeIdCache(conf.getNodeCacheSize());
+    seekOnUriAndGraphUri = CommonProcedures.isIndexOnResourcePresent(tx, "uri", "graphUri");
+    if (!seekOnUriAndGraphUri) {
+      log.info("No index on :Resource(uri, graphUri), resources in named graphs are looked up "
+          + "by uri. Run '" + CommonProcedures.QUAD_INDEX_ON_URI_AND_GRAPH_STATEMENT
+          + "' to look them up with index seeks.");
+    }
+  }
+
+  static NodeIdCache<ContextResource> newNodeIdCache(long maxSize) {
+    return new NodeIdCache<>(maxSize,
+        (resource, node) -> resource.getUri().equals(node.getProperty("uri", null))
+            && Objects.equals(resource.getGraphUri(), node.getProperty("graphUri", null)));
   }
 
   @Override
@@ -62,7 +94,7 @@ abstract class RDFQuadToLPGStatementProcessor extends RDFToLPGStatementProcessor
       if (object instanceof Literal) {
         if (setProp(sub, predicate, (Literal) object)) {
           // property may be filtered because of lang filter hence the conditional increment.
-          mappedTripleCounter++;
+          tripleMapped(context);
         }
       } else if ((parserConfig.getGraphConf().getHandleRDFTypes() == GRAPHCONF_RDFTYPES_AS_LABELS
           && predicate.equals(RDF.TYPE) ||
@@ -78,12 +110,12 @@ abstract class RDFQuadToLPGStatementProcessor extends RDFToLPGStatementProcessor
           addStatement(st);
         }
 
-        mappedTripleCounter++;
+        tripleMapped(context);
       } else {
         addResource(sub);
         addResource(obj);
         addStatement(st);
-        mappedTripleCounter++;
+        tripleMapped(context);
       }
     }
     totalTriplesParsed++;
@@ -96,20 +128,151 @@ abstract class RDFQuadToLPGStatementProcessor extends RDFToLPGStatementProcessor
 
   protected abstract void periodicOperation();
 
-  String buildCypher(String uri, String graphUri, Map<String, Object> params) {
-    Preconditions.checkNotNull(uri);
-    StringBuilder cypher = new StringBuilder();
-    params.put("uri", uri);
-    cypher.append("MATCH (n:Resource) ");
-    cypher.append("WHERE n.uri = $uri ");
-    if (graphUri != null) {
-      cypher.append("AND n.graphUri = $graphUri ");
-      params.put("graphUri", graphUri);
-    } else {
-      cypher.append("AND n.graphUri is null ");
+  /**
+   * Counts a triple mapped from a statement in the given graph ({@code null} for the default
+   * graph)
+   */
+  protected void tripleMapped(Resource context) {
+    mappedTripleCounter++;
+  }
+
+  /**
+   * @return the node for the resource (from the node cache if possible) or {@code null} if there
+   * is none. Resources in a named graph are found with a seek on the composite index on
+   * :Resource(uri, graphUri) if there is one, everything else with a seek on the uri index.
+   * @throws IllegalStateException if more than one node matches the resource
+   */
+  Node findNode(Transaction tx, ContextResource resource) {
+    return findNode(tx, resource, nodeIdCache);
+  }
+
+  private Node findNode(Transaction tx, ContextResource resource,
+      NodeIdCache<ContextResource> cache) {
+    Node node = cache.get(tx, resource);
+    if (node == null) {
+      try (ResourceIterator<Node> matches =
+          resource.getGraphUri() == null || !seekOnUriAndGraphUri
+              ? tx.findNodes(RESOURCE, "uri", resource.getUri())
+              : tx.findNodes(RESOURCE, "uri", resource.getUri(), "graphUri",
+                  resource.getGraphUri())) {
+        while (matches.hasNext()) {
+          Node match = matches.next();
+          if (!Objects.equals(resource.getGraphUri(), match.getProperty("graphUri", null))) {
+            //same uri in a different graph
+            continue;
+          }
+          if (node != null) {
+            String props = "{uri: " + resource.getUri() +
+                (resource.getGraphUri() == null ? "}" :
+                    ", graphUri: " + resource.getGraphUri() + "}");
+            throw new IllegalStateException(
+                "There are multiple matching nodes for the given properties " + props);
+          }
+          node = match;
+        }
+      }
+      if (node != null) {
+        cache.put(resource, node);
+      }
+    }
+    return node;
+  }
+
+  /**
+   * Resolves all the resources of a partial transaction upfront, so that they are looked up once
+   * however many statements use them. The ones in the default graph that are not cached are all
+   * found with a single query, as the uri index alone would also return the nodes for the same
+   * uri in every named graph.
+   *
+   * @param skipAmbiguous whether resources matching more than one node are left out (and
+   * logged) instead of failing
+   * @return the nodes found, by resource
+   */
+  Map<ContextResource, Node> findNodes(Transaction tx, Collection<ContextResource> resources,
+      boolean skipAmbiguous) {
+    return findNodes(tx, resources, skipAmbiguous, nodeIdCache);
+  }
+
+  Map<ContextResource, Node> findNodes(Transaction tx, Collection<ContextResource> resources,
+      boolean skipAmbiguous, NodeIdCache<ContextResource> cache) {
+    Map<ContextResource, Node> nodes = new HashMap<>();
+    Map<String, ContextResource> defaultGraph = new HashMap<>();
+    for (ContextResource resource : resources) {
+      if (resource.getGraphUri() == null) {
+        Node node = cache.get(tx, resource);
+        if (node != null) {
+          nodes.put(resource, node);
+        } else {
+          defaultGraph.put(resource.getUri(), resource);
+        }
+        continue;
+      }
+      try {
+        Node node = findNode(tx, resource, cache);
+        if (node != null) {
+          nodes.put(resource, node);
+        }
+      } catch (IllegalStateException e) {
+        if (!skipAmbiguous) {
+          throw e;
+        }
+        log.warn(e.getMessage());
+      }
+    }
+    if (!defaultGraph.isEmpty()) {
+      findDefaultGraphNodes(tx, defaultGraph, skipAmbiguous, cache, nodes);
+    }
+    return nodes;
+  }
+
+  private void findDefaultGraphNodes(Transaction tx, Map<String, ContextResource> resources,
+      boolean skipAmbiguous, NodeIdCache<ContextResource> cache,
+      Map<ContextResource, Node> nodes) {
+    Set<String> ambiguous = new HashSet<>();
+    List<String> sortedUris = new ArrayList<>(resources.keySet());
+    Collections.sort(sortedUris);
+    for (int from = 0; from < sortedUris.size(); from += ResourceNodeLookup.LOOKUP_CHUNK_SIZE) {
+      List<String> chunk = sortedUris.subList(from,
+          Math.min(from + ResourceNodeLookup.LOOKUP_CHUNK_SIZE, sortedUris.size()));
+      try (Result result = tx.execute(DEFAULT_GRAPH_NODES, Map.of("uris", chunk))) {
+        while (result.hasNext()) {
+          Map<String, Object> row = result.next();
+          String uri = (String) row.get("uri");
+          ContextResource resource = resources.get(uri);
+          if (nodes.put(resource, (Node) row.get("node")) != null) {
+            if (!skipAmbiguous) {
+              throw new IllegalStateException(
+                  "There are multiple matching nodes for the given properties {uri: " + uri
+                      + "}");
+            }
+            ambiguous.add(uri);
+          }
+        }
+      }
+    }
+    for (String uri : ambiguous) {
+      log.warn("There are multiple matching nodes for the given properties {uri: " + uri + "}");
+      nodes.remove(resources.get(uri));
+    }
+    for (String uri : resources.keySet()) {
+      Node node = nodes.get(resources.get(uri));
+      if (node != null) {
+        cache.put(resources.get(uri), node);
+      }
+    }
+  }
+
+  /**
+   * @return the node resolved for the resource, failing if there is none
+   */
+  Node requireNode(Map<ContextResource, Node> nodes, ContextResource resource) {
+    Node node = nodes.get(resource);
+    if (node == null) {
+      throw new NoSuchElementException(
+          "There exists no node with \"uri\": " + resource.getUri()
+              + " and \"graphUri\": " + resource.getGraphUri());
     }
-    cypher.append("RETURN n");
-    return cypher.toString();
+    return node;
   }
 
   private boolean setProp(ContextResource contextResource, IRI propertyIRI,
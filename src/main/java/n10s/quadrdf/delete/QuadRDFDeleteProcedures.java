@@ -3,7 +3,9 @@ package n10s.quadrdf.delete;
 import java.util.Map;
 import java.util.stream.Stream;
 import n10s.quadrdf.QuadRDFProcedures;
+import n10s.quadrdf.QuadRDFProcedures.GraphDropResults;
 import n10s.rdf.RDFProcedures.DeleteResults;
+import org.neo4j.procedure.Description;
 import org.neo4j.procedure.Mode;
 import org.neo4j.procedure.Name;
 import org.neo4j.procedure.Procedure;
@@ -28,4 +30,14 @@ public class QuadRDFDeleteProcedures extends QuadRDFProcedures {
 
   }
 
+  @Procedure(name = "n10s.experimental.quadrdf.delete.graph", mode = Mode.WRITE)
+  @Description("Deletes all the nodes and relationships in the named graph passed as parameter "
+      + "in partial commits of commitSize nodes")
+  public Stream<GraphDropResults> graph(@Name("graphUri") String graphUri,
+      @Name(value = "params", defaultValue = "{}") Map<String, Object> props) {
+
+    return Stream.of(doDropGraph(graphUri, props));
+
+  }
+
 }
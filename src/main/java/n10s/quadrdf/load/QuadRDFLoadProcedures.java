@@ -30,4 +30,24 @@ public class QuadRDFLoadProcedures extends QuadRDFProcedures {
     return Stream.of(doQuadRDFImport(format, null, rdfFragment, props));
   }
 
+  @Procedure(name = "n10s.experimental.quadrdf.replace.fetch", mode = Mode.WRITE)
+  @Description("Replaces a named graph with the statements in that graph retrieved from the url. "
+      + "The current version is kept until the new one is fully loaded")
+  public Stream<ImportResults> replaceFetch(@Name("graphUri") String graphUri,
+      @Name("url") String url, @Name("format") String format,
+      @Name(value = "params", defaultValue = "{}") Map<String, Object> props) {
+
+    return Stream.of(doReplaceGraph(graphUri, format, url, null, props));
+  }
+
+  @Procedure(name = "n10s.experimental.quadrdf.replace.inline", mode = Mode.WRITE)
+  @Description("Replaces a named graph with the statements in that graph from the RDF snippet "
+      + "passed as parameter. The current version is kept until the new one is fully loaded")
+  public Stream<ImportResults> replaceInline(@Name("graphUri") String graphUri,
+      @Name("rdf") String rdfFragment, @Name("format") String format,
+      @Name(value = "params", defaultValue = "{}") Map<String, Object> props) {
+
+    return Stream.of(doReplaceGraph(graphUri, format, null, rdfFragment, props));
+  }
+
 }
@@ -1,48 +1,77 @@
 package n10s.rdf;
 
+import static n10s.graphconfig.GraphConfig.GRAPHCONF_VOC_URI_IGNORE;
+import static n10s.graphconfig.GraphConfig.GRAPHCONF_VOC_URI_MAP;
+import static n10s.graphconfig.GraphConfig.GRAPHCONF_VOC_URI_SHORTEN;
+import static n10s.graphconfig.GraphConfig.GRAPHCONF_VOC_URI_SHORTEN_STRICT;
 import static n10s.graphconfig.Params.DATATYPE_REGULAR_PATTERN;
 import static n10s.graphconfig.Params.DATATYPE_SHORTENED_PATTERN;
 import static n10s.graphconfig.Params.LANGUAGE_TAGGED_VALUE_PATTERN;
 import static n10s.graphconfig.Params.PREFIX_SEPARATOR;
 import static n10s.graphconfig.Params.SHORTENED_URI_PATTERN;
+import static n10s.mapping.MappingUtils.getExportMappingsFromDB;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
 import java.util.regex.Matcher;
 import java.util.stream.Stream;
 import n10s.CommonProcedures;
 import n10s.ConfiguredStatementHandler.TripleLimitReached;
+import n10s.N10sSettings;
 import n10s.RDFImportException;
 import n10s.graphconfig.GraphConfig;
 import n10s.graphconfig.GraphConfig.InvalidParamException;
 import n10s.graphconfig.RDFParserConfig;
 import n10s.rdf.delete.DirectStatementDeleter;
+import n10s.rdf.export.ExportProcessor;
+import n10s.rdf.export.LPGRDFToRDFProcesssor;
+import n10s.rdf.export.LPGToRDFProcesssor;
+import n10s.rdf.export.TriplePattern;
+import n10s.rdf.load.AdminImportFileWriter;
 import n10s.rdf.load.DirectNodeAdder;
 import n10s.rdf.load.DirectRelationshipAdder;
 import n10s.rdf.load.DirectStatementLoader;
+import n10s.rdf.load.ImportCheckpoint;
 import n10s.rdf.preview.StatementPreviewer;
 import n10s.rdf.stream.StarFormatStatementStreamer;
 import n10s.rdf.stream.StatementStreamer;
 import n10s.result.GraphResult;
 import n10s.result.StreamedStatement;
 import n10s.utils.InvalidNamespacePrefixDefinitionInDB;
+import n10s.utils.NodeIdCache;
 import n10s.utils.NsPrefixMap;
 import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Statement;
 import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
 import org.eclipse.rdf4j.model.util.URIUtil;
 import org.eclipse.rdf4j.model.vocabulary.XMLSchema;
 import org.eclipse.rdf4j.rio.*;
 import org.eclipse.rdf4j.rio.helpers.BasicParserSettings;
+import org.neo4j.configuration.Config;
+import org.neo4j.configuration.GraphDatabaseSettings;
 import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.QueryExecutionException;
 import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Result;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.kernel.internal.GraphDatabaseAPI;
 import org.neo4j.procedure.Description;
 import org.neo4j.procedure.Name;
 import org.neo4j.procedure.UserFunction;
@@ -55,6 +84,14 @@ import org.neo4j.procedure.UserFunction;
  */
 public class RDFProcedures extends CommonProcedures {
 
+  private static final int DEFAULT_IMPORT_WORKERS = 4;
+  //triples per sorted run written by the admin files generator
+  private static final long DEFAULT_ADMIN_FILES_RUN_SIZE = 500000;
+  //subjects read per round by n10s.rdf.delete.pattern
+  private static final int DELETE_SUBJECT_PAGE_SIZE = 1000;
+  private static final String RESUME_FROM_SEVERAL_SOURCES = "resumeFrom can only be a number "
+      + "of triples when importing a single source. Use a map of source to number of triples";
+
   protected ImportResults doImport(String format, String url,
       String rdfFragment, Map<String, Object> props, boolean reuseCurrentTx) {
 
@@ -80,24 +117,312 @@ public class RDFProcedures extends CommonProcedures {
     }
 
     if (statementLoader != null) {
-      try {
-        parseRDFPayloadOrFromUrl(rdfFormat, url, rdfFragment, props, statementLoader);
-        importResults.setTriplesLoaded(statementLoader.totalTriplesMapped);
-        importResults.setTriplesParsed(statementLoader.totalTriplesParsed);
+      //totals of the sources already imported when the url matches several of them
+      long previousLoaded = 0;
+      long previousParsed = 0;
+      StringBuilder warnings = new StringBuilder();
+      long bytesRead = 0;
+      long start = System.currentTimeMillis();
+      try (SourceReader sources = new SourceReader(url, props)) {
+        if (sources.isSeveralSources() && conf.isResumeFromTripleCount()) {
+          throw new RDFImportBadParams(RESUME_FROM_SEVERAL_SOURCES);
+        }
+        while (sources.next()) {
+          if (sources.sourcesRead().size() > 1) {
+            //imported in sequence, each one with its own loader
+            previousLoaded += statementLoader.totalTriplesMapped;
+            previousParsed += statementLoader.totalTriplesParsed;
+            warnings.append(statementLoader.getWarnings());
+            statementLoader = new DirectStatementLoader(db, tx, conf, log);
+          }
+          if (!setUpCheckpoints(statementLoader, conf, sources.url())) {
+            warnings.append(alreadyImported(sources.url()));
+            continue;
+          }
+          try {
+            bytesRead += sources.parse(rdfFormat, rdfFragment, statementLoader);
+          } finally {
+            //pending pipelined commits need to complete before reporting
+            statementLoader.close();
+          }
+        }
+        if (sources.sourcesRead().isEmpty()) {
+          throw new IOException("No files or archive entries match " + url);
+        }
+        importResults.setTriplesLoaded(previousLoaded + statementLoader.totalTriplesMapped);
+        importResults.setTriplesParsed(previousParsed + statementLoader.totalTriplesParsed);
         importResults.setNamespaces(statementLoader.getNamespaces());
         importResults.setConfigSummary(props);
-        importResults.setExtraInfo(statementLoader.getWarnings());
+        importResults.setExtraInfo(warnings.append(statementLoader.getWarnings()).toString());
+        importResults.setBatchSizes(statementLoader.getBatchSizes());
+        importResults.setBytesRead(bytesRead, System.currentTimeMillis() - start);
+        clearCheckpoints(conf, sources.sourcesRead());
 
-      } catch (IOException | RDFHandlerException | QueryExecutionException | RDFParseException e) {
+      } catch (IOException | RDFHandlerException | QueryExecutionException | RDFParseException
+          | RDFImportBadParams e) {
         importResults.setTerminationKO(e.getMessage());
-        importResults.setTriplesLoaded(statementLoader.totalTriplesMapped);
-        importResults.setTriplesParsed(statementLoader.totalTriplesParsed);
+        importResults.setTriplesLoaded(previousLoaded + statementLoader.totalTriplesMapped);
+        importResults.setTriplesParsed(previousParsed + statementLoader.totalTriplesParsed);
         importResults.setConfigSummary(props);
       }
     }
     return importResults;
   }
 
+  /**
+   * Imports several sources at the same time, each one parsed and loaded in its own thread (with
+   * its own partial commits) by a DirectStatementLoader. Namespace prefixes and the node cache are
+   * shared by all of them. A source failing does not stop the others.
+   *
+   * @return one result per source, in the order they were given (globs expanded in name order)
+   */
+  protected List<SourceImportResults> doImportAll(String format, List<String> urls,
+      Map<String, Object> props) {
+
+    List<SourceImportResults> allResults = new ArrayList<>();
+    RDFFormat rdfFormat;
+    GraphConfig graphConfig;
+    RDFParserConfig conf;
+    NsPrefixMap sharedNamespaces = null;
+    List<String> sources = new ArrayList<>();
+    try {
+      checkConstraintExist();
+      rdfFormat = getFormat(format);
+      graphConfig = new GraphConfig(tx);
+      //validate the params once for all sources
+      conf = new RDFParserConfig(new HashMap<>(props), graphConfig);
+      if (graphConfig.getHandleVocabUris() == GRAPHCONF_VOC_URI_SHORTEN
+          || graphConfig.getHandleVocabUris() == GRAPHCONF_VOC_URI_SHORTEN_STRICT) {
+        sharedNamespaces = new NsPrefixMap(tx, false);
+        sharedNamespaces.allocateGeneratedPrefixesIn(db);
+      }
+      for (String url : urls) {
+        sources.addAll(expandGlobs(url, props));
+      }
+      if (sources.size() > 1 && conf.isResumeFromTripleCount()) {
+        throw new RDFImportBadParams(RESUME_FROM_SEVERAL_SOURCES);
+      }
+    } catch (RDFImportPreRequisitesNotMet | RDFImportBadParams | IOException
+        | InvalidNamespacePrefixDefinitionInDB e) {
+      allResults.add(new SourceImportResults(null, e.getMessage()));
+      return allResults;
+    } catch (GraphConfig.GraphConfigNotFound e) {
+      allResults.add(new SourceImportResults(null,
+          "A Graph Config is required for RDF importing procedures to run"));
+      return allResults;
+    }
+
+    int workers = props.containsKey("workers") ? ((Number) props.get("workers")).intValue()
+        : Math.min(DEFAULT_IMPORT_WORKERS, Runtime.getRuntime().availableProcessors());
+    NodeIdCache<String> sharedNodeCache = NodeIdCache.forUris(conf.getNodeCacheSize());
+    final NsPrefixMap namespaces = sharedNamespaces;
+
+    ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, workers), r -> {
+      Thread t = new Thread(r, "n10s-import-worker");
+      t.setDaemon(true);
+      return t;
+    });
+    try {
+      List<Future<SourceImportResults>> pending = new ArrayList<>();
+      for (String url : sources) {
+        pending.add(pool.submit(() -> importSource(rdfFormat, url, props, graphConfig, namespaces,
+            sharedNodeCache)));
+      }
+      for (int i = 0; i < pending.size(); i++) {
+        try {
+          allResults.add(pending.get(i).get());
+        } catch (ExecutionException e) {
+          allResults.add(new SourceImportResults(sources.get(i), e.getCause().getMessage()));
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      allResults.add(new SourceImportResults(null, "Import interrupted"));
+    } finally {
+      pool.shutdownNow();
+    }
+    if (allResults.stream().allMatch(result -> result.terminationStatus.equals("OK"))) {
+      clearCheckpoints(conf, sources);
+    }
+    log.debug("multi-source import complete. " + sharedNodeCache);
+    return allResults;
+  }
+
+  private SourceImportResults importSource(RDFFormat rdfFormat, String url,
+      Map<String, Object> props, GraphConfig graphConfig, NsPrefixMap sharedNamespaces,
+      NodeIdCache<String> sharedNodeCache) throws RDFImportBadParams {
+
+    //each source gets its own copy as the commit size can be adapted per loader
+    Map<String, Object> sourceProps = new HashMap<>(props);
+    sourceProps.put("singleTx", false);
+    RDFParserConfig conf = new RDFParserConfig(sourceProps, graphConfig);
+    DirectStatementLoader statementLoader = new DirectStatementLoader(db, null, conf, log,
+        sharedNamespaces, sharedNodeCache);
+    SourceImportResults importResults = new SourceImportResults(url);
+    if (!setUpCheckpoints(statementLoader, conf, url)) {
+      importResults.setExtraInfo(alreadyImported(url));
+      return importResults;
+    }
+    long start = System.currentTimeMillis();
+    try {
+      long bytesRead;
+      try {
+        bytesRead = parseRDFPayloadOrFromUrl(rdfFormat, url, null, sourceProps, statementLoader);
+      } finally {
+        statementLoader.close();
+      }
+      importResults.setBytesRead(bytesRead, System.currentTimeMillis() - start);
+      importResults.setNamespaces(statementLoader.getNamespaces());
+      importResults.setExtraInfo(statementLoader.getWarnings());
+      importResults.setBatchSizes(statementLoader.getBatchSizes());
+    } catch (IOException | RDFHandlerException | QueryExecutionException | RDFParseException e) {
+      importResults.setTerminationKO(e.getMessage());
+    }
+    importResults.setTriplesLoaded(statementLoader.totalTriplesMapped);
+    importResults.setTriplesParsed(statementLoader.totalTriplesParsed);
+    importResults.setConfigSummary(props);
+    return importResults;
+  }
+
+  /**
+   * Maps the RDF like doImport would but, instead of writing to the DB, writes neo4j-admin import
+   * files into the directory so that the graph can be bulk loaded into an empty database.
+   */
+  protected AdminImportFilesResults doImportToAdminFiles(String format, String url,
+      String directory, Map<String, Object> props) {
+
+    AdminImportFilesResults importResults = new AdminImportFilesResults();
+    AdminImportFileWriter fileWriter = null;
+    RDFFormat rdfFormat = null;
+    try {
+      props.put("singleTx", false);
+      if (!props.containsKey("commitSize")) {
+        props.put("commitSize", DEFAULT_ADMIN_FILES_RUN_SIZE);
+      }
+      RDFParserConfig conf = new RDFParserConfig(props, new GraphConfig(tx));
+      rdfFormat = getFormat(format);
+      fileWriter = new AdminImportFileWriter(db, tx, conf, log, adminFilesDirectory(directory));
+    } catch (GraphConfig.GraphConfigNotFound e) {
+      importResults
+          .setTerminationKO("A Graph Config is required for RDF importing procedures to run");
+    } catch (RDFImportBadParams | IOException | InvalidPathException e) {
+      importResults.setTerminationKO(e.getMessage());
+    }
+
+    if (fileWriter != null) {
+      long bytesRead = 0;
+      long start = System.currentTimeMillis();
+      try (SourceReader sources = new SourceReader(url, props)) {
+        while (sources.next()) {
+          bytesRead += sources.parse(rdfFormat, null, fileWriter);
+        }
+        if (sources.sourcesRead().isEmpty()) {
+          throw new IOException("No files or archive entries match " + url);
+        }
+        fileWriter.writeFiles();
+        importResults.setNamespaces(fileWriter.getNamespaces());
+        importResults.setExtraInfo(fileWriter.getWarnings());
+        importResults.setBytesRead(bytesRead, System.currentTimeMillis() - start);
+        importResults.nodes = fileWriter.getNodeCount();
+        importResults.relationships = fileWriter.getRelationshipCount();
+        importResults.files = fileWriter.getFiles();
+        importResults.importCommand = fileWriter.getImportCommand(db.databaseName());
+      } catch (IOException | RDFHandlerException | QueryExecutionException | RDFParseException e) {
+        importResults.setTerminationKO(e.getMessage());
+      } finally {
+        try {
+          fileWriter.close();
+        } catch (IOException e) {
+          log.warn("Could not remove the temporary files in " + directory, e);
+        }
+      }
+      importResults.setTriplesLoaded(fileWriter.totalTriplesMapped);
+      importResults.setTriplesParsed(fileWriter.totalTriplesParsed);
+      importResults.setConfigSummary(props);
+    }
+    return importResults;
+  }
+
+  /**
+   * Files can only be written when enabled in the settings, and only within the import
+   * directory. Relative directories are resolved against it.
+   */
+  private Path adminFilesDirectory(String directory) throws RDFImportBadParams, IOException {
+    Config config = ((GraphDatabaseAPI) db).getDependencyResolver().resolveDependency(Config.class);
+    if (!config.get(N10sSettings.admin_files_enabled)) {
+      throw new RDFImportBadParams("Writing neo4j-admin import files is disabled. Set '"
+          + N10sSettings.admin_files_enabled.name() + "=true' in neo4j.conf to enable it");
+    }
+    Path importDirectory = config.get(GraphDatabaseSettings.load_csv_file_url_root);
+    if (importDirectory == null) {
+      throw new RDFImportBadParams("neo4j-admin import files are written to the import "
+          + "directory but '" + GraphDatabaseSettings.load_csv_file_url_root.name()
+          + "' is not set");
+    }
+    importDirectory = importDirectory.toRealPath();
+    Path target = importDirectory.resolve(directory).normalize();
+    //the deepest existing ancestor, to catch symbolic links out of the import directory
+    Path existing = target;
+    while (existing != null && !Files.exists(existing)) {
+      existing = existing.getParent();
+    }
+    if (!target.startsWith(importDirectory) || existing == null
+        || !existing.toRealPath().startsWith(importDirectory)) {
+      throw new RDFImportBadParams("The directory " + directory
+          + " is not within the import directory " + importDirectory);
+    }
+    return target;
+  }
+
+  /**
+   * @return false when resuming an import in which the url was already fully imported
+   */
+  private boolean setUpCheckpoints(DirectStatementLoader statementLoader, RDFParserConfig conf,
+      String url) {
+    if (url == null || !conf.isCheckpoint()) {
+      return true;
+    }
+    ImportCheckpoint.createIndexIfMissing(db);
+    ImportCheckpoint from = null;
+    Long resumeFrom = conf.getResumeFrom(url);
+    if (resumeFrom != null) {
+      ImportCheckpoint saved;
+      try (Transaction checkpointTx = db.beginTx()) {
+        saved = ImportCheckpoint.find(checkpointTx, url);
+      }
+      if (resumeFrom == RDFParserConfig.RESUME_FROM_LAST_CHECKPOINT) {
+        if (saved != null && saved.isComplete()) {
+          return false;
+        }
+        from = saved;
+      } else {
+        //the blank nodes of an incomplete import are reused, a complete one is imported afresh
+        from = ImportCheckpoint.at(resumeFrom,
+            saved == null || saved.isComplete() ? null : saved.getBNodeScope());
+      }
+    }
+    statementLoader.enableCheckpoints(url, from);
+    return true;
+  }
+
+  /**
+   * The checkpoints of the sources are kept until all of them have been fully imported, so that
+   * resuming doesn't import again the ones that were finished.
+   */
+  private void clearCheckpoints(RDFParserConfig conf, List<String> sources) {
+    if (conf.isCheckpoint()) {
+      try (Transaction checkpointTx = db.beginTx()) {
+        if (ImportCheckpoint.clearIfAllComplete(checkpointTx, sources)) {
+          checkpointTx.commit();
+        }
+      }
+    }
+  }
+
+  private static String alreadyImported(String url) {
+    return url + " was fully imported before and was skipped. ";
+  }
+
   protected GraphResult doPreview(@Name("url") String url, @Name("rdf") String rdfFragment,
       @Name("format") String format,
       @Name(value = "params", defaultValue = "{}") Map<String, Object> props)
@@ -201,6 +526,133 @@ public class RDFProcedures extends CommonProcedures {
     return deleteResults;
   }
 
+  /**
+   * Deletes the triples matching a pattern in a single pass over the subjects. Subjects are read
+   * in pages in uri order, which the uniqueness constraint on :Resource(uri) serves as a range
+   * seek continuing from the last uri of the previous page. The triples of each page are found the
+   * same way n10s.rdf.export.spo finds them, in a read transaction per page, and are then deleted
+   * by a DirectStatementDeleter in partial commits of commitSize triples, so the removal semantics
+   * are the same as for n10s.rdf.delete. Every subject is visited once, so triples that can't be
+   * removed don't make the delete go round again.
+   */
+  protected DeleteResults doDeleteByPattern(TriplePattern pattern, Map<String, Object> props) {
+
+    DirectStatementDeleter statementDeleter = null;
+    GraphConfig graphConfig = null;
+    DeleteResults deleteResults = new DeleteResults();
+
+    try {
+      checkConstraintExist();
+      graphConfig = new GraphConfig(tx);
+      Map<String, Object> deleterProps = new HashMap<>(props);
+      deleterProps.put("singleTx", false);
+      statementDeleter = new DirectStatementDeleter(db, tx,
+          new RDFParserConfig(deleterProps, graphConfig), log);
+    } catch (RDFImportPreRequisitesNotMet e) {
+      deleteResults.setTerminationKO(e.getMessage());
+    } catch (GraphConfig.GraphConfigNotFound e) {
+      deleteResults
+          .setTerminationKO("A Graph Config is required for RDF importing procedures to run");
+    }
+
+    if (statementDeleter != null) {
+      try {
+        statementDeleter.startRDF();
+        //subjects are paged in uri order so that each one is read once
+        String cursor = "";
+        int subjectsInPage;
+        do {
+          List<Statement> page = new ArrayList<>();
+          try (Transaction readTx = db.beginTx()) {
+            List<String> uris = new ArrayList<>();
+            try (Result subjects = readTx.execute(subjectPageQuery(pattern.getSubject()),
+                subjectPageParams(pattern.getSubject(), cursor))) {
+              while (subjects.hasNext()) {
+                Map<String, Object> row = subjects.next();
+                cursor = (String) row.get("uri");
+                uris.add(cursor);
+              }
+            }
+            subjectsInPage = uris.size();
+            if (!uris.isEmpty()) {
+              //the same triple can be returned more than once for a subject
+              Set<Statement> matches = new LinkedHashSet<>();
+              try (Stream<Statement> stream = streamTriplesMatching(readTx, graphConfig, pattern,
+                  uris)) {
+                stream.forEach(matches::add);
+              }
+              page.addAll(matches);
+            }
+          }
+          //partial commits every commitSize triples
+          page.forEach(statementDeleter::handleStatement);
+        } while (subjectsInPage == DELETE_SUBJECT_PAGE_SIZE);
+        statementDeleter.endRDF();
+      } catch (InvalidNamespacePrefixDefinitionInDB | RDFHandlerException
+          | QueryExecutionException e) {
+        deleteResults.setTerminationKO(e.getMessage());
+      } finally {
+        deleteResults.setTriplesDeleted(
+            statementDeleter.totalTriplesMapped - statementDeleter.getNotDeletedStatementCount());
+        deleteResults.setExtraInfo(statementDeleter.getbNodeInfo());
+        deleteResults.setNamespaces(statementDeleter.getNamespaces());
+      }
+    }
+    return deleteResults;
+  }
+
+  private static String subjectPageQuery(String subject) {
+    String filter = subject == null ? "" : subject.endsWith("*")
+        ? " AND r.uri STARTS WITH $subject" : " AND r.uri = $subject";
+    return "MATCH (r:Resource) WHERE r.uri > $cursor" + filter
+        + " RETURN r.uri AS uri ORDER BY r.uri LIMIT $limit";
+  }
+
+  private static Map<String, Object> subjectPageParams(String subject, String cursor) {
+    Map<String, Object> params = new HashMap<>();
+    params.put("cursor", cursor);
+    params.put("limit", DELETE_SUBJECT_PAGE_SIZE);
+    if (subject != null) {
+      params.put("subject",
+          subject.endsWith("*") ? subject.substring(0, subject.length() - 1) : subject);
+    }
+    return params;
+  }
+
+  /**
+   * Triples about the given subjects matching the rest of the pattern. A predicate ending in '*'
+   * matches all the uris starting with the text before it. Triples about blank nodes are left out
+   * as they can't be deleted.
+   */
+  private Stream<Statement> streamTriplesMatching(Transaction readTx, GraphConfig graphConfig,
+      TriplePattern pattern, List<String> subjects) throws InvalidNamespacePrefixDefinitionInDB {
+    ExportProcessor proc;
+    if (graphConfig.getHandleVocabUris() == GRAPHCONF_VOC_URI_IGNORE
+        || graphConfig.getHandleVocabUris() == GRAPHCONF_VOC_URI_MAP) {
+      proc = new LPGToRDFProcesssor(db, readTx, graphConfig, getExportMappingsFromDB(db),
+          false, false);
+    } else {
+      proc = new LPGRDFToRDFProcesssor(db, readTx, graphConfig, false);
+    }
+    String predicate = pattern.getPredicate();
+    String predicatePrefix = predicate != null && predicate.endsWith("*")
+        ? predicate.substring(0, predicate.length() - 1) : null;
+    Function<String, TriplePattern> forSubject = s -> new TriplePattern(s,
+        predicatePrefix == null ? predicate : null, pattern.getObject(), pattern.getLiteral(),
+        pattern.getLiteralType(), pattern.getLiteralLang());
+
+    Stream<Statement> matches = subjects.stream().flatMap(uri -> {
+      try {
+        return proc.streamTriplesFromTriplePattern(forSubject.apply(uri));
+      } catch (InvalidNamespacePrefixDefinitionInDB e) {
+        throw new RDFHandlerException(e.getMessage(), e);
+      }
+    });
+    return matches.filter(st -> !(st.getSubject().stringValue().startsWith("bnode://")
+        || st.getObject().stringValue().startsWith("bnode://"))
+        && (predicatePrefix == null || st.getPredicate().stringValue().startsWith(predicatePrefix)));
+  }
+
   protected DirectStatementLoader doAdd(String rdfFragment, Map<String, Object> props, RDFFormat format, boolean isRel)
           throws RDFImportPreRequisitesNotMet, IOException, GraphConfig.GraphConfigNotFound {
 
@@ -388,6 +840,9 @@ public class RDFProcedures extends CommonProcedures {
     public Map<String, String> namespaces;
     public String extraInfo = "";
     public Map<String, Object> callParams;
+    public Map<String, Object> batchSizes;
+    public long bytesRead = 0;
+    public long bytesPerSecond = 0;
 
     public void setTriplesLoaded(long count) {
       this.triplesLoaded = count;
@@ -401,6 +856,15 @@ public class RDFProcedures extends CommonProcedures {
       this.callParams = summary;
     }
 
+    public void setBatchSizes(Map<String, Object> batchSizes) {
+      this.batchSizes = batchSizes;
+    }
+
+    public void setBytesRead(long bytesRead, long millis) {
+      this.bytesRead = bytesRead;
+      this.bytesPerSecond = bytesRead * 1000 / Math.max(millis, 1);
+    }
+
     public void setNamespaces(Map<String, String> namespaces) {
       this.namespaces = namespaces;
     }
@@ -417,6 +881,28 @@ public class RDFProcedures extends CommonProcedures {
 
   }
 
+  public static class SourceImportResults extends ImportResults {
+
+    public String url;
+
+    public SourceImportResults(String url) {
+      this.url = url;
+    }
+
+    public SourceImportResults(String url, String failure) {
+      this.url = url;
+      setTerminationKO(failure);
+    }
+  }
+
+  public static class AdminImportFilesResults extends ImportResults {
+
+    public long nodes = 0;
+    public long relationships = 0;
+    public List<String> files;
+    public String importCommand;
+  }
+
   public static class DeleteResults {
 
     public String terminationStatus = "OK";
@@ -1,18 +1,14 @@
 package n10s.rdf.delete;
 
-import com.google.common.cache.Cache;
-import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader.InvalidCacheLoadException;
 import com.google.common.collect.Iterators;
-import java.time.LocalDate;
-import java.time.LocalDateTime;
-import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ExecutionException;
 import n10s.RDFToLPGStatementProcessor;
 import n10s.graphconfig.RDFParserConfig;
+import n10s.utils.NodeIdCache;
+import n10s.utils.ResourceNodeLookup;
 import org.eclipse.rdf4j.model.BNode;
 import org.eclipse.rdf4j.model.IRI;
 import org.eclipse.rdf4j.model.Statement;
@@ -37,19 +33,17 @@ public class DirectStatementDeleter extends RDFToLPGStatementProcessor {
 
   private static final Label RESOURCE = Label.label("Resource");
 
-  private final Cache<String, Node> nodeCache;
-
   private long notDeletedStatementCount;
   private long statementsWithBNodeCount;
   private String bNodeInfo;
+  //resolved nodes are remembered across partial commits
+  private final NodeIdCache<String> nodeIdCache;
 
   public DirectStatementDeleter(GraphDatabaseService db, Transaction tx, RDFParserConfig conf,
       Log l) {
 
     super(db, tx, conf, l);
-    nodeCache = CacheBuilder.newBuilder()
-        .maximumSize(conf.getNodeCacheSize())
-        .build();
+    nodeIdCache = NodeIdCache.forUris(conf.getNodeCacheSize());
     bNodeInfo = "";
     notDeletedStatementCount = 0;
     statementsWithBNodeCount = 0;
@@ -60,173 +54,103 @@ public class DirectStatementDeleter extends RDFToLPGStatementProcessor {
     periodicOperation();
     log.debug("Delete operation complete: Total number of triples deleted is "
         + totalTriplesMapped + " (out of " + totalTriplesParsed + " parsed)");
+    log.debug(nodeIdCache.toString());
   }
 
   public Integer runPartialTx(Transaction inThreadTransaction) {
 
+    Map<String, Node> nodes = ResourceNodeLookup
+        .findNodes(inThreadTransaction, urisToResolve(), nodeIdCache);
+
     for (Map.Entry<String, Set<String>> entry : resourceLabels.entrySet()) {
-      try {
-        if (entry.getKey().startsWith("bnode://")) {
-          statementsWithBNodeCount += entry.getValue().size() + 1;
-          continue;
-        }
-        Node tempNode = null;
-        final Node node;
-        try {
-          tempNode = nodeCache
-              .get(entry.getKey(),
-                  () -> inThreadTransaction.findNode(RESOURCE, "uri", entry.getKey()));
-        } catch (InvalidCacheLoadException icle) {
-          icle.printStackTrace();
+      if (entry.getKey().startsWith("bnode://")) {
+        statementsWithBNodeCount += entry.getValue().size() + 1;
+        continue;
+      }
+      final Node node = nodes.get(entry.getKey());
+      entry.getValue().forEach(l -> {
+        if (node != null && node.hasLabel(labelFor(l))) {
+          node.removeLabel(labelFor(l));
+        } else {
+          notDeletedStatementCount++;
         }
-        node = tempNode;
-        entry.getValue().forEach(l -> {
-          if (node != null && node.hasLabel(Label.label(l))) {
-            node.removeLabel(Label.label(l));
-          } else {
-            notDeletedStatementCount++;
-          }
-        });
-        resourceProps.get(entry.getKey()).forEach((k, v) -> {
-          if (v instanceof List) {
-            List valuesToDelete = (List) v;
-            if (node != null && node.hasProperty(k)) {
-              ArrayList<Object> newProps = new ArrayList<>();
-              Object prop = node.getProperty(k);
-              if (prop instanceof long[]) {
-                long[] props = (long[]) prop;
-                for (long currentVal : props) {
-                  if (!valuesToDelete.contains(currentVal)) {
-                    newProps.add(currentVal);
-                  }
-                }
-              } else if (prop instanceof double[]) {
-                double[] props = (double[]) prop;
-                for (double currentVal : props) {
-                  if (!valuesToDelete.contains(currentVal)) {
-                    newProps.add(currentVal);
-                  }
-                }
-              } else if (prop instanceof boolean[]) {
-                boolean[] props = (boolean[]) prop;
-                for (boolean currentVal : props) {
-                  if (!valuesToDelete.contains(currentVal)) {
-                    newProps.add(currentVal);
-                  }
-                }
-              } else if (prop instanceof LocalDateTime[]) {
-                LocalDateTime[] props = (LocalDateTime[]) prop;
-                for (LocalDateTime currentVal : props) {
-                  if (!valuesToDelete.contains(currentVal)) {
-                    newProps.add(currentVal);
-                  }
-                }
-              } else if (prop instanceof LocalDate[]) {
-                LocalDate[] props = (LocalDate[]) prop;
-                for (LocalDate currentVal : props) {
-                  if (!valuesToDelete.contains(currentVal)) {
-                    newProps.add(currentVal);
-                  }
-                }
-              } else {
-                Object[] props = (Object[]) prop;
-                for (Object currentVal : props) {
-                  if (!valuesToDelete.contains(currentVal)) {
-                    newProps.add(currentVal);
-                  }
-                }
-              }
+      });
+      resourceProps.get(entry.getKey()).forEach((k, v) -> {
+        if (v instanceof List) {
+          List valuesToDelete = (List) v;
+          if (node != null && node.hasProperty(k)) {
+            //all the values deleted from the property in this batch, in a single rewrite
+            Object prop = node.getProperty(k);
+            Object remaining = removePropertyValues(prop, valuesToDelete);
+            if (remaining == null) {
               node.removeProperty(k);
-              if (!newProps.isEmpty()) {
-                node.setProperty(k, toPropertyValue(newProps));
-              }
-            } else {
-              notDeletedStatementCount += valuesToDelete.size();
+            } else if (remaining != prop) {
+              node.setProperty(k, remaining);
             }
           } else {
-            if (node != null && node.hasProperty(k)) {
-              node.removeProperty(k);
-            } else {
-              notDeletedStatementCount++;
-            }
+            notDeletedStatementCount += valuesToDelete.size();
+          }
+        } else {
+          if (node != null && node.hasProperty(k)) {
+            node.removeProperty(k);
+          } else {
+            notDeletedStatementCount++;
           }
-        });
-        if (node != null) {
-          deleteNodeIfEmpty(node);
         }
-      } catch (ExecutionException e) {
-        e.printStackTrace();
+      });
+      if (node != null && deleteNodeIfEmpty(node)) {
+        nodes.remove(entry.getKey());
+        nodeIdCache.invalidate(entry.getKey());
       }
     }
 
     for (Statement st : statements) {
-      try {
-        if ((st.getSubject() instanceof IRI && st.getSubject().stringValue().startsWith("bnode://")) !=
-                (st.getObject() instanceof IRI && st.getObject().stringValue().startsWith("bnode://"))) {
-          statementsWithBNodeCount++;
-        }
-        if ((st.getSubject() instanceof IRI && st.getSubject().stringValue().startsWith("bnode://")) ||
-                (st.getObject() instanceof IRI && st.getObject().stringValue().startsWith("bnode://"))) { //(st.getSubject() instanceof BNode || st.getObject() instanceof BNode) {
-          //statementsWithBNodeCount++;
-          continue;
-        }
-        Node fromNode = null;
-        try {
-          fromNode = nodeCache.get(st.getSubject().stringValue(), () -> {  //throws AnyException
-            return inThreadTransaction.findNode(RESOURCE, "uri", st.getSubject().stringValue());
-          });
-        } catch (InvalidCacheLoadException icle) {
-          icle.printStackTrace();
-        }
-        Node toNode = null;
-        try {
-          toNode = nodeCache.get(st.getObject().stringValue(), () -> {  //throws AnyException
-            return inThreadTransaction.findNode(RESOURCE, "uri", st.getObject().stringValue());
-          });
-        } catch (InvalidCacheLoadException icle) {
-          icle.printStackTrace();
-        }
-        if (fromNode == null || toNode == null) {
-          notDeletedStatementCount++;
-          continue;
-        }
-        // find relationship if it exists
-        if (fromNode
-            .getDegree(RelationshipType.withName(handleIRI(st.getPredicate(), RELATIONSHIP)),
-                Direction.OUTGOING) <
-            toNode.getDegree(RelationshipType.withName(handleIRI(st.getPredicate(), RELATIONSHIP)),
-                Direction.INCOMING)) {
-          for (Relationship rel : fromNode
-              .getRelationships(Direction.OUTGOING,
-                  RelationshipType.withName(handleIRI(st.getPredicate(), RELATIONSHIP))
-              )) {
-            if (rel.getEndNode().equals(toNode)) {
-              rel.delete();
-              break;
-            }
+      if ((st.getSubject() instanceof IRI && st.getSubject().stringValue().startsWith("bnode://")) !=
+              (st.getObject() instanceof IRI && st.getObject().stringValue().startsWith("bnode://"))) {
+        statementsWithBNodeCount++;
+      }
+      if ((st.getSubject() instanceof IRI && st.getSubject().stringValue().startsWith("bnode://")) ||
+              (st.getObject() instanceof IRI && st.getObject().stringValue().startsWith("bnode://"))) { //(st.getSubject() instanceof BNode || st.getObject() instanceof BNode) {
+        //statementsWithBNodeCount++;
+        continue;
+      }
+      Node fromNode = nodes.get(st.getSubject().stringValue());
+      Node toNode = nodes.get(st.getObject().stringValue());
+      if (fromNode == null || toNode == null) {
+        notDeletedStatementCount++;
+        continue;
+      }
+      RelationshipType relType = relationshipTypeFor(st.getPredicate());
+      // find relationship if it exists
+      if (fromNode.getDegree(relType, Direction.OUTGOING) <
+          toNode.getDegree(relType, Direction.INCOMING)) {
+        for (Relationship rel : fromNode.getRelationships(Direction.OUTGOING, relType)) {
+          if (rel.getEndNode().equals(toNode)) {
+            rel.delete();
+            break;
           }
-        } else {
-          for (Relationship rel : toNode
-              .getRelationships(Direction.INCOMING,
-                  RelationshipType.withName(handleIRI(st.getPredicate(), RELATIONSHIP))
-              )) {
-            if (rel.getStartNode().equals(fromNode)) {
-              rel.delete();
-              break;
-            }
+        }
+      } else {
+        for (Relationship rel : toNode.getRelationships(Direction.INCOMING, relType)) {
+          if (rel.getStartNode().equals(fromNode)) {
+            rel.delete();
+            break;
           }
         }
-        deleteNodeIfEmpty(toNode);
-        deleteNodeIfEmpty(fromNode);
-      } catch (ExecutionException e) {
-        e.printStackTrace();
+      }
+      if (deleteNodeIfEmpty(toNode)) {
+        nodes.remove(st.getObject().stringValue());
+        nodeIdCache.invalidate(st.getObject().stringValue());
+      }
+      if (!fromNode.equals(toNode) && deleteNodeIfEmpty(fromNode)) {
+        nodes.remove(st.getSubject().stringValue());
+        nodeIdCache.invalidate(st.getSubject().stringValue());
       }
     }
 
     statements.clear();
     resourceLabels.clear();
     resourceProps.clear();
-    nodeCache.invalidateAll();
     if (statementsWithBNodeCount > 0) {
       setbNodeInfo(statementsWithBNodeCount
           + " of the statements could not be deleted, due to use of blank nodes.");
@@ -261,7 +185,10 @@ public class DirectStatementDeleter extends RDFToLPGStatementProcessor {
     this.bNodeInfo = bNodeInfo;
   }
 
-  private void deleteNodeIfEmpty(Node node) {
+  /**
+   * @return true if the node was deleted
+   */
+  private boolean deleteNodeIfEmpty(Node node) {
     int nodePropertyCount = node.getAllProperties().size();
     int labelCount = Iterators.size(node.getLabels().iterator());
     if (!node.hasRelationship(Direction.OUTGOING) &&
@@ -269,7 +196,26 @@ public class DirectStatementDeleter extends RDFToLPGStatementProcessor {
         node.hasLabel(RESOURCE) && labelCount == 1 &&
         (node.getAllProperties().containsKey("uri") && nodePropertyCount == 1)) {
       node.delete();
+      return true;
+    }
+    return false;
+  }
+
+  private Set<String> urisToResolve() {
+    Set<String> uris = new HashSet<>();
+    for (String uri : resourceLabels.keySet()) {
+      if (!uri.startsWith("bnode://")) {
+        uris.add(uri);
+      }
+    }
+    for (Statement st : statements) {
+      if (!st.getSubject().stringValue().startsWith("bnode://") &&
+          !st.getObject().stringValue().startsWith("bnode://")) {
+        uris.add(st.getSubject().stringValue());
+        uris.add(st.getObject().stringValue());
+      }
     }
+    return uris;
   }
 
 }
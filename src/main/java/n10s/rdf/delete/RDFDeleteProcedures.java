@@ -3,6 +3,7 @@ package n10s.rdf.delete;
 import java.util.Map;
 import java.util.stream.Stream;
 import n10s.rdf.RDFProcedures;
+import n10s.rdf.export.TriplePattern;
 import org.neo4j.procedure.Description;
 import org.neo4j.procedure.Mode;
 import org.neo4j.procedure.Name;
@@ -30,4 +31,21 @@ public class RDFDeleteProcedures extends RDFProcedures {
     return Stream.of(doDelete(format, null, rdf, props, true));
   }
 
+  @Procedure(mode = Mode.WRITE)
+  @Description(
+      "Deletes the triples matching the spo pattern passed as parameter in batches of commitSize. "
+          + "Subject and predicate ending in '*' match all uris starting with the given prefix.")
+  public Stream<DeleteResults> pattern(@Name("subject") String subject,
+      @Name("predicate") String predicate, @Name("object") String object,
+      @Name(value = "isLiteral", defaultValue = "false") Boolean isLiteral,
+      @Name(value = "literalType", defaultValue = "http://www.w3.org/2001/XMLSchema#string")
+          String literalType,
+      @Name(value = "literalLang", defaultValue = "null") String literalLang,
+      @Name(value = "params", defaultValue = "{}") Map<String, Object> props) {
+    return Stream.of(doDeleteByPattern(new TriplePattern(subject, predicate, object,
+        (isLiteral == null ? false : isLiteral),
+        (literalType == null ? "http://www.w3.org/2001/XMLSchema#string" : literalType),
+        (literalLang == null || literalLang.equals("null") ? null : literalLang)), props));
+  }
+
 }
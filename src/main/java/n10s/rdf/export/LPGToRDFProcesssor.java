@@ -48,7 +48,8 @@ public class LPGToRDFProcesssor extends ExportProcessor {
       // Resource and NamespacePrefix should be named _Resource... to avoid conflicts
       if (!catName.equals("Resource") && !catName.equals("_NsPrefDef")
           && !catName.equals("_n10sValidatorConfig") && !catName.equals("_MapNs")
-          && !catName.equals("_MapDef") && !catName.equals("_GraphConfig")) {
+          && !catName.equals("_MapDef") && !catName.equals("_GraphConfig")
+          && !catName.equals("_ImportCheckpoint")) {
         IRI subject = vf.createIRI(BASE_SCH_NS, catName);
         statements.add(vf.createStatement(subject, RDF.TYPE, OWL.CLASS));
         statements.add(vf
@@ -166,7 +167,8 @@ public class LPGToRDFProcesssor extends ExportProcessor {
   protected boolean filterNode(Node node, Map<Long, IRI> ontologyEntitiesUris) {
     return node.hasLabel(Label.label("_MapDef")) || node.hasLabel(Label.label("_MapNs"))||
         node.hasLabel(Label.label("_NsPrefDef")) || node.hasLabel(Label.label("_n10sValidatorConfig"))
-        || node.hasLabel(Label.label("_GraphConfig"));
+        || node.hasLabel(Label.label("_GraphConfig"))
+        || node.hasLabel(Label.label("_ImportCheckpoint"));
   }
 
   @Override
@@ -431,7 +433,7 @@ public class LPGToRDFProcesssor extends ExportProcessor {
           //no subject, no pred, no object: null, null, null -> return all triples
           //TODO: Exclude other control elements like mappings. Will be solved when all that stuff is moved to the
           // admin DB.
-          result = tx.execute("MATCH (r) WHERE NOT r:_GraphConfig RETURN r\n"
+          result = tx.execute("MATCH (r) WHERE NOT r:_GraphConfig AND NOT r:_ImportCheckpoint RETURN r\n"
                   + "UNION \n"
                   + "MATCH ()-[r]->() RETURN r");
           return result.stream().flatMap(row -> {
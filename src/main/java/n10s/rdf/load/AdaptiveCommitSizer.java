@@ -0,0 +1,66 @@
+package n10s.rdf.load;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Works out the size of the next partial commit from how the previous one went: batches grow or
+ * shrink to take roughly the target commit time, and never more than the target memory given the
+ * (estimated) bytes staged per triple so far. Changes are limited to halving or doubling per commit
+ * so that a single outlier does not make the size swing. Sizes can shrink below the initial commit
+ * size, down to MIN_COMMIT_SIZE. An initial commit size smaller than MIN_COMMIT_SIZE is the floor
+ * instead, so shrinking never takes a size below what the user asked for when that is already
+ * small, nor grows it up to MIN_COMMIT_SIZE.
+ */
+class AdaptiveCommitSizer {
+
+  static final long MIN_COMMIT_SIZE = 1000;
+
+  private final long targetMillis;
+  private final long targetBytes;
+  //min(MIN_COMMIT_SIZE, initial commit size)
+  private final long smallestSize;
+  private long commits = 0;
+  private long minSize = Long.MAX_VALUE;
+  private long maxSize = 0;
+  private long lastSize = 0;
+
+  AdaptiveCommitSizer(long targetMillis, long targetBytes, long initialCommitSize) {
+    this.targetMillis = targetMillis;
+    this.targetBytes = targetBytes;
+    this.smallestSize = Math.min(MIN_COMMIT_SIZE, initialCommitSize);
+  }
+
+  /**
+   * @param currentSize the commit size in use
+   * @param triples triples in the batch just committed
+   * @param bytes estimated bytes staged for the batch just committed
+   * @param millis time it took to write and commit it
+   * @return the commit size to use next
+   */
+  synchronized long nextCommitSize(long currentSize, long triples, long bytes, long millis) {
+    //the sizes reported are the ones chosen, the last batch of an import is usually smaller
+    commits++;
+    minSize = Math.min(minSize, currentSize);
+    maxSize = Math.max(maxSize, currentSize);
+    lastSize = currentSize;
+    if (triples == 0) {
+      return currentSize;
+    }
+    long next = triples * targetMillis / Math.max(millis, 1);
+    if (bytes > 0) {
+      next = Math.min(next, targetBytes / Math.max(bytes / triples, 1));
+    }
+    next = Math.max(currentSize / 2, Math.min(currentSize * 2, next));
+    return Math.max(next, smallestSize);
+  }
+
+  synchronized Map<String, Object> getSummary() {
+    Map<String, Object> summary = new HashMap<>();
+    summary.put("commits", commits);
+    summary.put("min", commits == 0 ? 0 : minSize);
+    summary.put("max", maxSize);
+    summary.put("last", lastSize);
+    return summary;
+  }
+}
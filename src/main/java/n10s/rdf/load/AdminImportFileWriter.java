@@ -0,0 +1,679 @@
+package n10s.rdf.load;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static n10s.CommonProcedures.UNIQUENESS_CONSTRAINT_STATEMENT;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import n10s.RDFToLPGStatementProcessor;
+import n10s.graphconfig.RDFParserConfig;
+import org.eclipse.rdf4j.model.Statement;
+import org.eclipse.rdf4j.rio.RDFHandlerException;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.logging.Log;
+import org.neo4j.values.storable.PointValue;
+
+/**
+ * Writes the nodes and relationships an import would create as CSV files for neo4j-admin
+ * database import, so that large datasets can be bulk loaded offline into an empty database.
+ * <p>
+ * Triples are mapped exactly as in DirectStatementLoader, but instead of being committed every
+ * batch of staged resources and statements is written to disk as a run sorted by uri (by subject,
+ * type and object for relationships). Runs are merged at the end so that all the fragments of a
+ * resource become a single node, combined the same way successive partial commits would combine
+ * them. Nodes are identified in the files by their uri, so the uri to node dictionary is built by
+ * neo4j-admin and never held in memory here.
+ */
+public class AdminImportFileWriter extends RDFToLPGStatementProcessor {
+
+  public static final String NODES = "nodes.csv";
+  public static final String NODES_HEADER = "nodes-header.csv";
+  public static final String RELATIONSHIPS = "relationships.csv";
+  public static final String RELATIONSHIPS_HEADER = "relationships-header.csv";
+  public static final String GRAPH_CONFIG = "graphconfig.csv";
+  public static final String NAMESPACES = "nsprefdef.csv";
+  public static final String SCHEMA = "schema.cypher";
+  static final char ARRAY_DELIMITER = '\u001F';
+  //runs merged in one go. When there are more they're merged in several passes
+  static final int MAX_MERGE_RUNS = 64;
+
+  private static final String RESOURCE = "Resource";
+  private static final String ID_SPACE = "(" + RESOURCE + ")";
+  private static final int STRING = 0;
+  private static final int LONG = 1;
+  private static final int DOUBLE = 2;
+  private static final int BOOLEAN = 3;
+  private static final int DATE = 4;
+  private static final int LOCAL_DATETIME = 5;
+  private static final int DATETIME = 6;
+  private static final int POINT = 7;
+  private static final int LIST = 8;
+  private static final String[] CSV_TYPES = {"string", "long", "double", "boolean", "date",
+      "localdatetime", "datetime", "point"};
+
+  private final Path directory;
+  private final Path runsDirectory;
+  private final List<Path> nodeRuns = new ArrayList<>();
+  private final List<Path> relationshipRuns = new ArrayList<>();
+  private int runCount = 0;
+  //property keys (and the types of the values found for them) for each kind of element
+  private final Map<String, Column> nodeColumns = new TreeMap<>();
+  private final Map<String, Column> relationshipColumns = new TreeMap<>();
+  private long discarded = 0;
+  private long nodeCount = 0;
+  private long relationshipCount = 0;
+  private final List<String> files = new ArrayList<>();
+
+  public AdminImportFileWriter(GraphDatabaseService db, Transaction tx, RDFParserConfig conf,
+      Log l, Path directory) throws IOException {
+    super(db, tx, conf, l);
+    this.directory = directory;
+    this.runsDirectory = directory.resolve(".n10s-runs");
+    Files.createDirectories(runsDirectory);
+  }
+
+  @Override
+  public void endRDF() throws RDFHandlerException {
+    periodicOperation();
+    log.debug("Bulk import runs written: " + totalTriplesMapped + " triples mapped out of "
+        + totalTriplesParsed + " parsed");
+  }
+
+  @Override
+  protected void periodicOperation() {
+    try {
+      if (!resourceLabels.isEmpty()) {
+        nodeRuns.add(writeNodeRun());
+      }
+      if (!statements.isEmpty()) {
+        relationshipRuns.add(writeRelationshipRun());
+      }
+    } catch (IOException e) {
+      throw new PartialCommitException("Problems when writing a batch of triples to disk. ", e);
+    }
+    totalTriplesMapped += mappedTripleCounter;
+    mappedTripleCounter = 0;
+    statements.clear();
+    resourceLabels.clear();
+    resourceProps.clear();
+    relProps.clear();
+  }
+
+  private Path writeNodeRun() throws IOException {
+    Path run = nextRun("nodes");
+    try (DataOutputStream out = openRun(run)) {
+      for (Entry<String, Set<String>> resource : new TreeMap<>(resourceLabels).entrySet()) {
+        Map<String, Object> props = resourceProps.get(resource.getKey());
+        props.keySet().forEach(k -> nodeColumns.computeIfAbsent(k, x -> new Column()));
+        writeFragment(out, new Fragment(new String[]{resource.getKey()}, resource.getValue(),
+            props));
+      }
+      out.writeBoolean(false);
+    }
+    return run;
+  }
+
+  private Path writeRelationshipRun() throws IOException {
+    List<Fragment> rels = new ArrayList<>(statements.size());
+    for (Statement st : statements) {
+      Map<String, Object> props = relProps.getOrDefault(st, Map.of());
+      props.keySet().forEach(k -> relationshipColumns.computeIfAbsent(k, x -> new Column()));
+      rels.add(new Fragment(new String[]{st.getSubject().stringValue(),
+          relationshipTypeFor(st.getPredicate()).name(), st.getObject().stringValue()},
+          Set.of(), props));
+    }
+    rels.sort(Fragment.BY_KEY);
+    Path run = nextRun("relationships");
+    try (DataOutputStream out = openRun(run)) {
+      for (Fragment rel : rels) {
+        writeFragment(out, rel);
+      }
+      out.writeBoolean(false);
+    }
+    return run;
+  }
+
+  /**
+   * Merges the runs into the final import files, one row per node and relationship, plus the
+   * header files (written last as the types of the columns are only known once all values have
+   * been combined), the graph config and namespace prefix nodes and the schema.
+   */
+  public void writeFiles() throws IOException {
+    try (Writer out = openFile(NODES)) {
+      merge(reduce(nodeRuns, "nodes"), group -> writeNode(out, group));
+    }
+    try (Writer out = openFile(RELATIONSHIPS)) {
+      merge(reduce(relationshipRuns, "relationships"), group -> writeRelationship(out, group));
+    }
+    try (Writer out = openFile(NODES_HEADER)) {
+      writeHeader(out, Stream.of("uri:ID" + ID_SPACE, ":LABEL"), nodeColumns);
+    }
+    try (Writer out = openFile(RELATIONSHIPS_HEADER)) {
+      writeHeader(out, Stream.of(":START_ID" + ID_SPACE, ":END_ID" + ID_SPACE, ":TYPE"),
+          relationshipColumns);
+    }
+    writeConfigNode(GRAPH_CONFIG, "_GraphConfig",
+        new TreeMap<>(parserConfig.getGraphConf().serialiseConfig()));
+    if (namespaces != null && !namespaces.getPrefixToNs().isEmpty()) {
+      writeConfigNode(NAMESPACES, "_NsPrefDef", new TreeMap<>(namespaces.getPrefixToNs()));
+    }
+    try (Writer out = openFile(SCHEMA)) {
+      out.write(UNIQUENESS_CONSTRAINT_STATEMENT + ";\n");
+    }
+    totalTriplesMapped -= discarded;
+  }
+
+  private void writeNode(Writer out, List<Fragment> fragments) throws IOException {
+    Set<String> labels = new LinkedHashSet<>();
+    labels.add(RESOURCE);
+    Map<String, Object> props = new LinkedHashMap<>();
+    for (Fragment fragment : fragments) {
+      labels.addAll(fragment.labels);
+      fragment.props.forEach((k, v) -> props.put(k, mergeValue(k, props.get(k), v)));
+    }
+    out.write(quote(fragments.get(0).key[0]));
+    out.write(',');
+    out.write(quote(String.join(String.valueOf(ARRAY_DELIMITER), labels)));
+    writeProperties(out, props, nodeColumns);
+    nodeCount++;
+  }
+
+  private void writeRelationship(Writer out, List<Fragment> fragments) throws IOException {
+    Map<String, Object> props = new LinkedHashMap<>();
+    for (Fragment fragment : fragments) {
+      fragment.props.forEach((k, v) -> props.put(k, mergeValue(k, props.get(k), v)));
+    }
+    String[] key = fragments.get(0).key;
+    out.write(quote(key[0]) + ',' + quote(key[2]) + ',' + quote(key[1]));
+    writeProperties(out, props, relationshipColumns);
+    relationshipCount++;
+  }
+
+  private void writeProperties(Writer out, Map<String, Object> props,
+      Map<String, Column> columns) throws IOException {
+    for (Entry<String, Column> column : columns.entrySet()) {
+      out.write(',');
+      Object value = props.get(column.getKey());
+      if (value != null) {
+        column.getValue().add(value);
+        out.write(csvValue(value));
+      }
+    }
+    out.write('\n');
+  }
+
+  /**
+   * Combines the value of a property in a fragment with the values from the previous ones as
+   * DirectStatementLoader.setProperty does when a resource is updated by several partial commits.
+   */
+  private Object mergeValue(String k, Object current, Object v) {
+    if (!(v instanceof List)) {
+      return v;
+    }
+    List<Object> newList = new ArrayList<>();
+    if (current instanceof List) {
+      newList.addAll((List<?>) current);
+    } else if (current != null) {
+      newList.add(current);
+    }
+    Class<?> currentDatatype = newList.isEmpty() ? ((List<?>) v).get(0).getClass()
+        : newList.get(0).getClass();
+    List<Object> discardedItems = new ArrayList<>();
+    for (Object x : (List<?>) v) {
+      if (x.getClass().equals(currentDatatype)) {
+        newList.add(x);
+      } else {
+        discardedItems.add(x);
+      }
+    }
+    if (!discardedItems.isEmpty()) {
+      datatypeConflictFound = true;
+      if (getParserConfig().isStrictDataTypeCheck()) {
+        log.warn("The following values for property '" + k + "' have been discarded because of "
+            + "datatype heterogeneity (previously stored values are of type " + currentDatatype
+            + ") : " + discardedItems);
+        discarded += discardedItems.size();
+      } else {
+        newList.addAll(discardedItems);
+        return new ArrayList<>(new LinkedHashSet<>(defaultToString(newList.iterator())));
+      }
+    }
+    return new ArrayList<>(new LinkedHashSet<>(newList));
+  }
+
+  private void writeHeader(Writer out, Stream<String> fixedColumns, Map<String, Column> columns)
+      throws IOException {
+    Stream<String> propertyColumns = columns.entrySet().stream()
+        .map(column -> column.getKey() + ':' + column.getValue().csvType(column.getKey()));
+    out.write(Stream.concat(fixedColumns, propertyColumns).map(AdminImportFileWriter::header)
+        .collect(Collectors.joining(",")));
+    out.write('\n');
+  }
+
+  /**
+   * Writes a node with a single label and the given properties in a file of its own, with the
+   * header in the same file.
+   */
+  private void writeConfigNode(String fileName, String label, Map<String, Object> props)
+      throws IOException {
+    List<String> header = new ArrayList<>();
+    List<String> row = new ArrayList<>();
+    header.add(":LABEL");
+    row.add(label);
+    for (Entry<String, Object> prop : props.entrySet()) {
+      Object value = prop.getValue();
+      if (value instanceof Collection) {
+        header.add(header(prop.getKey() + ":string[]"));
+        row.add(csvValue(new ArrayList<>((Collection<?>) value)));
+      } else if (value instanceof Integer) {
+        header.add(header(prop.getKey() + ":long"));
+        row.add(value.toString());
+      } else if (value != null) {
+        header.add(header(prop.getKey() + ':' + CSV_TYPES[typeOf(value)]));
+        row.add(csvValue(value));
+      }
+    }
+    try (Writer out = openFile(fileName)) {
+      out.write(String.join(",", header) + '\n' + String.join(",", row) + '\n');
+    }
+  }
+
+  /**
+   * @return the neo4j-admin command that imports the files written into the given database
+   */
+  public String getImportCommand(String database) {
+    StringBuilder command = new StringBuilder("neo4j-admin database import full ")
+        .append(database)
+        .append(" --nodes=").append(directory.resolve(NODES_HEADER)).append(',')
+        .append(directory.resolve(NODES))
+        .append(" --relationships=").append(directory.resolve(RELATIONSHIPS_HEADER)).append(',')
+        .append(directory.resolve(RELATIONSHIPS))
+        .append(" --nodes=").append(directory.resolve(GRAPH_CONFIG));
+    if (files.contains(directory.resolve(NAMESPACES).toString())) {
+      command.append(" --nodes=").append(directory.resolve(NAMESPACES));
+    }
+    return command.append(" --array-delimiter=U+001F --multiline-fields=true").toString();
+  }
+
+  public long getNodeCount() {
+    return nodeCount;
+  }
+
+  public long getRelationshipCount() {
+    return relationshipCount;
+  }
+
+  /**
+   * @return paths of the files written
+   */
+  public List<String> getFiles() {
+    return files;
+  }
+
+  /**
+   * Removes the runs left on disk.
+   */
+  public void close() throws IOException {
+    if (Files.exists(runsDirectory)) {
+      try (Stream<Path> runs = Files.list(runsDirectory)) {
+        for (Path run : runs.collect(Collectors.toList())) {
+          Files.deleteIfExists(run);
+        }
+      }
+      Files.deleteIfExists(runsDirectory);
+    }
+  }
+
+  private Writer openFile(String name) throws IOException {
+    Path file = directory.resolve(name);
+    files.add(file.toString());
+    return Files.newBufferedWriter(file, UTF_8);
+  }
+
+  private Path nextRun(String kind) {
+    return runsDirectory.resolve(kind + "-" + runCount++);
+  }
+
+  private static DataOutputStream openRun(Path run) throws IOException {
+    return new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run), 1 << 16));
+  }
+
+  /**
+   * Merges groups of runs into longer ones until there are few enough to be merged at once. The
+   * fragments are copied unchanged and in the same order.
+   */
+  private List<Path> reduce(List<Path> runs, String kind) throws IOException {
+    while (runs.size() > MAX_MERGE_RUNS) {
+      List<Path> merged = new ArrayList<>();
+      for (int i = 0; i < runs.size(); i += MAX_MERGE_RUNS) {
+        List<Path> group = runs.subList(i, Math.min(i + MAX_MERGE_RUNS, runs.size()));
+        Path run = nextRun(kind);
+        try (DataOutputStream out = openRun(run)) {
+          merge(group, fragments -> {
+            for (Fragment fragment : fragments) {
+              writeFragment(out, fragment);
+            }
+          });
+          out.writeBoolean(false);
+        }
+        for (Path done : group) {
+          Files.delete(done);
+        }
+        merged.add(run);
+      }
+      runs = merged;
+    }
+    return runs;
+  }
+
+  /**
+   * Reads the runs in key order. All the fragments with the same key are handled together, in
+   * the order of the runs they come from (which is the order they were parsed in).
+   */
+  private static void merge(List<Path> runs, FragmentGroupHandler handler) throws IOException {
+    PriorityQueue<RunReader> readers = new PriorityQueue<>(
+        Comparator.comparing((RunReader r) -> r.current, Fragment.BY_KEY)
+            .thenComparingInt(r -> r.index));
+    List<RunReader> opened = new ArrayList<>();
+    try {
+      for (int i = 0; i < runs.size(); i++) {
+        RunReader reader = new RunReader(runs.get(i), i);
+        opened.add(reader);
+        if (reader.next()) {
+          readers.add(reader);
+        }
+      }
+      List<Fragment> group = new ArrayList<>();
+      while (!readers.isEmpty()) {
+        RunReader reader = readers.poll();
+        if (!group.isEmpty() && Fragment.BY_KEY.compare(group.get(0), reader.current) != 0) {
+          handler.handle(group);
+          group = new ArrayList<>();
+        }
+        group.add(reader.current);
+        if (reader.next()) {
+          readers.add(reader);
+        }
+      }
+      if (!group.isEmpty()) {
+        handler.handle(group);
+      }
+    } finally {
+      for (RunReader reader : opened) {
+        reader.close();
+      }
+    }
+  }
+
+  private static void writeFragment(DataOutputStream out, Fragment fragment) throws IOException {
+    out.writeBoolean(true);
+    out.writeInt(fragment.key.length);
+    for (String part : fragment.key) {
+      writeText(out, part);
+    }
+    out.writeInt(fragment.labels.size());
+    for (String label : fragment.labels) {
+      writeText(out, label);
+    }
+    out.writeInt(fragment.props.size());
+    for (Entry<String, Object> prop : fragment.props.entrySet()) {
+      writeText(out, prop.getKey());
+      if (prop.getValue() instanceof List) {
+        List<?> values = (List<?>) prop.getValue();
+        out.writeByte(LIST);
+        out.writeInt(values.size());
+        for (Object value : values) {
+          writeValue(out, value);
+        }
+      } else {
+        writeValue(out, prop.getValue());
+      }
+    }
+  }
+
+  private static Fragment readFragment(DataInputStream in) throws IOException {
+    if (!in.readBoolean()) {
+      return null;
+    }
+    String[] key = new String[in.readInt()];
+    for (int i = 0; i < key.length; i++) {
+      key[i] = readText(in);
+    }
+    int labelCount = in.readInt();
+    Set<String> labels = new HashSet<>();
+    for (int i = 0; i < labelCount; i++) {
+      labels.add(readText(in));
+    }
+    int propCount = in.readInt();
+    Map<String, Object> props = new LinkedHashMap<>();
+    for (int i = 0; i < propCount; i++) {
+      String name = readText(in);
+      int type = in.readByte();
+      if (type == LIST) {
+        int size = in.readInt();
+        List<Object> values = new ArrayList<>(size);
+        for (int j = 0; j < size; j++) {
+          values.add(readValue(in, in.readByte()));
+        }
+        props.put(name, values);
+      } else {
+        props.put(name, readValue(in, type));
+      }
+    }
+    return new Fragment(key, labels, props);
+  }
+
+  private static void writeValue(DataOutputStream out, Object value) throws IOException {
+    int type = typeOf(value);
+    out.writeByte(type);
+    switch (type) {
+      case LONG:
+        out.writeLong((Long) value);
+        break;
+      case DOUBLE:
+        out.writeDouble((Double) value);
+        break;
+      case BOOLEAN:
+        out.writeBoolean((Boolean) value);
+        break;
+      default:
+        writeText(out, text(value));
+    }
+  }
+
+  private static Object readValue(DataInputStream in, int type) throws IOException {
+    switch (type) {
+      case LONG:
+        return in.readLong();
+      case DOUBLE:
+        return in.readDouble();
+      case BOOLEAN:
+        return in.readBoolean();
+      case DATE:
+        return LocalDate.parse(readText(in));
+      case LOCAL_DATETIME:
+        return LocalDateTime.parse(readText(in));
+      case DATETIME:
+        return ZonedDateTime.parse(readText(in));
+      case POINT:
+        return PointValue.parse(readText(in));
+      default:
+        return readText(in);
+    }
+  }
+
+  //writeUTF is limited to 64KB, which literals can easily exceed
+  private static void writeText(DataOutputStream out, String text) throws IOException {
+    byte[] bytes = text.getBytes(UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static String readText(DataInputStream in) throws IOException {
+    byte[] bytes = new byte[in.readInt()];
+    in.readFully(bytes);
+    return new String(bytes, UTF_8);
+  }
+
+  private static int typeOf(Object value) {
+    if (value instanceof Long) {
+      return LONG;
+    } else if (value instanceof Double) {
+      return DOUBLE;
+    } else if (value instanceof Boolean) {
+      return BOOLEAN;
+    } else if (value instanceof LocalDate) {
+      return DATE;
+    } else if (value instanceof LocalDateTime) {
+      return LOCAL_DATETIME;
+    } else if (value instanceof ZonedDateTime) {
+      return DATETIME;
+    } else if (value instanceof PointValue) {
+      return POINT;
+    }
+    return STRING;
+  }
+
+  /**
+   * @return the value as neo4j-admin expects it for its type (points as a map)
+   */
+  private static String text(Object value) {
+    if (value instanceof PointValue) {
+      PointValue point = (PointValue) value;
+      double[] coordinate = point.coordinate();
+      StringBuilder map = new StringBuilder("{x: ").append(coordinate[0])
+          .append(", y: ").append(coordinate[1]);
+      if (coordinate.length > 2) {
+        map.append(", z: ").append(coordinate[2]);
+      }
+      return map.append(", crs: '").append(point.getCRS().getType()).append("'}").toString();
+    }
+    return value.toString();
+  }
+
+  private static String csvValue(Object value) {
+    if (value instanceof List) {
+      return quote(((List<?>) value).stream().map(AdminImportFileWriter::text)
+          .collect(Collectors.joining(String.valueOf(ARRAY_DELIMITER))));
+    }
+    int type = typeOf(value);
+    return type == STRING || type == POINT ? quote(text(value)) : text(value);
+  }
+
+  private static String quote(String value) {
+    return '"' + value.replace("\"", "\"\"") + '"';
+  }
+
+  private static String header(String column) {
+    return column.indexOf(',') < 0 && column.indexOf('"') < 0 ? column : quote(column);
+  }
+
+  /**
+   * Types of the values of a property. A column can only have one type in the import files so if
+   * different types are found the values are imported as strings.
+   */
+  private class Column {
+
+    private final Set<Integer> types = new HashSet<>();
+    private boolean array = false;
+    private boolean single = false;
+
+    void add(Object value) {
+      if (value instanceof List) {
+        array = true;
+        ((List<?>) value).forEach(x -> types.add(typeOf(x)));
+      } else {
+        single = true;
+        types.add(typeOf(value));
+      }
+    }
+
+    String csvType(String name) {
+      if (array && single) {
+        loadWarnings.append("Property '").append(name).append("' has both single values and ")
+            .append("arrays of values, single values will be imported as arrays. ");
+      }
+      if (types.size() > 1) {
+        loadWarnings.append("Property '").append(name).append("' has values of different ")
+            .append("types, they will be imported as strings. ");
+      }
+      String type = types.size() == 1 ? CSV_TYPES[types.iterator().next()] : "string";
+      return array ? type + "[]" : type;
+    }
+  }
+
+  private static class Fragment {
+
+    static final Comparator<Fragment> BY_KEY = (a, b) -> {
+      for (int i = 0; i < a.key.length; i++) {
+        int compared = a.key[i].compareTo(b.key[i]);
+        if (compared != 0) {
+          return compared;
+        }
+      }
+      return 0;
+    };
+
+    final String[] key;
+    final Set<String> labels;
+    final Map<String, Object> props;
+
+    Fragment(String[] key, Set<String> labels, Map<String, Object> props) {
+      this.key = key;
+      this.labels = labels;
+      this.props = props;
+    }
+  }
+
+  private static class RunReader implements Closeable {
+
+    final int index;
+    private final DataInputStream in;
+    Fragment current;
+
+    RunReader(Path run, int index) throws IOException {
+      this.index = index;
+      this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(run), 1 << 16));
+    }
+
+    boolean next() throws IOException {
+      current = readFragment(in);
+      return current != null;
+    }
+
+    @Override
+    public void close() throws IOException {
+      in.close();
+    }
+  }
+
+  private interface FragmentGroupHandler {
+
+    void handle(List<Fragment> fragments) throws IOException;
+  }
+}
@@ -2,19 +2,39 @@ package n10s.rdf.load;
 
 import static n10s.graphconfig.GraphConfig.GRAPHCONF_VOC_URI_SHORTEN;
 
-import com.google.common.cache.Cache;
-import com.google.common.cache.CacheBuilder;
-
+import com.google.common.cache.CacheStats;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
 import java.lang.reflect.Array;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BiConsumer;
+import java.util.function.IntFunction;
 import java.util.stream.Collectors;
 import n10s.RDFToLPGStatementProcessor;
 import n10s.graphconfig.RDFParserConfig;
+import n10s.utils.NodeIdCache;
+import n10s.utils.NsPrefixMap;
+import n10s.utils.ResourceNodeLookup;
+import org.eclipse.collections.impl.list.mutable.primitive.IntArrayList;
+import org.eclipse.collections.impl.set.mutable.primitive.DoubleHashSet;
+import org.eclipse.collections.impl.set.mutable.primitive.IntHashSet;
+import org.eclipse.collections.impl.set.mutable.primitive.LongHashSet;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Literal;
 import org.eclipse.rdf4j.model.Statement;
 import org.eclipse.rdf4j.rio.RDFHandlerException;
 import org.neo4j.graphdb.*;
@@ -26,16 +46,148 @@ import org.neo4j.logging.Log;
 
 public class DirectStatementLoader extends RDFToLPGStatementProcessor {
 
-  private static final Label RESOURCE = Label.label("Resource");
-  private Cache<String, Node> nodeCache;
+  private PipelinedBatchWriter batchWriter;
+  private ExecutorService writerPool;
+  //resolved nodes are remembered across partial commits
+  private final NodeIdCache<String> nodeIdCache;
+  private AdaptiveCommitSizer commitSizer;
+  //set when other loaders are writing to the DB at the same time
+  private final boolean concurrentSources;
+  //attempts to write a batch conflicting with the ones from other sources
+  private static final int MAX_COMMIT_ATTEMPTS = 5;
+  private static final HashFunction URI_HASH = Hashing.murmur3_128();
+  //url the checkpoints are saved for, null when not checkpointing
+  private String checkpointUrl;
+  //key of the blank node ids, saved with the checkpoints so that a resumed import reuses it
+  private String bNodeScope;
+  //triples parsed before this point were imported already and are skipped
+  private long resumeFrom = 0;
+  //partial commits completed (including the ones before resuming)
+  private long batchesCommitted = 0;
+  //partial commits rolled back without aborting the import. The checkpoint stops moving after one
+  private volatile long batchesFailed = 0;
+  //hashes of the uris written so far by an append only import. Only these need looking up
+  private final LongHashSet writtenUris = new LongHashSet();
+  //what the parser has staged since the last partial commit
+  private ImportBatch staged = new ImportBatch();
 
   public DirectStatementLoader(GraphDatabaseService db, Transaction tx, RDFParserConfig conf,
       Log l) {
+    this(db, tx, conf, l, null, null);
+  }
+
+  /**
+   * Loader for one of several sources imported at the same time. The namespace prefixes and the
+   * node cache are shared by all the loaders, and partial commits that conflict with the ones from
+   * other loaders (same new resources, deadlocks) are retried.
+   */
+  public DirectStatementLoader(GraphDatabaseService db, Transaction tx, RDFParserConfig conf,
+      Log l, NsPrefixMap sharedNamespaces, NodeIdCache<String> sharedNodeCache) {
 
     super(db, tx, conf, l);
-    nodeCache = CacheBuilder.newBuilder()
-        .maximumSize(conf.getNodeCacheSize())
-        .build();
+    concurrentSources = sharedNodeCache != null;
+    nodeIdCache = concurrentSources ? sharedNodeCache
+        : NodeIdCache.forUris(conf.getNodeCacheSize());
+    if (sharedNamespaces != null) {
+      namespaces = sharedNamespaces;
+    }
+    if (conf.isPipelined() && !conf.isUseSingleTx()) {
+      batchWriter = new PipelinedBatchWriter(this::commitBatch);
+    }
+    if (conf.isAdaptiveCommit() && !conf.isUseSingleTx()) {
+      commitSizer = new AdaptiveCommitSizer(conf.getTargetCommitMillis(),
+          conf.getTargetCommitMemory(), conf.getCommitSize());
+    }
+  }
+
+  /**
+   * Saves a checkpoint with every partial commit so that the import can be resumed if it fails.
+   *
+   * @param url source of the triples
+   * @param from checkpoint the import is resumed from or {@code null} to start from the beginning
+   */
+  public void enableCheckpoints(String url, ImportCheckpoint from) {
+    if (!parserConfig.isUseSingleTx()) {
+      checkpointUrl = url;
+      bNodeScope = UUID.randomUUID().toString();
+      if (from != null) {
+        resumeFrom = from.getTriplesParsed();
+        batchesCommitted = from.getBatch();
+        if (from.getBNodeScope() != null) {
+          bNodeScope = from.getBNodeScope();
+        }
+      }
+    }
+  }
+
+  /**
+   * Blank nodes get ids derived from a key saved with the checkpoints. Resuming the import parses
+   * the source again with the same key, so the statements after the checkpoint link to the blank
+   * nodes created before it. Any other import of the source gets a new key and new blank nodes.
+   */
+  @Override
+  public String getBNodeScope() {
+    return bNodeScope;
+  }
+
+  @Override
+  protected boolean allocatesPrefixesInDB() {
+    return !parserConfig.isUseSingleTx();
+  }
+
+  @Override
+  public void handleStatement(Statement st) {
+    if (totalTriplesParsed < resumeFrom) {
+      //imported before the checkpoint
+      totalTriplesParsed++;
+      return;
+    }
+    super.handleStatement(st);
+  }
+
+  @Override
+  protected void addResource(String uri) {
+    staged.addResource(uri);
+  }
+
+  @Override
+  protected void setLabel(String subjectUri, String label) {
+    staged.addLabel(staged.addResource(subjectUri), label);
+  }
+
+  @Override
+  protected boolean setProp(String subjectUri, IRI propertyIRI, Literal propValueRaw) {
+    Object propValue = getObjectValue(propertyIRI, propValueRaw);
+    if (propValue != null) {
+      staged.addProperty(staged.addResource(subjectUri), handleIRI(propertyIRI, PROPERTY),
+          propValue, isMultivalued(propertyIRI));
+    }
+    return propValue != null;
+  }
+
+  @Override
+  protected void addStatement(Statement st) {
+    addRelationship(st.getSubject().stringValue(), st.getPredicate(),
+        st.getObject().stringValue());
+  }
+
+  @Override
+  protected void addRelationship(String subjectUri, IRI predicate, String objectUri) {
+    staged.addRelationship(staged.addResource(subjectUri), predicate,
+        staged.addResource(objectUri));
+  }
+
+  @Override
+  protected boolean addRelProp(String subjectUri, IRI relPredicate, String objectUri,
+      IRI predicate, Literal propValueRaw) {
+    Object propValue = getObjectValue(predicate, propValueRaw);
+    if (propValue != null) {
+      int rel = staged.addRelationship(staged.addResource(subjectUri), relPredicate,
+          staged.addResource(objectUri));
+      staged.addRelationshipProperty(rel, handleIRI(predicate, PROPERTY), propValue,
+          isMultivalued(predicate));
+    }
+    return propValue != null;
   }
 
   @Override
@@ -52,115 +204,325 @@ public class DirectStatementLoader extends RDFToLPGStatementProcessor {
       totalTriplesMapped += mappedTripleCounter;
     } else {
       periodicOperation();
+      if (batchWriter != null) {
+        close();
+        if (batchWriter.getFailure() != null) {
+          throw new PartialCommitException("Problems when running partial commit. Partial "
+              + "transaction rolled back. ", batchWriter.getFailure());
+        }
+      }
+      if (checkpointUrl != null && batchesFailed == 0) {
+        try (Transaction tempTransaction = graphdb.beginTx()) {
+          ImportCheckpoint.complete(tempTransaction, checkpointUrl, totalTriplesParsed,
+              batchesCommitted, bNodeScope);
+          tempTransaction.commit();
+        }
+      } else if (checkpointUrl != null) {
+        loadWarnings.append(batchesFailed).append(" partial commits failed. The checkpoint for ")
+            .append(checkpointUrl).append(" was kept at the last commit before the first ")
+            .append("failure. ");
+      }
     }
     log.debug("Import complete: " + totalTriplesMapped + "  triples ingested out of "
         + totalTriplesParsed + " parsed");
+    log.debug(nodeIdCache.toString());
   }
 
   public Integer runPartialTx(Transaction inThreadTransaction) {
+    return runPartialTx(inThreadTransaction, takeBatch());
+  }
 
-    try {
-      for (Map.Entry<String, Set<String>> entry : resourceLabels.entrySet()) {
-        try {
-          final Node node;
-          node = nodeCache.get(entry.getKey(), () -> {
-            Node node1 = inThreadTransaction.findNode(RESOURCE, "uri", entry.getKey());
-            if (node1 == null) {
-              node1 = inThreadTransaction.createNode(RESOURCE);
-              node1.setProperty("uri", entry.getKey());
-            }
-            return node1;
-          });
+  private Integer runPartialTx(Transaction inThreadTransaction, ImportBatch batch) {
 
-          entry.getValue().forEach(l -> node.addLabel(Label.label(l)));
-          resourceProps.get(entry.getKey()).forEach((k, v) -> setProperty(node,k,v));
-        } catch (ExecutionException e) {
-          e.printStackTrace();
-        }
-      }
+    writeBatch(inThreadTransaction, batch);
+    mappedTripleCounter = batch.getTripleCount();
 
-      for (Statement st : statements) {
-        try {
+    Integer result = 0;
+    if (parserConfig.getGraphConf().getHandleVocabUris() == GRAPHCONF_VOC_URI_SHORTEN) {
+      result = namespaces.partialRefresh(inThreadTransaction);
+    }
 
-          final Node fromNode = nodeCache
-                  .get(st.getSubject().stringValue(), () -> {  //throws AnyException
-                    return inThreadTransaction.findNode(RESOURCE, "uri", st.getSubject().stringValue());
-                  });
-
-          final Node toNode = nodeCache
-                  .get(st.getObject().stringValue(), () -> {  //throws AnyException
-                    return inThreadTransaction.findNode(RESOURCE, "uri", st.getObject().stringValue());
-                  });
-
-          // check if the rel is already present. If so, don't recreate.
-          // explore the node with the lowest degree
-          boolean found = false;
-          Relationship theRel = null;
-          if (fromNode
-                  .getDegree(RelationshipType.withName(handleIRI(st.getPredicate(), RELATIONSHIP)),
-                          Direction.OUTGOING) <
-                  toNode.getDegree(RelationshipType.withName(handleIRI(st.getPredicate(), RELATIONSHIP)),
-                          Direction.INCOMING)) {
-            for (Relationship rel : fromNode
-                    .getRelationships(Direction.OUTGOING,
-                            RelationshipType.withName(handleIRI(st.getPredicate(), RELATIONSHIP)))) {
-              if (rel.getEndNode().equals(toNode)) {
-                found = true;
-                theRel = rel;
-                break;
-              }
-            }
-          } else {
-            for (Relationship rel : toNode
-                    .getRelationships(Direction.INCOMING,
-                            RelationshipType.withName(handleIRI(st.getPredicate(), RELATIONSHIP)))) {
-              if (rel.getStartNode().equals(fromNode)) {
-                found = true;
-                theRel = rel;
-                break;
-              }
-            }
-          }
+    return result;
+  }
 
-          if (!found) {
-            theRel = fromNode.createRelationshipTo(
-                    toNode,
-                    RelationshipType.withName(handleIRI(st.getPredicate(), RELATIONSHIP)));
-          }
+  /**
+   * Detaches the data staged so far from the parser and resolves the relationship types it uses,
+   * so that it can be written independently (potentially from another thread).
+   */
+  ImportBatch takeBatch() {
+    ImportBatch batch = staged;
+    batch.take(mappedTripleCounter, totalTriplesParsed, this::relationshipTypeFor);
+    staged = new ImportBatch();
+    return batch;
+  }
 
-          Map<String, Object> relProps = this.relProps.get(st);
-          if (relProps != null) {
-            for (Entry<String, Object> entry : relProps.entrySet()) {
+  void writeBatch(Transaction inThreadTransaction, ImportBatch batch) {
+    batch.resetCreated();
+    // relationship endpoints are always staged as resources so they're all resolved here
+    IntArrayList resources = new IntArrayList(batch.getResourceCount());
+    for (int id = 0; id < batch.getResourceCount(); id++) {
+      resources.add(id);
+    }
+    IntArrayList rels = new IntArrayList(batch.getRelationshipCount());
+    for (int rel = 0; rel < batch.getRelationshipCount(); rel++) {
+      rels.add(rel);
+    }
+    Map<String, Node> nodes = writeResources(inThreadTransaction, batch, resources);
+    writeRelationships(inThreadTransaction, batch, rels, nodes, new IntHashSet());
+  }
 
-              setProperty(theRel, entry.getKey(), entry.getValue());
-            }
-          }
+  private Map<String, Node> writeResources(Transaction inThreadTransaction, ImportBatch batch,
+      IntArrayList resources) {
+    List<String> uris = new ArrayList<>(resources.size());
+    resources.forEach(id -> uris.add(batch.uri(id)));
+    Map<String, Node> nodes = parserConfig.isAppendOnly()
+        ? createNodes(inThreadTransaction, batch, uris)
+        : ResourceNodeLookup.findOrCreateNodes(inThreadTransaction, uris, nodeIdCache,
+            (uri, node) -> batch.created(uri));
+    resources.forEach(id -> {
+      final Node node = nodes.get(batch.uri(id));
+      batch.forEachLabel(id, l -> node.addLabel(labelFor(l)));
+      batch.forEachProperty(id, (k, v) -> batch.discard(setProperty(node, k, v)));
+    });
+    return nodes;
+  }
 
-        } catch (ExecutionException e) {
-          e.printStackTrace();
+  /**
+   * Append only imports trust that resources are not in the DB yet. Nodes are created straight
+   * away for the uris this import has not written before, the rest (and any uri sharing a hash
+   * with one of them) go through the usual find or create.
+   */
+  private Map<String, Node> createNodes(Transaction inThreadTransaction, ImportBatch batch,
+      Collection<String> uris) {
+    List<String> written = new ArrayList<>();
+    Map<String, Node> nodes = new HashMap<>();
+    for (String uri : uris) {
+      boolean isNew;
+      synchronized (writtenUris) {
+        isNew = writtenUris.add(URI_HASH.hashString(uri, StandardCharsets.UTF_8).asLong());
+      }
+      if (isNew) {
+        Node node = ResourceNodeLookup.createNode(inThreadTransaction, uri, nodeIdCache);
+        batch.created(uri);
+        nodes.put(uri, node);
+      } else {
+        written.add(uri);
+      }
+    }
+    nodes.putAll(ResourceNodeLookup.findOrCreateNodes(inThreadTransaction, written, nodeIdCache,
+        (uri, node) -> batch.created(uri)));
+    return nodes;
+  }
+
+  /**
+   * @param rels indexes of the relationships in the batch to write
+   * @param sharedEndpoints ids of the endpoints other concurrent writers also link. They are
+   * locked upfront and always in the same (element id) order so that two writers can never wait on
+   * each other. The rest of the endpoints are only written by this writer and are locked as usual
+   */
+  private void writeRelationships(Transaction inThreadTransaction, ImportBatch batch,
+      IntArrayList rels, Map<String, Node> nodes, IntHashSet sharedEndpoints) {
+
+    if (!sharedEndpoints.isEmpty()) {
+      TreeMap<String, Node> endpoints = new TreeMap<>();
+      sharedEndpoints.forEach(id -> {
+        Node node = nodes.get(batch.uri(id));
+        if (node != null) {
+          endpoints.put(node.getElementId(), node);
         }
+      });
+      endpoints.values().forEach(inThreadTransaction::acquireWriteLock);
+    }
+
+    rels.forEach(rel -> {
+      final int from = batch.subject(rel);
+      final int to = batch.object(rel);
+      final Node fromNode = nodes.get(batch.uri(from));
+      final Node toNode = nodes.get(batch.uri(to));
+
+      final RelationshipType relType = batch.relType(rel);
+
+      // check if the rel is already present. If so, don't recreate.
+      Relationship theRel = null;
+      if (!isNewRelationship(batch, from, to, relType)) {
+        theRel = findRelationship(fromNode, toNode, relType);
+      }
+
+      if (theRel == null) {
+        theRel = fromNode.createRelationshipTo(toNode, relType);
       }
 
+      final Relationship written = theRel;
+      batch.forEachRelationshipProperty(rel,
+          (k, v) -> batch.discard(setProperty(written, k, v)));
+    });
+  }
 
-      Integer result = 0;
-      if (parserConfig.getGraphConf().getHandleVocabUris() == GRAPHCONF_VOC_URI_SHORTEN) {
-        result = namespaces.partialRefresh(inThreadTransaction);
+  /**
+   * A relationship from or to a node created while writing the batch can only exist if the batch
+   * created it, so instead of looking for it in the DB it's checked against the ones the batch has
+   * created so far. Only nodes created by this same batch count: relationships between nodes
+   * created in earlier batches (or pre-existing ones) are still looked up scanning the
+   * relationships of one of their ends.
+   * Everything is looked up when other sources are imported at the same time, as they could link
+   * the new nodes once committed, and when the writes are partitioned, as the nodes are then
+   * committed before the relationships are written in separate transactions.
+   */
+  private boolean isNewRelationship(ImportBatch batch, int from, int to,
+      RelationshipType relType) {
+    if (concurrentSources || isPartitioned()
+        || !batch.isCreated(from) && !batch.isCreated(to)) {
+      return false;
+    }
+    return batch.createdRelationships.add(List.of(from, to, relType.name()));
+  }
+
+  /**
+   * @return the relationship between the nodes or {@code null} if there's none. The node with
+   * the lowest degree is explored
+   */
+  private static Relationship findRelationship(Node fromNode, Node toNode,
+      RelationshipType relType) {
+    if (fromNode.getDegree(relType, Direction.OUTGOING) <
+        toNode.getDegree(relType, Direction.INCOMING)) {
+      for (Relationship rel : fromNode.getRelationships(Direction.OUTGOING, relType)) {
+        if (rel.getEndNode().equals(toNode)) {
+          return rel;
+        }
       }
+    } else {
+      for (Relationship rel : toNode.getRelationships(Direction.INCOMING, relType)) {
+        if (rel.getStartNode().equals(fromNode)) {
+          return rel;
+        }
+      }
+    }
+    return null;
+  }
+
+  private static IntHashSet endpoints(ImportBatch batch, IntArrayList rels) {
+    IntHashSet ids = new IntHashSet();
+    rels.forEach(rel -> {
+      ids.add(batch.subject(rel));
+      ids.add(batch.object(rel));
+    });
+    return ids;
+  }
 
-      return result;
+  private static List<String> endpointUris(ImportBatch batch, IntArrayList rels) {
+    List<String> uris = new ArrayList<>();
+    endpoints(batch, rels).forEach(id -> uris.add(batch.uri(id)));
+    return uris;
+  }
+
+  /**
+   * Writes a batch using writerThreads concurrent transactions. Resources are hash-partitioned by
+   * uri so no two partitions create or update the same node. Once all nodes are committed,
+   * relationships are written partitioned by subject.
+   * <p>
+   * A partitioned batch is not atomic: the nodes are committed before the relationships, and each
+   * partition in its own transaction. If a partition fails the ones that succeeded stay
+   * committed. Writing a batch is idempotent, so importing the same data again (or resuming from
+   * the last checkpoint) completes it.
+   */
+  void writeBatchPartitioned(ImportBatch batch) {
+    batch.resetCreated();
+    int partitionCount = parserConfig.getWriterThreads();
+    runPartitions(partition(batch.getResourceCount(), id -> batch.uri(id), partitionCount),
+        (partitionTx, ids) -> writeResources(partitionTx, batch, ids));
+    List<IntArrayList> relPartitions = partition(batch.getRelationshipCount(),
+        rel -> batch.uri(batch.subject(rel)), partitionCount);
+    IntHashSet sharedEndpoints = sharedEndpoints(batch, relPartitions);
+    runPartitions(relPartitions,
+        (partitionTx, rels) -> writeRelationships(partitionTx, batch, rels,
+            ResourceNodeLookup.findNodes(partitionTx, endpointUris(batch, rels), nodeIdCache),
+            sharedEndpoints));
+  }
+
+  /**
+   * @return ids of the nodes linked by more than one partition, the only ones two writers can
+   * contend for
+   */
+  private static IntHashSet sharedEndpoints(ImportBatch batch, List<IntArrayList> partitions) {
+    int[] firstPartition = new int[batch.getResourceCount()];
+    Arrays.fill(firstPartition, -1);
+    IntHashSet shared = new IntHashSet();
+    for (int i = 0; i < partitions.size(); i++) {
+      final int partition = i;
+      endpoints(batch, partitions.get(i)).forEach(id -> {
+        if (firstPartition[id] == -1) {
+          firstPartition[id] = partition;
+        } else if (firstPartition[id] != partition) {
+          shared.add(id);
+        }
+      });
+    }
+    return shared;
+  }
+
+  /**
+   * Hash-partitions the elements of the batch (resource ids or relationship indexes) by uri
+   */
+  private static List<IntArrayList> partition(int elementCount, IntFunction<String> key,
+      int partitionCount) {
+    List<IntArrayList> partitions = new ArrayList<>(partitionCount);
+    for (int i = 0; i < partitionCount; i++) {
+      partitions.add(new IntArrayList());
+    }
+    for (int element = 0; element < elementCount; element++) {
+      partitions.get(Math.floorMod(key.apply(element).hashCode(), partitionCount)).add(element);
+    }
+    return partitions;
+  }
 
-    } finally {
-      statements.clear();
-      resourceLabels.clear();
-      resourceProps.clear();
-      relProps.clear();
-      nodeCache.invalidateAll();
+  private void runPartitions(List<IntArrayList> partitions,
+      BiConsumer<Transaction, IntArrayList> partitionWriter) {
+    if (writerPool == null) {
+      writerPool = Executors.newFixedThreadPool(parserConfig.getWriterThreads(), r -> {
+        Thread t = new Thread(r, "n10s-partition-writer");
+        t.setDaemon(true);
+        return t;
+      });
+    }
+    List<Future<?>> pending = new ArrayList<>();
+    for (IntArrayList partition : partitions) {
+      if (!partition.isEmpty()) {
+        pending.add(writerPool.submit(() -> {
+          try (Transaction partitionTx = graphdb.beginTx()) {
+            partitionWriter.accept(partitionTx, partition);
+            partitionTx.commit();
+          }
+        }));
+      }
+    }
+    Exception failure = null;
+    for (Future<?> partitionResult : pending) {
+      try {
+        partitionResult.get();
+      } catch (ExecutionException e) {
+        if (failure == null) {
+          failure = e;
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        failure = e;
+      }
+    }
+    if (failure != null) {
+      throw new PartialCommitException("Problems when running a partitioned partial commit. ",
+          failure);
     }
   }
 
-  private void setProperty(Entity node, String k, Object v) {
+  /**
+   * @return the number of values discarded because of datatype heterogeneity
+   */
+  private int setProperty(Entity node, String k, Object v) {
     if (v instanceof List) {
       Object currentValue = node.getProperty(k, null);
+      if (mergeIntoArray(node, k, currentValue, (List<?>) v)) {
+        return 0;
+      }
       List<Object> newList = new ArrayList<>();
       if (currentValue != null) {
         //initialise with existing values
@@ -192,9 +554,9 @@ public class DirectStatementLoader extends RDFToLPGStatementProcessor {
       if(!discardedItems.isEmpty()){
         this.datatypeConflictFound |= true;
         if (getParserConfig().isStrictDataTypeCheck()){
-          this.mappedTripleCounter-= discardedItems.size();
           log.warn("The following values for property '" + k + "' have been discarded because of datatype heterogeneity (previously stored values are of type " + currentDatatype + ") : " + discardedItems );
           node.setProperty(k, toPropertyValue(newList.stream().collect(Collectors.toSet())));
+          return discardedItems.size();
         } else {
           //default all to string if they're not already return defaultToString(it.iterator());
           newList.addAll(discardedItems);
@@ -208,12 +570,118 @@ public class DirectStatementLoader extends RDFToLPGStatementProcessor {
     } else {
       node.setProperty(k, v);
     }
+    return 0;
   }
 
 
+  /**
+   * Merges the values of a multivalued property staged in a batch into the array stored, working
+   * on primitive arrays for the most common types (long, double and string values) instead of
+   * boxed lists. The property is only written when there are new values to add.
+   *
+   * @return false when the values are of a different type (or of more than one type) than the
+   * ones stored, which is left to the general path
+   */
+  private static boolean mergeIntoArray(Entity entity, String k, Object currentValue,
+      List<?> values) {
+    Object first = values.get(0);
+    if (first instanceof Long && (currentValue == null || currentValue instanceof long[])) {
+      long[] current = currentValue == null ? new long[0] : (long[]) currentValue;
+      LongHashSet distinct = LongHashSet.newSetWith(current);
+      long[] merged = Arrays.copyOf(current, current.length + values.size());
+      int size = current.length;
+      for (Object value : values) {
+        if (!(value instanceof Long)) {
+          return false;
+        }
+        if (distinct.add((Long) value)) {
+          merged[size++] = (Long) value;
+        }
+      }
+      if (currentValue == null || size > current.length) {
+        entity.setProperty(k, Arrays.copyOf(merged, size));
+      }
+      return true;
+    } else if (first instanceof Double
+        && (currentValue == null || currentValue instanceof double[])) {
+      double[] current = currentValue == null ? new double[0] : (double[]) currentValue;
+      DoubleHashSet distinct = DoubleHashSet.newSetWith(current);
+      double[] merged = Arrays.copyOf(current, current.length + values.size());
+      int size = current.length;
+      for (Object value : values) {
+        if (!(value instanceof Double)) {
+          return false;
+        }
+        if (distinct.add((Double) value)) {
+          merged[size++] = (Double) value;
+        }
+      }
+      if (currentValue == null || size > current.length) {
+        entity.setProperty(k, Arrays.copyOf(merged, size));
+      }
+      return true;
+    } else if (first instanceof String
+        && (currentValue == null || currentValue instanceof String[])) {
+      String[] current = currentValue == null ? new String[0] : (String[]) currentValue;
+      Set<String> distinct = new HashSet<>(Arrays.asList(current));
+      String[] merged = Arrays.copyOf(current, current.length + values.size());
+      int size = current.length;
+      for (Object value : values) {
+        if (!(value instanceof String)) {
+          return false;
+        }
+        if (distinct.add((String) value)) {
+          merged[size++] = (String) value;
+        }
+      }
+      if (currentValue == null || size > current.length) {
+        entity.setProperty(k, Arrays.copyOf(merged, size));
+      }
+      return true;
+    }
+    return false;
+  }
+
   @Override
   protected void periodicOperation() {
 
+    if (batchWriter != null) {
+      submitToWriter();
+      return;
+    }
+
+    if (isPartitioned() || commitSizer != null || concurrentSources) {
+      ImportBatch batch = takeBatch();
+      syncNamespaces();
+      commitBatch(batch);
+      mappedTripleCounter = 0;
+      return;
+    }
+
+    syncNamespaces();
+
+    try (Transaction tempTransaction = graphdb.beginTx()) {
+      ImportBatch batch = takeBatch();
+      this.runPartialTx(tempTransaction, batch);
+      saveCheckpoint(tempTransaction, totalTriplesParsed);
+      tempTransaction.commit();
+      log.debug("partial commit: " + mappedTripleCounter + " triples ingested. Total so far: "
+          + totalTriplesMapped);
+      totalTriplesMapped += mappedTripleCounter;
+      batchesCommitted++;
+    } catch (Exception e) {
+      log.error("Problems when running partial commit. Partial transaction rolled back. "  + mappedTripleCounter + " triples lost.", e);
+      batchesFailed++;
+      if (getParserConfig().isAbortOnError()){
+        throw new PartialCommitException("Problems when running partial commit. Partial transaction rolled back. " , e);
+      }
+    }
+
+    mappedTripleCounter = 0;
+
+  }
+
+  private void syncNamespaces() {
     if (parserConfig.getGraphConf().getHandleVocabUris() == GRAPHCONF_VOC_URI_SHORTEN) {
       try (Transaction tempTransaction = graphdb.beginTx()) {
         namespaces.partialRefresh(tempTransaction);
@@ -226,22 +694,134 @@ public class DirectStatementLoader extends RDFToLPGStatementProcessor {
         }
       }
     }
+  }
 
-    try (Transaction tempTransaction = graphdb.beginTx()) {
-      this.runPartialTx(tempTransaction);
-      tempTransaction.commit();
-      log.debug("partial commit: " + mappedTripleCounter + " triples ingested. Total so far: "
+  private void submitToWriter() {
+    if (batchWriter.getFailure() != null) {
+      throw new PartialCommitException("Problems when running partial commit. Partial "
+          + "transaction rolled back. ", batchWriter.getFailure());
+    }
+    // the batch is taken before syncing so that prefixes added while resolving its
+    // relationship types are persisted before it gets written
+    ImportBatch batch = takeBatch();
+    syncNamespaces();
+    try {
+      batchWriter.submit(batch);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new PartialCommitException("Import interrupted while waiting for partial commit. ", e);
+    }
+    mappedTripleCounter = 0;
+  }
+
+  private boolean isPartitioned() {
+    return parserConfig.getWriterThreads() > 1 && !parserConfig.isUseSingleTx();
+  }
+
+  /**
+   * Runs on the writer thread when the import is pipelined
+   */
+  private void commitBatch(ImportBatch batch) {
+    try {
+      long start = System.currentTimeMillis();
+      for (int attempt = 1; ; attempt++) {
+        long discarded = batch.getDiscarded();
+        try {
+          if (isPartitioned()) {
+            writeBatchPartitioned(batch);
+            if (checkpointUrl != null) {
+              try (Transaction tempTransaction = graphdb.beginTx()) {
+                saveCheckpoint(tempTransaction, batch.parsedUpTo);
+                tempTransaction.commit();
+              }
+            }
+          } else {
+            try (Transaction tempTransaction = graphdb.beginTx()) {
+              writeBatch(tempTransaction, batch);
+              saveCheckpoint(tempTransaction, batch.parsedUpTo);
+              tempTransaction.commit();
+            }
+          }
+          batchesCommitted++;
+          break;
+        } catch (RuntimeException e) {
+          if (!concurrentSources || attempt == MAX_COMMIT_ATTEMPTS || !isConflict(e)) {
+            throw e;
+          }
+          //writing a batch is idempotent, it can be safely written again
+          batch.setDiscarded(discarded);
+          log.debug("partial commit conflicted with a concurrent import. Retrying ("
+              + attempt + ")");
+        }
+      }
+      totalTriplesMapped += batch.getTripleCount();
+      log.debug("partial commit: " + batch.getTripleCount() + " triples ingested. Total so far: "
           + totalTriplesMapped);
-      totalTriplesMapped += mappedTripleCounter;
+      if (commitSizer != null) {
+        parserConfig.setCommitSize(commitSizer.nextCommitSize(parserConfig.getCommitSize(),
+            batch.getTripleCount(), batch.estimateSize(), System.currentTimeMillis() - start));
+        log.debug("commit size set to " + parserConfig.getCommitSize());
+      }
     } catch (Exception e) {
-      log.error("Problems when running partial commit. Partial transaction rolled back. "  + mappedTripleCounter + " triples lost.", e);
+      log.error("Problems when running partial commit. Partial transaction rolled back. "  + batch.getTripleCount() + " triples lost.", e);
+      batchesFailed++;
       if (getParserConfig().isAbortOnError()){
         throw new PartialCommitException("Problems when running partial commit. Partial transaction rolled back. " , e);
       }
     }
+  }
 
-    mappedTripleCounter = 0;
+  /**
+   * Saved in the same transaction as the partial commit when possible so that they can't get out
+   * of step. Partitioned commits save it right after all partitions have been committed.
+   */
+  private void saveCheckpoint(Transaction tx, long parsedUpTo) {
+    //resuming from a checkpoint past a failed commit would skip its triples
+    if (checkpointUrl != null && batchesFailed == 0) {
+      ImportCheckpoint.save(tx, checkpointUrl, parsedUpTo, batchesCommitted + 1, bNodeScope);
+    }
+  }
 
+  private static boolean isConflict(Throwable e) {
+    for (Throwable t = e; t != null; t = t.getCause()) {
+      if (t instanceof TransientFailureException || t instanceof ConstraintViolationException) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return min/max/last size of the partial commits (and number of commits) when the commit size
+   * is adaptive, {@code null} otherwise
+   */
+  public Map<String, Object> getBatchSizes() {
+    return commitSizer == null ? null : commitSizer.getSummary();
+  }
+
+  /**
+   * @return hit, miss and eviction counts of the node cache (shared with the other loaders when
+   * importing several sources at the same time)
+   */
+  public CacheStats getNodeCacheStats() {
+    return nodeIdCache.getStats();
+  }
+
+  /**
+   * Waits for the pending partial commits of a pipelined import to complete. Needs to be invoked
+   * when parsing terminates abruptly (endRDF is not called then). No-op for non pipelined imports.
+   */
+  public void close() {
+    if (batchWriter != null) {
+      try {
+        batchWriter.close();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    if (writerPool != null) {
+      writerPool.shutdown();
+    }
   }
 
 }
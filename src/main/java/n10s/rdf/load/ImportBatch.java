@@ -0,0 +1,411 @@
+package n10s.rdf.load;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import org.eclipse.rdf4j.model.IRI;
+import org.neo4j.graphdb.RelationshipType;
+
+/**
+ * Everything staged by the parser between two partial commits. Once taken, a batch is no longer
+ * touched by the parser so it can be written to the DB from a different thread.
+ * <p>
+ * The data is dictionary encoded to keep the heap taken by a batch low. Every uri staged is a
+ * resource and gets an int id (its position in the uri dictionary). Relationships are kept as
+ * (subject id, predicate id, object id) triples in a single int array, so no statement or IRI
+ * objects are created for them. Labels and properties live in per-resource slots: arrays of
+ * label ids, property name ids and values, indexed by resource id. Property names, labels and
+ * predicates are interned too, there are few of them in a batch.
+ */
+class ImportBatch {
+
+  private static final int INITIAL_CAPACITY = 1024;
+  private static final int[] NO_IDS = new int[0];
+  private static final Object[] NO_VALUES = new Object[0];
+
+  //uri of each resource, by id
+  private String[] uris = new String[INITIAL_CAPACITY];
+  private int resourceCount = 0;
+  //open addressing table of resource ids (plus one, 0 is an empty bucket) hashed by uri
+  private int[] uriTable = new int[2 * INITIAL_CAPACITY];
+  //per resource slots, null until the resource gets a label or a property
+  private int[][] labelIds = new int[INITIAL_CAPACITY][];
+  private int[][] propertyKeys = new int[INITIAL_CAPACITY][];
+  private Object[][] propertyValues = new Object[INITIAL_CAPACITY][];
+
+  //subject, predicate and object ids of each relationship
+  private int[] triples = new int[3 * INITIAL_CAPACITY];
+  private int relationshipCount = 0;
+  //open addressing table of relationship indexes (plus one) hashed by triple, so that a
+  //relationship staged twice is written once
+  private int[] tripleTable = new int[2 * INITIAL_CAPACITY];
+  //relationship property slots (RDF-star statements about relationships), created when needed
+  private int[][] relPropertyKeys;
+  private Object[][] relPropertyValues;
+
+  private final Dictionary<String> labels = new Dictionary<>();
+  private final Dictionary<String> propertyNames = new Dictionary<>();
+  private final Dictionary<IRI> predicates = new Dictionary<>();
+  //relationship types are resolved on the parser thread so that any new namespace prefix is
+  //registered before the batch's namespace sync
+  private RelationshipType[] relTypes;
+
+  private long tripleCount;
+  //triples parsed from the input (imported or not) up to the end of this batch
+  long parsedUpTo;
+  //updated concurrently when the batch is written by a partitioned writer
+  private final AtomicLong discardedTriples = new AtomicLong();
+  //nodes created while writing the batch (flags by resource id) and relationships (from id, to id,
+  //type) created from or to them. Partitions set the flags of different resources
+  private boolean[] created;
+  final Set<List<Object>> createdRelationships = ConcurrentHashMap.newKeySet();
+
+  /**
+   * @return the id of the resource, which is staged if it wasn't already
+   */
+  int addResource(String uri) {
+    int bucket = bucket(uri.hashCode(), uriTable.length);
+    while (uriTable[bucket] != 0) {
+      int id = uriTable[bucket] - 1;
+      if (uris[id].equals(uri)) {
+        return id;
+      }
+      bucket = (bucket + 1) & (uriTable.length - 1);
+    }
+    if (resourceCount == uris.length) {
+      int capacity = 2 * uris.length;
+      uris = Arrays.copyOf(uris, capacity);
+      labelIds = Arrays.copyOf(labelIds, capacity);
+      propertyKeys = Arrays.copyOf(propertyKeys, capacity);
+      propertyValues = Arrays.copyOf(propertyValues, capacity);
+    }
+    int id = resourceCount++;
+    uris[id] = uri;
+    uriTable[bucket] = id + 1;
+    if (2 * resourceCount > uriTable.length) {
+      uriTable = new int[2 * uriTable.length];
+      for (int i = 0; i < resourceCount; i++) {
+        uriTable[freeBucket(uriTable, uris[i].hashCode())] = i + 1;
+      }
+    }
+    return id;
+  }
+
+  void addLabel(int resource, String label) {
+    int labelId = labels.idOf(label);
+    int[] current = labelIds[resource] == null ? NO_IDS : labelIds[resource];
+    for (int id : current) {
+      if (id == labelId) {
+        return;
+      }
+    }
+    int[] extended = Arrays.copyOf(current, current.length + 1);
+    extended[current.length] = labelId;
+    labelIds[resource] = extended;
+  }
+
+  /**
+   * @param multivalued whether the value is added to the ones staged for the property (kept in a
+   * list) or replaces them
+   */
+  void addProperty(int resource, String name, Object value, boolean multivalued) {
+    addToSlot(propertyKeys, propertyValues, resource, propertyNames.idOf(name), value,
+        multivalued);
+  }
+
+  /**
+   * @return the index of the relationship, which is staged if it wasn't already
+   */
+  int addRelationship(int subject, IRI predicate, int object) {
+    int predicateId = predicates.idOf(predicate);
+    int bucket = bucket(tripleHash(subject, predicateId, object), tripleTable.length);
+    while (tripleTable[bucket] != 0) {
+      int rel = tripleTable[bucket] - 1;
+      if (triples[3 * rel] == subject && triples[3 * rel + 1] == predicateId
+          && triples[3 * rel + 2] == object) {
+        return rel;
+      }
+      bucket = (bucket + 1) & (tripleTable.length - 1);
+    }
+    if (3 * relationshipCount == triples.length) {
+      triples = Arrays.copyOf(triples, 2 * triples.length);
+      if (relPropertyKeys != null) {
+        relPropertyKeys = Arrays.copyOf(relPropertyKeys, triples.length / 3);
+        relPropertyValues = Arrays.copyOf(relPropertyValues, triples.length / 3);
+      }
+    }
+    int rel = relationshipCount++;
+    triples[3 * rel] = subject;
+    triples[3 * rel + 1] = predicateId;
+    triples[3 * rel + 2] = object;
+    tripleTable[bucket] = rel + 1;
+    if (2 * relationshipCount > tripleTable.length) {
+      tripleTable = new int[2 * tripleTable.length];
+      for (int i = 0; i < relationshipCount; i++) {
+        tripleTable[freeBucket(tripleTable,
+            tripleHash(triples[3 * i], triples[3 * i + 1], triples[3 * i + 2]))] = i + 1;
+      }
+    }
+    return rel;
+  }
+
+  void addRelationshipProperty(int rel, String name, Object value, boolean multivalued) {
+    if (relPropertyKeys == null) {
+      relPropertyKeys = new int[triples.length / 3][];
+      relPropertyValues = new Object[triples.length / 3][];
+    }
+    addToSlot(relPropertyKeys, relPropertyValues, rel, propertyNames.idOf(name), value,
+        multivalued);
+  }
+
+  /**
+   * Slots hold exactly as many keys as the element has properties, there are seldom more than a
+   * handful
+   */
+  private static void addToSlot(int[][] keySlots, Object[][] valueSlots, int index, int key,
+      Object value, boolean multivalued) {
+    int[] keys = keySlots[index] == null ? NO_IDS : keySlots[index];
+    Object[] values = valueSlots[index] == null ? NO_VALUES : valueSlots[index];
+    for (int i = 0; i < keys.length; i++) {
+      if (keys[i] == key) {
+        values[i] = multivalued ? addValue(values[i], value) : value;
+        return;
+      }
+    }
+    keys = Arrays.copyOf(keys, keys.length + 1);
+    values = Arrays.copyOf(values, values.length + 1);
+    keys[keys.length - 1] = key;
+    values[values.length - 1] = multivalued ? addValue(null, value) : value;
+    keySlots[index] = keys;
+    valueSlots[index] = values;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Object addValue(Object staged, Object value) {
+    List<Object> values = staged == null ? new ArrayList<>() : (List<Object>) staged;
+    values.add(value);
+    return values;
+  }
+
+  /**
+   * Closes the batch to the parser.
+   *
+   * @param tripleCount triples mapped into the batch
+   * @param parsedUpTo triples parsed from the input up to the end of the batch
+   * @param relTypeFor resolves the relationship type of a predicate
+   */
+  void take(long tripleCount, long parsedUpTo, Function<IRI, RelationshipType> relTypeFor) {
+    this.tripleCount = tripleCount;
+    this.parsedUpTo = parsedUpTo;
+    relTypes = new RelationshipType[predicates.size()];
+    for (int i = 0; i < relTypes.length; i++) {
+      relTypes[i] = relTypeFor.apply(predicates.get(i));
+    }
+  }
+
+  int getResourceCount() {
+    return resourceCount;
+  }
+
+  String uri(int resource) {
+    return uris[resource];
+  }
+
+  /**
+   * @return the id of a staged resource, -1 if it's not in the batch
+   */
+  int idOf(String uri) {
+    int bucket = bucket(uri.hashCode(), uriTable.length);
+    while (uriTable[bucket] != 0) {
+      int id = uriTable[bucket] - 1;
+      if (uris[id].equals(uri)) {
+        return id;
+      }
+      bucket = (bucket + 1) & (uriTable.length - 1);
+    }
+    return -1;
+  }
+
+  /**
+   * Passes the labels of a resource to the consumer
+   */
+  void forEachLabel(int resource, Consumer<String> consumer) {
+    if (labelIds[resource] != null) {
+      for (int id : labelIds[resource]) {
+        consumer.accept(labels.get(id));
+      }
+    }
+  }
+
+  /**
+   * Passes the name and the value (a list for multivalued properties) of each property of a
+   * resource to the consumer
+   */
+  void forEachProperty(int resource, BiConsumer<String, Object> consumer) {
+    forEachProperty(propertyKeys[resource], propertyValues[resource], consumer);
+  }
+
+  void forEachRelationshipProperty(int rel,
+      BiConsumer<String, Object> consumer) {
+    if (relPropertyKeys != null) {
+      forEachProperty(relPropertyKeys[rel], relPropertyValues[rel], consumer);
+    }
+  }
+
+  private void forEachProperty(int[] keys, Object[] values,
+      BiConsumer<String, Object> consumer) {
+    if (keys != null) {
+      for (int i = 0; i < keys.length; i++) {
+        consumer.accept(propertyNames.get(keys[i]), values[i]);
+      }
+    }
+  }
+
+  int getRelationshipCount() {
+    return relationshipCount;
+  }
+
+  int subject(int rel) {
+    return triples[3 * rel];
+  }
+
+  int object(int rel) {
+    return triples[3 * rel + 2];
+  }
+
+  RelationshipType relType(int rel) {
+    return relTypes[triples[3 * rel + 1]];
+  }
+
+  void created(String uri) {
+    created[idOf(uri)] = true;
+  }
+
+  boolean isCreated(int resource) {
+    return created[resource];
+  }
+
+  /**
+   * Forgets the nodes and relationships created by a previous attempt to write the batch.
+   */
+  void resetCreated() {
+    created = new boolean[resourceCount];
+    createdRelationships.clear();
+  }
+
+  long getTripleCount() {
+    return tripleCount - discardedTriples.get();
+  }
+
+  /**
+   * Rough estimate of the heap taken by the staged data (array slots, string contents and
+   * property values), good enough to compare batches with each other.
+   */
+  long estimateSize() {
+    long bytes = 28L * uris.length + 4L * uriTable.length + 4L * triples.length
+        + 4L * tripleTable.length;
+    for (int i = 0; i < resourceCount; i++) {
+      bytes += 40 + 2L * uris[i].length();
+      if (labelIds[i] != null) {
+        bytes += 16 + 4L * labelIds[i].length;
+      }
+      bytes += estimatePropsSize(propertyKeys[i], propertyValues[i]);
+    }
+    if (relPropertyKeys != null) {
+      bytes += 8L * relPropertyKeys.length;
+      for (int i = 0; i < relationshipCount; i++) {
+        bytes += estimatePropsSize(relPropertyKeys[i], relPropertyValues[i]);
+      }
+    }
+    return bytes;
+  }
+
+  private static long estimatePropsSize(int[] keys, Object[] values) {
+    if (keys == null) {
+      return 0;
+    }
+    long bytes = 32 + 8L * keys.length;
+    for (Object value : values) {
+      if (value instanceof List) {
+        bytes += 40;
+        for (Object item : (List<?>) value) {
+          bytes += 8 + estimateValueSize(item);
+        }
+      } else {
+        bytes += estimateValueSize(value);
+      }
+    }
+    return bytes;
+  }
+
+  private static long estimateValueSize(Object value) {
+    return value instanceof String ? 40 + 2L * ((String) value).length() : 24;
+  }
+
+  long getDiscarded() {
+    return discardedTriples.get();
+  }
+
+  void setDiscarded(long discarded) {
+    discardedTriples.set(discarded);
+  }
+
+  void discard(long discarded) {
+    if (discarded != 0) {
+      discardedTriples.addAndGet(discarded);
+    }
+  }
+
+  private static int bucket(int hash, int tableLength) {
+    //spreads hash codes that differ only in their high bits over the table
+    int spread = hash * 0x9E3779B9;
+    return (spread ^ spread >>> 16) & (tableLength - 1);
+  }
+
+  private static int freeBucket(int[] table, int hash) {
+    int bucket = bucket(hash, table.length);
+    while (table[bucket] != 0) {
+      bucket = (bucket + 1) & (table.length - 1);
+    }
+    return bucket;
+  }
+
+  private static int tripleHash(int subject, int predicate, int object) {
+    return (subject * 31 + predicate) * 31 + object;
+  }
+
+  /**
+   * Ids for the few distinct values of a kind (labels, property names, predicates) in a batch
+   */
+  private static class Dictionary<T> {
+
+    private final Map<T, Integer> ids = new HashMap<>();
+    private final List<T> values = new ArrayList<>();
+
+    int idOf(T value) {
+      Integer id = ids.get(value);
+      if (id == null) {
+        id = values.size();
+        ids.put(value, id);
+        values.add(value);
+      }
+      return id;
+    }
+
+    T get(int id) {
+      return values.get(id);
+    }
+
+    int size() {
+      return values.size();
+    }
+  }
+}
@@ -0,0 +1,151 @@
+package n10s.rdf.load;
+
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+
+/**
+ * Progress of an import from a given url, saved with every partial commit so that a failed import
+ * can be resumed from the last commit instead of from the start. Namespace prefixes don't need to
+ * be saved as they are persisted before each partial commit.
+ * <p>
+ * Stored as a (:_ImportCheckpoint) node per url. When the url has been fully imported the node is
+ * marked as complete, and the nodes of all the urls in an import are removed once every one of them
+ * is complete, so that resuming an import of several urls doesn't import again the ones that were
+ * finished.
+ * <p>
+ * The key the blank node ids of the import are derived from is saved too, so that a resumed import
+ * gives the blank nodes parsed again the ids they got before the checkpoint.
+ */
+public class ImportCheckpoint {
+
+  private static final Label CHECKPOINT = Label.label("_ImportCheckpoint");
+  private static final String URL = "_url";
+  private static final String TRIPLES_PARSED = "_triplesParsed";
+  private static final String BATCH = "_batch";
+  private static final String UPDATED = "_updated";
+  private static final String COMPLETE = "_complete";
+  private static final String BNODE_SCOPE = "_bnodeScope";
+  private static final String INDEX_STATEMENT = "CREATE INDEX n10s_import_checkpoint_url "
+      + "IF NOT EXISTS FOR (c:_ImportCheckpoint) ON (c._url)";
+
+  private final long triplesParsed;
+  private final long batch;
+  private final boolean complete;
+  private final String bNodeScope;
+
+  private ImportCheckpoint(long triplesParsed, long batch, boolean complete, String bNodeScope) {
+    this.triplesParsed = triplesParsed;
+    this.batch = batch;
+    this.complete = complete;
+    this.bNodeScope = bNodeScope;
+  }
+
+  /**
+   * Creates the index the checkpoints are looked up with, unless it's there already. Runs in its
+   * own transaction as schema changes can't be mixed with data changes.
+   */
+  public static void createIndexIfMissing(GraphDatabaseService db) {
+    try (Transaction schemaTx = db.beginTx()) {
+      if (!schemaTx.schema().getIndexes(CHECKPOINT).iterator().hasNext()) {
+        schemaTx.execute(INDEX_STATEMENT);
+        schemaTx.commit();
+      }
+    }
+  }
+
+  /**
+   * @return the last checkpoint saved for the url, {@code null} if there's none
+   */
+  public static ImportCheckpoint find(Transaction tx, String url) {
+    Node node = tx.findNode(CHECKPOINT, URL, url);
+    if (node == null) {
+      return null;
+    }
+    return new ImportCheckpoint((long) node.getProperty(TRIPLES_PARSED),
+        (long) node.getProperty(BATCH), (boolean) node.getProperty(COMPLETE, false),
+        (String) node.getProperty(BNODE_SCOPE, null));
+  }
+
+  /**
+   * @param bNodeScope key of the blank node ids of the import resumed, {@code null} if unknown
+   * @return checkpoint after the given number of triples parsed
+   */
+  public static ImportCheckpoint at(long triplesParsed, String bNodeScope) {
+    return new ImportCheckpoint(triplesParsed, 0, false, bNodeScope);
+  }
+
+  static void save(Transaction tx, String url, long triplesParsed, long batch,
+      String bNodeScope) {
+    Node node = tx.findNode(CHECKPOINT, URL, url);
+    if (node == null) {
+      node = tx.createNode(CHECKPOINT);
+      node.setProperty(URL, url);
+    }
+    node.setProperty(TRIPLES_PARSED, triplesParsed);
+    node.setProperty(BATCH, batch);
+    node.setProperty(UPDATED, ZonedDateTime.now());
+    node.setProperty(BNODE_SCOPE, bNodeScope);
+    node.removeProperty(COMPLETE);
+  }
+
+  static void complete(Transaction tx, String url, long triplesParsed, long batch,
+      String bNodeScope) {
+    save(tx, url, triplesParsed, batch, bNodeScope);
+    tx.findNode(CHECKPOINT, URL, url).setProperty(COMPLETE, true);
+  }
+
+  /**
+   * Removes the checkpoints of the urls if all of them are complete. Otherwise they are kept so
+   * that the import can be resumed.
+   *
+   * @return true if the checkpoints were removed
+   */
+  public static boolean clearIfAllComplete(Transaction tx, List<String> urls) {
+    List<Node> nodes = new ArrayList<>();
+    for (String url : urls) {
+      Node node = url == null ? null : tx.findNode(CHECKPOINT, URL, url);
+      if (node != null) {
+        if (!(boolean) node.getProperty(COMPLETE, false)) {
+          return false;
+        }
+        nodes.add(node);
+      }
+    }
+    nodes.forEach(Node::delete);
+    return true;
+  }
+
+  /**
+   * @return number of triples parsed (whether imported or filtered out) up to the last partial
+   * commit
+   */
+  public long getTriplesParsed() {
+    return triplesParsed;
+  }
+
+  /**
+   * @return number of partial commits completed
+   */
+  public long getBatch() {
+    return batch;
+  }
+
+  /**
+   * @return true when the url was fully imported with no failed partial commits
+   */
+  public boolean isComplete() {
+    return complete;
+  }
+
+  /**
+   * @return key the blank node ids of the import were derived from, {@code null} if not known
+   */
+  public String getBNodeScope() {
+    return bNodeScope;
+  }
+}
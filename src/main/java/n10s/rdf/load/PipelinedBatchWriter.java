@@ -0,0 +1,73 @@
+package n10s.rdf.load;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.Consumer;
+
+/**
+ * Writes import batches on a dedicated thread so that parsing the next batch overlaps with the
+ * partial commit of the previous one. The queue is bounded so a slow writer throttles the parser
+ * instead of letting staged batches pile up on the heap.
+ * <p>
+ * Batches are written one at a time and in submission order, so each partial commit sees the
+ * nodes created by the previous ones exactly as in the sequential import.
+ */
+class PipelinedBatchWriter {
+
+  //batches waiting to be written (on top of the one being written and the one being parsed)
+  static final int QUEUE_CAPACITY = 2;
+  private static final ImportBatch END_OF_INPUT = new ImportBatch();
+
+  private final BlockingQueue<ImportBatch> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+  private final Thread writerThread;
+  private volatile Exception failure;
+  private boolean closed = false;
+
+  PipelinedBatchWriter(Consumer<ImportBatch> batchCommitter) {
+    writerThread = new Thread(() -> {
+      try {
+        ImportBatch batch;
+        while ((batch = queue.take()) != END_OF_INPUT) {
+          if (failure == null) {
+            try {
+              batchCommitter.accept(batch);
+            } catch (Exception e) {
+              failure = e;
+            }
+          }
+          //after a failure batches are drained and dropped so the parser never blocks
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }, "n10s-import-writer");
+    writerThread.setDaemon(true);
+    writerThread.start();
+  }
+
+  /**
+   * Hands over a batch to the writer thread. Blocks while the queue is full.
+   */
+  void submit(ImportBatch batch) throws InterruptedException {
+    queue.put(batch);
+  }
+
+  /**
+   * Waits until all submitted batches have been written and stops the writer thread. Can be
+   * safely invoked more than once.
+   */
+  void close() throws InterruptedException {
+    if (!closed) {
+      closed = true;
+      queue.put(END_OF_INPUT);
+      writerThread.join();
+    }
+  }
+
+  /**
+   * @return the exception that made the writer stop committing batches, {@code null} if none
+   */
+  Exception getFailure() {
+    return failure;
+  }
+}
@@ -1,5 +1,6 @@
 package n10s.rdf.load;
 
+import java.util.List;
 import java.util.Map;
 import java.util.stream.Stream;
 import n10s.rdf.RDFProcedures;
@@ -19,6 +20,29 @@ public class RDFLoadProcedures extends RDFProcedures {
     return Stream.of(doImport(format, url, null, props, false)); //check props.reusetx ?
   }
 
+  @Procedure(name = "n10s.rdf.import.fetchAll", mode = Mode.WRITE)
+  @Description("Imports RDF from a list of urls (file or http) concurrently and stores it in Neo4j "
+      + "as a property graph. File urls can use wildcards in the file name (file:///dir/*.nt.gz). "
+      + "Requires a unique constraint on :Resource(uri)")
+  public Stream<SourceImportResults> fetchAll(@Name("urls") List<String> urls,
+      @Name("format") String format,
+      @Name(value = "params", defaultValue = "{}") Map<String, Object> props) {
+
+    return doImportAll(format, urls, props).stream();
+  }
+
+  @Procedure(name = "n10s.rdf.import.adminFiles", mode = Mode.WRITE)
+  @Description("Maps RDF from an url (file or http) to a property graph like n10s.rdf.import.fetch "
+      + "but writes it as CSV files for neo4j-admin database import into the given directory "
+      + "(within the import directory), for bulk loading into an empty database. Requires "
+      + "dbms.n10s.import.admin_files.enabled=true")
+  public Stream<AdminImportFilesResults> adminFiles(@Name("url") String url,
+      @Name("format") String format, @Name("directory") String directory,
+      @Name(value = "params", defaultValue = "{}") Map<String, Object> props) {
+
+    return Stream.of(doImportToAdminFiles(format, url, directory, props));
+  }
+
   @Procedure(name = "n10s.rdf.import.inline", mode = Mode.WRITE)
   @Description("Imports an RDF snippet passed as parameter and stores it in Neo4j as a property "
       + "graph. Requires a unique constraint on :Resource(uri)")
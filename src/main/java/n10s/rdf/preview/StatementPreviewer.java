@@ -15,7 +15,6 @@ import org.eclipse.rdf4j.rio.RDFHandlerException;
 import org.neo4j.graphdb.GraphDatabaseService;
 import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.Relationship;
-import org.neo4j.graphdb.RelationshipType;
 import org.neo4j.graphdb.Transaction;
 import org.neo4j.logging.Log;
 
@@ -61,7 +60,7 @@ public class StatementPreviewer extends RDFToLPGStatementProcessor {
         VirtualRelationship vrel = new VirtualRelationship(
             vNodes.get(st.getSubject().stringValue().replace("'", "\'")),
             vNodes.get(st.getObject().stringValue().replace("'", "\'")),
-            RelationshipType.withName(handleIRI(st.getPredicate(), RELATIONSHIP)));
+            relationshipTypeFor(st.getPredicate()));
 
         Map<String, Object> relProps = this.relProps.get(st);
 
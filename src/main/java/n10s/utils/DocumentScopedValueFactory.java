@@ -0,0 +1,53 @@
+package n10s.utils;
+
+import com.google.common.hash.Hashing;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import org.eclipse.rdf4j.model.BNode;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+
+/**
+ * Value factory for parsers that keep blank node labels as they are (PRESERVE_BNODE_IDS). Labels
+ * are prefixed with a scope so that the same label in two documents is not the same blank node.
+ * The scope is either unique to the parse or derived from a key given by the caller, in which case
+ * parsing the document again with the same key produces the same blank node ids. Blank nodes without a label are
+ * numbered in the order they are created.
+ */
+public class DocumentScopedValueFactory extends SimpleValueFactory {
+
+  private static final Random random = new Random();
+
+  private final String scope;
+  private final AtomicLong unlabelled = new AtomicLong();
+
+  private DocumentScopedValueFactory(String scope) {
+    this.scope = scope;
+  }
+
+  /**
+   * @return a factory for blank node ids that never clash with the ones of another parse
+   */
+  public static DocumentScopedValueFactory forParse() {
+    return new DocumentScopedValueFactory("p" + Long.toHexString(random.nextLong()) + "x");
+  }
+
+  /**
+   * @return a factory for blank node ids that are the same in every parse given the same key
+   */
+  public static DocumentScopedValueFactory forKey(String key) {
+    return new DocumentScopedValueFactory("k" + Hashing.murmur3_128()
+        .hashString(key, StandardCharsets.UTF_8) + "x");
+  }
+
+  @Override
+  public BNode createBNode(String nodeID) {
+    return super.createBNode(scope + nodeID);
+  }
+
+  @Override
+  public BNode createBNode() {
+    //labels can't start with '-'
+    return super.createBNode(scope + "-" + unlabelled.incrementAndGet());
+  }
+}
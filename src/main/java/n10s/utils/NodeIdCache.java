@@ -0,0 +1,76 @@
+package n10s.utils;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import java.util.function.BiPredicate;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.NotFoundException;
+import org.neo4j.graphdb.Transaction;
+
+/**
+ * Size bounded (LRU) cache of resource key to node element id that lives for a whole import,
+ * across partial commits. Nodes themselves are bound to a transaction so only their ids are
+ * kept and nodes are re-attached to the transaction asking for them.
+ * <p>
+ * Every hit is checked against the node it points to, so ids of nodes deleted in the meantime (or
+ * created by a transaction that was rolled back) are detected and evicted instead of returned.
+ */
+public class NodeIdCache<K> {
+
+  private final Cache<K, String> elementIds;
+  private final BiPredicate<K, Node> isNodeFor;
+
+  public NodeIdCache(long maxSize, BiPredicate<K, Node> isNodeFor) {
+    this.elementIds = CacheBuilder.newBuilder()
+        .maximumSize(maxSize)
+        .recordStats()
+        .build();
+    this.isNodeFor = isNodeFor;
+  }
+
+  /**
+   * Cache for :Resource nodes identified by their uri
+   */
+  public static NodeIdCache<String> forUris(long maxSize) {
+    return new NodeIdCache<>(maxSize, (uri, node) -> uri.equals(node.getProperty("uri", null)));
+  }
+
+  /**
+   * @return the node for the key in the given transaction or {@code null} if not cached
+   */
+  public Node get(Transaction tx, K key) {
+    String elementId = elementIds.getIfPresent(key);
+    if (elementId == null) {
+      return null;
+    }
+    try {
+      Node node = tx.getNodeByElementId(elementId);
+      if (isNodeFor.test(key, node)) {
+        return node;
+      }
+    } catch (NotFoundException e) {
+      //deleted since it was cached
+    }
+    elementIds.invalidate(key);
+    return null;
+  }
+
+  public void put(K key, Node node) {
+    elementIds.put(key, node.getElementId());
+  }
+
+  public void invalidate(K key) {
+    elementIds.invalidate(key);
+  }
+
+  public CacheStats getStats() {
+    return elementIds.stats();
+  }
+
+  public String toString() {
+    CacheStats stats = elementIds.stats();
+    return "node cache: " + elementIds.size() + " entries, " + stats.hitCount() + " hits, "
+        + stats.missCount() + " misses, " + stats.evictionCount() + " evictions";
+  }
+}
@@ -4,6 +4,10 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.neo4j.graphdb.GraphDatabaseService;
 import org.neo4j.graphdb.Label;
 import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.ResourceIterator;
@@ -47,8 +51,19 @@ public class NsPrefixMap {
     return ns;
   }
 
-  Map<String, String> prefixToNs = new HashMap<>();
-  Map<String, String> nsToPrefix = new HashMap<>();
+  private static final Pattern GENERATED_PREFIX = Pattern.compile("ns(\\d{1,9})");
+
+  //concurrent so that lookups from parser threads don't need to synchronise, only additions do
+  Map<String, String> prefixToNs = new ConcurrentHashMap<>();
+  Map<String, String> nsToPrefix = new ConcurrentHashMap<>();
+  //next generated prefix (ns0, ns1...). Only moves forward, past any generated prefix added to
+  //the map, whether locally or loaded from the DB.
+  private int nextNsIndex = 0;
+  //bumped whenever an existing prefix/namespace pair is removed. Adding pairs never changes
+  //existing ones so it does not count as a change.
+  private volatile long version = 0;
+  //when set, generated prefixes are allocated in the prefix definition node of this DB
+  private GraphDatabaseService prefixRegistry;
 
   public NsPrefixMap(Transaction tx, boolean acquireLock)
       throws InvalidNamespacePrefixDefinitionInDB {
@@ -91,7 +106,23 @@ public class NsPrefixMap {
     return nsToPrefix.containsKey(ns);
   }
 
+  /**
+   * Generated prefixes (ns0, ns1...) will be allocated in the prefix definition node of the DB and
+   * committed straight away, in a transaction that write-locks the node and re-reads it before
+   * picking the prefix. Imports in other sessions can then never generate the same prefix for a
+   * different namespace. Only for callers whose transactions can't be holding the lock on the
+   * definition node while parsing (i.e. not single transaction imports).
+   */
+  public void allocateGeneratedPrefixesIn(GraphDatabaseService db) {
+    prefixRegistry = db;
+  }
+
   public String getPrefixOrAdd(String ns, boolean strict) {
+    String prefix = nsToPrefix.get(ns);
+    return prefix != null ? prefix : addPrefixFor(ns, strict);
+  }
+
+  private synchronized String addPrefixFor(String ns, boolean strict) {
     if (nsToPrefix.containsKey(ns)) {
       return nsToPrefix.get(ns);
     } else if (!strict) {
@@ -99,10 +130,14 @@ public class NsPrefixMap {
       if (standardNamespaces.containsKey(ns)) {
         add(standardNamespaces.get(ns), ns);
         return standardNamespaces.get(ns);
+      } else if (prefixRegistry != null) {
+        return allocateInDB(ns);
       } else {
         //it's not a standard, we need to generate next in sequence
-        String nextNsPrefix =
-            "ns" + prefixToNs.keySet().stream().filter(x -> x.startsWith("ns")).count();
+        String nextNsPrefix = "ns" + nextNsIndex;
+        while (prefixToNs.containsKey(nextNsPrefix)) {
+          nextNsPrefix = "ns" + ++nextNsIndex;
+        }
         add(nextNsPrefix, ns);
         return nextNsPrefix;
       }
@@ -112,7 +147,7 @@ public class NsPrefixMap {
     }
   }
 
-  public void add(String prefix, String ns) throws NamespacePrefixConflictException {
+  public synchronized void add(String prefix, String ns) throws NamespacePrefixConflictException {
     if (standardPrefixes.containsKey(prefix) && !standardPrefixes.get(prefix).equals(ns)) {
       throw new NamespacePrefixConflictException("Invalid prefix + namespace combination: "
           + prefix + " is a reserved namespace prefix for <" + standardPrefixes.get(prefix) + ">");
@@ -123,6 +158,10 @@ public class NsPrefixMap {
     } else if (!prefixToNs.containsKey(prefix) && !nsToPrefix.containsKey(ns)) {
       prefixToNs.put(prefix, ns);
       nsToPrefix.put(ns, prefix);
+      Matcher generated = GENERATED_PREFIX.matcher(prefix);
+      if (generated.matches()) {
+        nextNsIndex = Math.max(nextNsIndex, Integer.parseInt(generated.group(1)) + 1);
+      }
     } else if (prefixToNs.containsKey(prefix) && !prefixToNs.get(prefix).equals(ns)) {
       throw new NamespacePrefixConflictException(
           "prefix " + prefix + " is in use for namespace <" + prefixToNs.get(prefix) + ">");
@@ -132,20 +171,30 @@ public class NsPrefixMap {
     }
   }
 
-  public void removePrefix(String prefix) {
+  public synchronized void removePrefix(String prefix) {
     if (prefixToNs.containsKey(prefix)) {
       nsToPrefix.remove(prefixToNs.get(prefix));
       prefixToNs.remove(prefix);
+      version++;
     }
   }
 
-  public void removeNamespace(String ns) {
+  public synchronized void removeNamespace(String ns) {
     if (nsToPrefix.containsKey(ns)) {
       prefixToNs.remove(nsToPrefix.get(ns));
       nsToPrefix.remove(ns);
+      version++;
     }
   }
 
+  /**
+   * @return a counter that changes every time an existing prefix definition is removed, so that
+   * names derived from this map can be cached
+   */
+  public long getVersion() {
+    return version;
+  }
+
   public Set<String> getPrefixes() {
     return prefixToNs.keySet();
   }
@@ -211,7 +260,58 @@ public class NsPrefixMap {
     return sb.toString();
   }
 
-  private boolean reloadFromDB(Transaction tx) throws DynamicNamespacePrefixConflict {
+  private String allocateInDB(String ns) {
+    try (Transaction allocationTx = prefixRegistry.beginTx()) {
+      Node nsPrefDefNode = lockDefinitionNode(allocationTx);
+      Map<String, Object> nsPrefDefInDB = nsPrefDefNode.getAllProperties();
+      String prefix = null;
+      for (Entry<String, Object> entry : nsPrefDefInDB.entrySet()) {
+        if (entry.getValue().equals(ns)) {
+          //added by another session since this map was last refreshed
+          prefix = entry.getKey();
+        }
+      }
+      if (prefix == null) {
+        prefix = "ns" + nextNsIndex;
+        while (prefixToNs.containsKey(prefix) || nsPrefDefInDB.containsKey(prefix)) {
+          prefix = "ns" + ++nextNsIndex;
+        }
+        nsPrefDefNode.setProperty(prefix, ns);
+      }
+      allocationTx.commit();
+      add(prefix, ns);
+      return prefix;
+    }
+  }
+
+  /**
+   * @return the prefix definition node, write-locked. When there's none it's created while holding
+   * the lock on the graph config node so that two sessions can't both create one
+   */
+  private static Node lockDefinitionNode(Transaction tx) {
+    Label nsPrefDef = Label.label("_NsPrefDef");
+    try (ResourceIterator<Node> existing = tx.findNodes(nsPrefDef)) {
+      if (existing.hasNext()) {
+        Node node = existing.next();
+        tx.acquireWriteLock(node);
+        return node;
+      }
+    }
+    try (ResourceIterator<Node> graphConfig = tx.findNodes(Label.label("_GraphConfig"))) {
+      if (graphConfig.hasNext()) {
+        tx.acquireWriteLock(graphConfig.next());
+      }
+    }
+    Node node = (Node) tx.execute("MERGE (n:_NsPrefDef) RETURN n ").next().get("n");
+    tx.acquireWriteLock(node);
+    return node;
+  }
+
+  /**
+   * @return number of prefix definitions in the DB, all of them now in this map too
+   */
+  private int reloadFromDB(Transaction tx, boolean acquireLock)
+      throws DynamicNamespacePrefixConflict {
     Node nsPrefDefNode;
 
     ResourceIterator<Node> namespacePrefixDefinitionNodes = tx
@@ -220,11 +320,14 @@ public class NsPrefixMap {
     if (namespacePrefixDefinitionNodes.hasNext()) {
       nsPrefDefNode = namespacePrefixDefinitionNodes.next();
 
-      //to prevent concurrent updates
-      tx.acquireWriteLock(nsPrefDefNode);
+      if (acquireLock) {
+        //to prevent concurrent updates
+        tx.acquireWriteLock(nsPrefDefNode);
+      }
 
       // get the latest from the DB and update it.
-      for (Entry<String, Object> entry : nsPrefDefNode.getAllProperties().entrySet()) {
+      Map<String, Object> nsPrefDefInDB = nsPrefDefNode.getAllProperties();
+      for (Entry<String, Object> entry : nsPrefDefInDB.entrySet()) {
         if (!prefixToNs.containsKey(entry.getKey()) && !nsToPrefix.containsKey(entry.getValue())) {
           //it's a new entry. We get it.
           add(entry.getKey(), (String) entry.getValue());
@@ -240,19 +343,25 @@ public class NsPrefixMap {
                   entry.getValue() + ">");
         }
       }
+      return nsPrefDefInDB.size();
     }
 
-    return true;
+    return 0;
   }
 
 
-  public Integer partialRefresh(Transaction tx) throws DynamicNamespacePrefixConflict {
+  /**
+   * Brings in the prefix definitions added to the DB by others and persists the ones added here.
+   * The definition node is only locked (and written) when this map has prefixes that are not in
+   * the DB yet, so partial commits that don't introduce new namespaces don't serialise on it.
+   */
+  public synchronized Integer partialRefresh(Transaction tx) throws DynamicNamespacePrefixConflict {
 
-    if (reloadFromDB(tx)) {
+    if (reloadFromDB(tx, false) < prefixToNs.size()) {
+      reloadFromDB(tx, true);
       flushToDB(tx);
-      return 0;
     }
-    return 1;
+    return 0;
   }
 
 
@@ -0,0 +1,247 @@
+package n10s.utils;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Decompresses BGZF files (gzip files made of independent members that record their compressed
+ * size in the header, as produced by bgzip) inflating several members at the same time on worker
+ * threads. Members are returned in their original order.
+ * <p>
+ * The size of a member can only be known upfront from the BGZF header, so as soon as a member
+ * without it is found, the rest of the file is decompressed sequentially.
+ */
+public class ParallelGzipInputStream extends InputStream {
+
+  private static final int FHCRC = 2;
+  private static final int FEXTRA = 4;
+  private static final int FNAME = 8;
+  private static final int FCOMMENT = 16;
+  private static final int HEADER_SIZE = 12;
+  private static final int MAX_EXTRA_SIZE = 0xffff;
+  //BGZF members hold at most 64 KiB of uncompressed data
+  private static final long MAX_MEMBER_DATA_SIZE = 0x10000;
+
+  private final PushbackInputStream in;
+  private final ExecutorService pool;
+  //members being inflated, in file order
+  private final Deque<Future<byte[]>> pending = new ArrayDeque<>();
+  private final int maxPending;
+  private byte[] current = new byte[0];
+  private int pos = 0;
+  private boolean membersDone = false;
+  //rest of the file, when not BGZF
+  private InputStream sequential;
+
+  private ParallelGzipInputStream(PushbackInputStream in, int threads) {
+    this.in = in;
+    this.maxPending = threads * 4;
+    this.pool = Executors.newFixedThreadPool(threads, r -> {
+      Thread t = new Thread(r, "n10s-gunzip");
+      t.setDaemon(true);
+      return t;
+    });
+  }
+
+  /**
+   * @return a parallel decompressing stream if the input is BGZF and more than one thread is
+   * requested, a regular GZIPInputStream otherwise
+   */
+  public static InputStream open(InputStream compressed, int threads) throws IOException {
+    PushbackInputStream in = new PushbackInputStream(compressed, HEADER_SIZE + MAX_EXTRA_SIZE);
+    if (threads > 1) {
+      byte[] header = in.readNBytes(HEADER_SIZE);
+      int extraSize = header.length == HEADER_SIZE && isGzip(header) && (header[3] & FEXTRA) != 0
+          ? uint16(header, 10) : 0;
+      byte[] extra = in.readNBytes(extraSize);
+      in.unread(extra);
+      in.unread(header);
+      if (extra.length == extraSize && blockSize(extra) > 0) {
+        return new ParallelGzipInputStream(in, threads);
+      }
+    }
+    return new GZIPInputStream(in, 64 * 1024);
+  }
+
+  @Override
+  public int read() throws IOException {
+    byte[] b = new byte[1];
+    int read = read(b, 0, 1);
+    return read < 0 ? -1 : b[0] & 0xff;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    if (len == 0) {
+      return 0;
+    }
+    while (true) {
+      if (pos < current.length) {
+        int read = Math.min(len, current.length - pos);
+        System.arraycopy(current, pos, b, off, read);
+        pos += read;
+        return read;
+      }
+      readAhead();
+      if (!pending.isEmpty()) {
+        current = await(pending.poll());
+        pos = 0;
+      } else if (sequential != null) {
+        return sequential.read(b, off, len);
+      } else {
+        pool.shutdown();
+        return -1;
+      }
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    pending.forEach(f -> f.cancel(true));
+    pool.shutdownNow();
+    in.close();
+  }
+
+  private void readAhead() throws IOException {
+    while (!membersDone && pending.size() < maxPending) {
+      byte[] header = in.readNBytes(HEADER_SIZE);
+      if (header.length == 0) {
+        membersDone = true;
+        return;
+      }
+      if (header.length < HEADER_SIZE || !isGzip(header)) {
+        throw new ZipException("Not in GZIP format");
+      }
+      int flags = header[3];
+      byte[] extra = (flags & FEXTRA) != 0 ? in.readNBytes(uint16(header, 10)) : new byte[0];
+      int blockSize = blockSize(extra);
+      if (blockSize <= 0) {
+        //not BGZF, the remaining members are inflated in sequence
+        in.unread(extra);
+        in.unread(header);
+        sequential = new GZIPInputStream(in, 64 * 1024);
+        membersDone = true;
+        return;
+      }
+      int restSize = blockSize - HEADER_SIZE - extra.length;
+      byte[] rest = in.readNBytes(restSize);
+      if (rest.length < restSize) {
+        throw new EOFException("Unexpected end of BGZF member");
+      }
+      pending.add(pool.submit(() -> inflate(flags, rest)));
+    }
+  }
+
+  private static byte[] inflate(int flags, byte[] member) throws IOException {
+    int off = 0;
+    if ((flags & FNAME) != 0) {
+      off = skipZeroTerminated(member, off);
+    }
+    if ((flags & FCOMMENT) != 0) {
+      off = skipZeroTerminated(member, off);
+    }
+    if ((flags & FHCRC) != 0) {
+      off += 2;
+    }
+    int trailer = member.length - 8;
+    if (trailer < off) {
+      throw new ZipException("Corrupt BGZF member");
+    }
+    long expectedCrc = uint32(member, trailer);
+    long isize = uint32(member, trailer + 4);
+    if (isize > MAX_MEMBER_DATA_SIZE) {
+      //checked before allocating, the size comes from the file
+      throw new ZipException("Corrupt BGZF member (size " + isize + " above 64 KiB)");
+    }
+    int size = (int) isize;
+    byte[] data = new byte[size];
+    Inflater inflater = new Inflater(true);
+    try {
+      inflater.setInput(member, off, trailer - off);
+      int inflated = 0;
+      while (inflated < size && !inflater.finished()) {
+        int n = inflater.inflate(data, inflated, size - inflated);
+        if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+          break;
+        }
+        inflated += n;
+      }
+      if (inflated != size) {
+        throw new ZipException("Corrupt BGZF member (wrong size)");
+      }
+    } catch (DataFormatException e) {
+      throw new ZipException(e.getMessage());
+    } finally {
+      inflater.end();
+    }
+    CRC32 crc = new CRC32();
+    crc.update(data);
+    if (crc.getValue() != expectedCrc) {
+      throw new ZipException("Corrupt BGZF member (wrong CRC)");
+    }
+    return data;
+  }
+
+  private static byte[] await(Future<byte[]> member) throws IOException {
+    try {
+      return member.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while decompressing", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException(e.getCause());
+    }
+  }
+
+  /**
+   * @return the total size of the member from the BGZF extra subfield ('BC') or -1 if not there
+   */
+  private static int blockSize(byte[] extra) {
+    int i = 0;
+    while (i + 4 <= extra.length) {
+      int length = uint16(extra, i + 2);
+      if (extra[i] == 'B' && extra[i + 1] == 'C' && length == 2 && i + 6 <= extra.length) {
+        return uint16(extra, i + 4) + 1;
+      }
+      i += 4 + length;
+    }
+    return -1;
+  }
+
+  private static boolean isGzip(byte[] header) {
+    return header[0] == (byte) 0x1f && header[1] == (byte) 0x8b && header[2] == 8;
+  }
+
+  private static int skipZeroTerminated(byte[] bytes, int from) throws ZipException {
+    for (int i = from; i < bytes.length; i++) {
+      if (bytes[i] == 0) {
+        return i + 1;
+      }
+    }
+    throw new ZipException("Corrupt BGZF member header");
+  }
+
+  private static int uint16(byte[] b, int off) {
+    return (b[off] & 0xff) | (b[off + 1] & 0xff) << 8;
+  }
+
+  private static long uint32(byte[] b, int off) {
+    return uint16(b, off) | (long) uint16(b, off + 2) << 16;
+  }
+}
@@ -0,0 +1,319 @@
+package n10s.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import org.eclipse.rdf4j.model.Statement;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.eclipse.rdf4j.rio.RDFFormat;
+import org.eclipse.rdf4j.rio.RDFHandler;
+import org.eclipse.rdf4j.rio.RDFHandlerException;
+import org.eclipse.rdf4j.rio.RDFParseException;
+import org.eclipse.rdf4j.rio.RDFParser;
+import org.eclipse.rdf4j.rio.Rio;
+import org.eclipse.rdf4j.rio.helpers.BasicParserSettings;
+import org.eclipse.rdf4j.rio.helpers.StatementCollector;
+
+/**
+ * Parser for line based formats (N-Triples and N-Quads) that splits the input in chunks of whole
+ * lines and parses them in parallel. Parsed chunks are passed on to the handler in input order
+ * and from the calling thread, so handlers don't need to be thread safe. Local files are read by
+ * the parsing threads themselves, streams by the calling thread.
+ * <p>
+ * Blank node labels are scoped to the whole document (not to the chunk): the same label in two
+ * chunks is the same blank node, and labels from different parses never clash unless a scope is
+ * given for them (see DocumentScopedValueFactory).
+ */
+public class ParallelLineParser {
+
+  //bytes read per chunk (more if a single line is longer)
+  static final int DEFAULT_CHUNK_SIZE = 1024 * 1024;
+  //bytes read at a time when looking for the end of the line a file chunk ends with
+  private static final int BOUNDARY_WINDOW_SIZE = 8 * 1024;
+
+  private final RDFFormat format;
+  private final int threads;
+  private final int chunkSize;
+  private final boolean verifyUriSyntax;
+  //key blank node ids are derived from, null for ids unique to each parse
+  private final String bNodeScope;
+
+  public ParallelLineParser(RDFFormat format, int threads, boolean verifyUriSyntax) {
+    this(format, threads, verifyUriSyntax, null);
+  }
+
+  public ParallelLineParser(RDFFormat format, int threads, boolean verifyUriSyntax,
+      String bNodeScope) {
+    this(format, threads, verifyUriSyntax, bNodeScope, DEFAULT_CHUNK_SIZE);
+  }
+
+  ParallelLineParser(RDFFormat format, int threads, boolean verifyUriSyntax, String bNodeScope,
+      int chunkSize) {
+    if (!isLineBased(format)) {
+      throw new IllegalArgumentException(format.getName() + " is not a line based format");
+    }
+    this.format = format;
+    this.threads = threads;
+    this.verifyUriSyntax = verifyUriSyntax;
+    this.bNodeScope = bNodeScope;
+    this.chunkSize = chunkSize;
+  }
+
+  public static boolean isLineBased(RDFFormat format) {
+    return RDFFormat.NTRIPLES.equals(format) || RDFFormat.NQUADS.equals(format);
+  }
+
+  public void parse(InputStream in, String baseUri, RDFHandler handler) throws IOException {
+    parseChunks(new StreamChunks(in), baseUri, handler);
+  }
+
+  /**
+   * Parses a local file. The calling thread only reads around the chunk boundaries to align them
+   * with line ends, and each chunk is read from the file channel by the thread parsing it.
+   *
+   * @return the size of the file
+   */
+  public long parse(Path file, String baseUri, RDFHandler handler) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      parseChunks(new FileChunks(channel), baseUri, handler);
+      return channel.size();
+    }
+  }
+
+  private void parseChunks(Chunks chunks, String baseUri, RDFHandler handler)
+      throws IOException {
+    SimpleValueFactory valueFactory = bNodeScope == null ? DocumentScopedValueFactory.forParse()
+        : DocumentScopedValueFactory.forKey(bNodeScope);
+    //chunks being parsed, in input order. Bounded so that parsing doesn't get too far ahead
+    Deque<Future<ParsedChunk>> pending = new ArrayDeque<>();
+    ForkJoinPool pool = new ForkJoinPool(threads);
+    try {
+      handler.startRDF();
+      //lines in the chunks passed on to the handler, to report errors with document line numbers
+      long linesHandled = 0;
+      Callable<Chunk> next;
+      while ((next = chunks.next()) != null) {
+        Callable<Chunk> chunk = next;
+        pending.add(pool.submit(() -> parseChunk(chunk.call(), baseUri, valueFactory)));
+        while (pending.size() > threads * 2) {
+          linesHandled += handleAll(pending.poll(), linesHandled, handler);
+        }
+      }
+      while (!pending.isEmpty()) {
+        linesHandled += handleAll(pending.poll(), linesHandled, handler);
+      }
+      handler.endRDF();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RDFHandlerException("Interrupted while parsing", e);
+    } finally {
+      pending.forEach(f -> f.cancel(true));
+      pool.shutdownNow();
+    }
+  }
+
+  private ParsedChunk parseChunk(Chunk chunk, String baseUri, SimpleValueFactory valueFactory)
+      throws IOException {
+    RDFParser rdfParser = Rio.createParser(format, valueFactory);
+    rdfParser.set(BasicParserSettings.VERIFY_URI_SYNTAX, verifyUriSyntax);
+    rdfParser.set(BasicParserSettings.PRESERVE_BNODE_IDS, true);
+    List<Statement> statements = new ArrayList<>();
+    rdfParser.setRDFHandler(new StatementCollector(statements));
+    //line numbers in errors are relative to the chunk
+    rdfParser.parse(new ByteArrayInputStream(chunk.bytes, 0, chunk.length), baseUri);
+    return new ParsedChunk(statements, countLines(chunk.bytes, chunk.length));
+  }
+
+  /**
+   * @return the number of lines in the chunk
+   */
+  private long handleAll(Future<ParsedChunk> parsedChunk, long linesBefore, RDFHandler handler)
+      throws IOException, InterruptedException {
+    ParsedChunk parsed;
+    try {
+      parsed = parsedChunk.get();
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof RDFParseException) {
+        //line numbers relative to the document, not the chunk
+        RDFParseException parseError = (RDFParseException) cause;
+        long line = parseError.getLineNumber() < 0 ? -1
+            : parseError.getLineNumber() + linesBefore;
+        throw new RDFParseException(
+            parseError.getMessage().replaceAll(" \\[line \\d+.*\\]$", ""), line,
+            parseError.getColumnNumber());
+      } else if (cause instanceof IOException) {
+        throw (IOException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new RDFParseException(cause);
+    }
+    for (Statement st : parsed.statements) {
+      handler.handleStatement(st);
+    }
+    return parsed.lines;
+  }
+
+  private static int lastLineEnd(byte[] buffer, int length) {
+    for (int i = length - 1; i >= 0; i--) {
+      if (buffer[i] == '\n') {
+        return i + 1;
+      }
+    }
+    return 0;
+  }
+
+  private static long countLines(byte[] buffer, int length) {
+    long lines = 0;
+    for (int i = 0; i < length; i++) {
+      if (buffer[i] == '\n') {
+        lines++;
+      }
+    }
+    return lines;
+  }
+
+  private static class Chunk {
+
+    final byte[] bytes;
+    final int length;
+
+    Chunk(byte[] bytes, int length) {
+      this.bytes = bytes;
+      this.length = length;
+    }
+  }
+
+  private static class ParsedChunk {
+
+    final List<Statement> statements;
+    final long lines;
+
+    ParsedChunk(List<Statement> statements, long lines) {
+      this.statements = statements;
+      this.lines = lines;
+    }
+  }
+
+  /**
+   * Splits the input in chunks of whole lines
+   */
+  private interface Chunks {
+
+    /**
+     * @return the task reading the next chunk or {@code null} at the end of the input
+     */
+    Callable<Chunk> next() throws IOException;
+  }
+
+  /**
+   * Chunks read by the calling thread, as streams can only be read sequentially
+   */
+  private class StreamChunks implements Chunks {
+
+    private final InputStream in;
+    private byte[] buffer = new byte[chunkSize];
+    private int filled = 0;
+    private boolean eof = false;
+
+    StreamChunks(InputStream in) {
+      this.in = in;
+    }
+
+    @Override
+    public Callable<Chunk> next() throws IOException {
+      while (!eof) {
+        filled += in.readNBytes(buffer, filled, buffer.length - filled);
+        eof = filled < buffer.length;
+        int end = eof ? filled : lastLineEnd(buffer, filled);
+        if (end == 0 && eof) {
+          return null;
+        } else if (end == 0) {
+          //line longer than the buffer
+          buffer = Arrays.copyOf(buffer, buffer.length * 2);
+          continue;
+        }
+        Chunk chunk = new Chunk(buffer, end);
+        buffer = new byte[Math.max(chunkSize, filled - end)];
+        System.arraycopy(chunk.bytes, end, buffer, 0, filled - end);
+        filled -= end;
+        return () -> chunk;
+      }
+      return null;
+    }
+  }
+
+  /**
+   * Chunks read with positional reads on the file channel, which can be done concurrently
+   */
+  private class FileChunks implements Chunks {
+
+    private final FileChannel channel;
+    private final long size;
+    private long start = 0;
+
+    FileChunks(FileChannel channel) throws IOException {
+      this.channel = channel;
+      this.size = channel.size();
+    }
+
+    @Override
+    public Callable<Chunk> next() throws IOException {
+      if (start >= size) {
+        return null;
+      }
+      long chunkStart = start;
+      long end = nextLineStart(Math.min(start + chunkSize, size) - 1);
+      int length = Math.toIntExact(end - chunkStart);
+      start = end;
+      return () -> {
+        byte[] bytes = new byte[length];
+        ByteBuffer target = ByteBuffer.wrap(bytes);
+        while (target.hasRemaining()) {
+          if (channel.read(target, chunkStart + target.position()) < 0) {
+            throw new EOFException("File truncated while parsing");
+          }
+        }
+        return new Chunk(bytes, length);
+      };
+    }
+
+    /**
+     * @return the position after the first line break at or after the given one, or the end of
+     * the file if there are no more
+     */
+    private long nextLineStart(long from) throws IOException {
+      ByteBuffer window = ByteBuffer.allocate(BOUNDARY_WINDOW_SIZE);
+      long position = from;
+      while (position < size) {
+        window.clear();
+        int read = channel.read(window, position);
+        if (read < 0) {
+          break;
+        }
+        for (int i = 0; i < read; i++) {
+          if (window.get(i) == '\n') {
+            return position + i + 1;
+          }
+        }
+        position += read;
+      }
+      return size;
+    }
+  }
+}
@@ -0,0 +1,119 @@
+package n10s.utils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Result;
+import org.neo4j.graphdb.Transaction;
+
+/**
+ * Resolves all the :Resource nodes referenced in a partial commit at once instead of one index
+ * lookup per resource. Uris are sorted before the lookup so that consecutive seeks hit
+ * neighbouring index pages.
+ */
+public class ResourceNodeLookup {
+
+  private static final Label RESOURCE = Label.label("Resource");
+  private static final String FIND_RESOURCES_BY_URI =
+      "UNWIND $uris AS uri MATCH (r:Resource { uri: uri }) RETURN uri, r";
+  //max number of uris passed as parameter in a single lookup query
+  public static final int LOOKUP_CHUNK_SIZE = 10000;
+
+  /**
+   * @return the existing nodes indexed by uri. Uris without a matching node are not in the map.
+   */
+  public static Map<String, Node> findNodes(Transaction tx, Collection<String> uris) {
+    return findNodes(tx, uris, null);
+  }
+
+  /**
+   * Same as findNodes but only the uris not in the node cache are looked up in the DB. Nodes
+   * found in the DB are added to the cache.
+   */
+  public static Map<String, Node> findNodes(Transaction tx, Collection<String> uris,
+      NodeIdCache<String> nodeCache) {
+    Map<String, Node> nodes = new HashMap<>();
+    Collection<String> urisToLookUp = uris;
+    if (nodeCache != null) {
+      urisToLookUp = new ArrayList<>();
+      for (String uri : uris) {
+        Node node = nodeCache.get(tx, uri);
+        if (node != null) {
+          nodes.put(uri, node);
+        } else {
+          urisToLookUp.add(uri);
+        }
+      }
+    }
+    List<String> sortedUris = new ArrayList<>(urisToLookUp);
+    Collections.sort(sortedUris);
+    for (int from = 0; from < sortedUris.size(); from += LOOKUP_CHUNK_SIZE) {
+      List<String> chunk = sortedUris
+          .subList(from, Math.min(from + LOOKUP_CHUNK_SIZE, sortedUris.size()));
+      try (Result result = tx.execute(FIND_RESOURCES_BY_URI, Map.of("uris", chunk))) {
+        result.forEachRemaining(row -> {
+          String uri = (String) row.get("uri");
+          Node node = (Node) row.get("r");
+          nodes.put(uri, node);
+          if (nodeCache != null) {
+            nodeCache.put(uri, node);
+          }
+        });
+      }
+    }
+    return nodes;
+  }
+
+  /**
+   * Same as findNodes but creates the :Resource nodes that don't exist yet.
+   */
+  public static Map<String, Node> findOrCreateNodes(Transaction tx, Collection<String> uris) {
+    return findOrCreateNodes(tx, uris, null);
+  }
+
+  /**
+   * Same as findNodes (using the node cache) but creates the :Resource nodes that don't exist yet.
+   */
+  public static Map<String, Node> findOrCreateNodes(Transaction tx, Collection<String> uris,
+      NodeIdCache<String> nodeCache) {
+    return findOrCreateNodes(tx, uris, nodeCache, null);
+  }
+
+  /**
+   * Same as findOrCreateNodes, notifying the nodes created to the given callback (if any).
+   */
+  public static Map<String, Node> findOrCreateNodes(Transaction tx, Collection<String> uris,
+      NodeIdCache<String> nodeCache, BiConsumer<String, Node> onCreate) {
+    Map<String, Node> nodes = findNodes(tx, uris, nodeCache);
+    if (nodes.size() < uris.size()) {
+      for (String uri : uris) {
+        if (!nodes.containsKey(uri)) {
+          Node node = createNode(tx, uri, nodeCache);
+          nodes.put(uri, node);
+          if (onCreate != null) {
+            onCreate.accept(uri, node);
+          }
+        }
+      }
+    }
+    return nodes;
+  }
+
+  /**
+   * Creates the :Resource node for the uri without checking whether it exists already.
+   */
+  public static Node createNode(Transaction tx, String uri, NodeIdCache<String> nodeCache) {
+    Node node = tx.createNode(RESOURCE);
+    node.setProperty("uri", uri);
+    if (nodeCache != null) {
+      nodeCache.put(uri, node);
+    }
+    return node;
+  }
+}
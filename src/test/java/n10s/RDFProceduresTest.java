@@ -6,36 +6,68 @@ import static n10s.graphconfig.Params.PREFIX_SEPARATOR;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.neo4j.driver.Values.NULL;
 import static org.neo4j.driver.Values.ofNode;
 
+import com.google.common.cache.CacheStats;
+import java.io.BufferedWriter;
+import java.io.InputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.LocalTime;
 import java.time.ZonedDateTime;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 import n10s.experimental.ExperimentalImports;
+import n10s.graphconfig.GraphConfig;
 import n10s.graphconfig.GraphConfigProcedures;
+import n10s.graphconfig.RDFParserConfig;
 import n10s.mapping.MappingUtils;
 import n10s.nsprefixes.NsPrefixDefProcedures;
 import n10s.quadrdf.delete.QuadRDFDeleteProcedures;
 import n10s.quadrdf.load.QuadRDFLoadProcedures;
 import n10s.rdf.RDFProcedures;
 import n10s.rdf.delete.RDFDeleteProcedures;
+import n10s.rdf.load.DirectStatementLoader;
 import n10s.rdf.load.RDFLoadProcedures;
 import n10s.rdf.preview.RDFPreviewProcedures;
 import n10s.rdf.stream.RDFStreamProcedures;
 import n10s.skos.load.SKOSLoadProcedures;
+import org.apache.commons.compress.compressors.xz.XZCompressorOutputStream;
+import org.apache.commons.compress.compressors.xz.XZUtils;
+import org.apache.commons.compress.compressors.zstandard.ZstdCompressorOutputStream;
+import org.apache.commons.compress.compressors.zstandard.ZstdUtils;
 import org.eclipse.rdf4j.model.vocabulary.XMLSchema;
+import org.eclipse.rdf4j.rio.RDFFormat;
+import org.eclipse.rdf4j.rio.RDFParser;
+import org.eclipse.rdf4j.rio.Rio;
 import org.junit.*;
 import org.neo4j.driver.*;
 import org.neo4j.driver.Record;
@@ -43,10 +75,14 @@ import org.neo4j.driver.internal.InternalRelationship;
 import org.neo4j.driver.internal.value.IntegerValue;
 import org.neo4j.driver.internal.value.ListValue;
 import org.neo4j.driver.types.Point;
+import org.neo4j.configuration.GraphDatabaseSettings;
 import org.neo4j.graphdb.GraphDatabaseService;
 import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.event.TransactionData;
+import org.neo4j.graphdb.event.TransactionEventListenerAdapter;
 import org.neo4j.harness.junit.rule.Neo4jRule;
+import org.neo4j.logging.NullLog;
 
 /**
  * Created by jbarrasa on 21/03/2016.
@@ -54,8 +90,13 @@ import org.neo4j.harness.junit.rule.Neo4jRule;
 public class RDFProceduresTest {
   public static Driver driver;
 
+  //n10s.rdf.import.adminFiles writes within the import directory
+  private static final Path IMPORT_DIRECTORY = createImportDirectory();
+
   @ClassRule
   public static Neo4jRule neo4j = new Neo4jRule()
+          .withConfig(GraphDatabaseSettings.load_csv_file_url_root, IMPORT_DIRECTORY)
+          .withConfig(N10sSettings.admin_files_enabled, true)
           .withProcedure(RDFLoadProcedures.class)
           .withProcedure(RDFDeleteProcedures.class)
           .withProcedure(RDFPreviewProcedures.class)
@@ -69,6 +110,14 @@ public class RDFProceduresTest {
           .withProcedure(ExperimentalImports.class)
           .withProcedure(SKOSLoadProcedures.class);
 
+  private static Path createImportDirectory() {
+    try {
+      return Files.createTempDirectory("n10s-import");
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
   @BeforeClass
   public static void init() {
     driver = GraphDatabase.driver(neo4j.boltURI(),
@@ -80,6 +129,8 @@ public class RDFProceduresTest {
     driver.session().run("match (n) detach delete n").consume();
     driver.session().run("drop constraint n10s_unique_uri if exists").consume();
     driver.session().run("drop index uri_index if exists").consume();
+    driver.session().run("drop index n10s_resource_uri_graph if exists").consume();
+    driver.session().run("drop index n10s_resource_graph if exists").consume();
   }
 
   final String CREATE_URI_INDEX = "CREATE INDEX uri_index FOR (n:Resource) ON (n.uri)";
@@ -362,6 +413,34 @@ public class RDFProceduresTest {
     }
   }
 
+  /**
+   * Records the threads that commit transactions creating nodes or relationships while open
+   */
+  private static class CommittingThreads extends TransactionEventListenerAdapter<Object>
+      implements AutoCloseable {
+
+    final Set<String> names = ConcurrentHashMap.newKeySet();
+
+    CommittingThreads() {
+      neo4j.databaseManagementService().registerTransactionEventListener(
+          neo4j.defaultDatabaseService().databaseName(), this);
+    }
+
+    @Override
+    public void afterCommit(TransactionData data, Object state, GraphDatabaseService db) {
+      if (data.createdNodes().iterator().hasNext()
+          || data.createdRelationships().iterator().hasNext()) {
+        names.add(Thread.currentThread().getName());
+      }
+    }
+
+    @Override
+    public void close() {
+      neo4j.databaseManagementService().unregisterTransactionEventListener(
+          neo4j.defaultDatabaseService().databaseName(), this);
+    }
+  }
+
   @Test
   public void testAbortIfNoIndices() throws Exception {
     try (Session session = driver.session()) {
@@ -605,6 +684,64 @@ public class RDFProceduresTest {
     }
   }
 
+  @Test
+  public void testImportZippedEntryGlob() throws Exception {
+    try (Session session = driver.session()) {
+
+      initialiseGraphDB(neo4j.defaultDatabaseService(),
+              "{ handleVocabUris: 'KEEP', handleRDFTypes: 'LABELS' }");
+
+      String zip = RDFProceduresTest.class.getClassLoader().getResource("rdf.zip").toURI().toString();
+      String tgz = RDFProceduresTest.class.getClassLoader().getResource("rdf.tar.gz").toURI().toString();
+
+      long multilabel = session.run("CALL n10s.rdf.import.fetch('" + zip
+              + "!rdf/moviesontologyMultilabel.owl','RDF/XML')").single().get("triplesLoaded").asLong();
+
+      //matching entries imported in sequence
+      Record importResult = session.run("CALL n10s.rdf.import.fetch('" + zip
+              + "!rdf/*.owl','RDF/XML', { commitSize: 500 })").single();
+      assertEquals("OK", importResult.get("terminationStatus").asString());
+      assertEquals(60L + multilabel, importResult.get("triplesLoaded").asLong());
+
+      importResult = session.run("CALL n10s.rdf.import.fetch('" + tgz
+              + "!rdf/movies*.owl','RDF/XML', { commitSize: 500 })").single();
+      assertEquals("OK", importResult.get("terminationStatus").asString());
+      assertEquals(60L + multilabel, importResult.get("triplesLoaded").asLong());
+
+      //or in parallel
+      List<Record> rows = session.run("CALL n10s.rdf.import.fetchAll(['" + zip
+              + "!rdf/*.owl'],'RDF/XML')").list();
+      assertEquals(2, rows.size());
+      assertEquals(zip + "!rdf/moviesontology.owl", rows.get(0).get("url").asString());
+      assertEquals(60L, rows.get(0).get("triplesLoaded").asLong());
+      assertEquals(zip + "!rdf/moviesontologyMultilabel.owl", rows.get(1).get("url").asString());
+      assertEquals(multilabel, rows.get(1).get("triplesLoaded").asLong());
+
+      importResult = session.run("CALL n10s.rdf.import.fetch('" + zip
+              + "!rdf/*.nt','N-Triples')").single();
+      assertEquals("KO", importResult.get("terminationStatus").asString());
+
+      //tgz entries are matched in a single pass over the archive
+      importResult = session.run("CALL n10s.rdf.import.fetch('" + tgz
+              + "!rdf/*.nt','N-Triples')").single();
+      assertEquals("KO", importResult.get("terminationStatus").asString());
+      assertTrue(importResult.get("extraInfo").asString().contains("No files or archive entries"));
+
+      //the number of entries is not known in advance
+      importResult = session.run("CALL n10s.rdf.import.fetch('" + tgz
+              + "!rdf/moviesontology.*','RDF/XML', { resumeFrom: 10 })").single();
+      assertEquals("KO", importResult.get("terminationStatus").asString());
+
+      try {
+        session.run("CALL n10s.rdf.import.fetch('" + zip + "!rdf/notThere.owl','RDF/XML')").single();
+        //should not get here
+        assertTrue(false);
+      } catch (Exception e) {
+        assertTrue(e.getMessage().contains("Entry rdf/notThere.owl not found"));
+      }
+    }
+  }
+
   @Test
   public void testImportZippedMultiFile() throws Exception {
     try (Session session = driver.session()) {
@@ -876,6 +1013,49 @@ public class RDFProceduresTest {
     }
   }
 
+  @Test
+  public void testImportTurtleSnippetLiteralShapes() throws Exception {
+    try (Session session = driver.session();) {
+      initialiseGraphDB(neo4j.defaultDatabaseService(),
+              " { handleVocabUris: 'IGNORE' } ");
+
+      String turtleFragment = "@prefix xsd: <http://www.w3.org/2001/XMLSchema#> .\n" +
+              "@prefix ex: <http://example.org/> .\n" +
+              "\n" +
+              "ex:a ex:zoned \"2021-08-05T16:18:45.262[Europe/London]\"^^xsd:dateTime;\n" +
+              "  ex:offset \"2021-08-05T16:18:45-05:00\"^^xsd:dateTime;\n" +
+              "  ex:local \"2021-08-05T16:18:45\"^^xsd:dateTime;\n" +
+              "  ex:broken \"2021-08-05T16:18:45+99\"^^xsd:dateTime;\n" +
+              "  ex:signed \"+0042\"^^xsd:integer;\n" +
+              "  ex:negative \"-17\"^^xsd:int;\n" +
+              "  ex:big \"9223372036854775807\"^^xsd:long;\n" +
+              "  ex:exp \"-1.5E3\"^^xsd:double;\n" +
+              "  ex:inf \"INF\"^^xsd:double;\n" +
+              "  ex:notAPoint \"Pt(1 2)\"^^<http://www.opengis.net/ont/geosparql#wktLiteral> .\n";
+
+      Result importResults = session.run("CALL n10s.rdf.import.inline('" +
+              turtleFragment + "','Turtle')");
+      assertEquals(10L, importResults.single().get("triplesLoaded").asLong());
+
+      Record r = session.run("MATCH (r:Resource { uri: 'http://example.org/a'}) "
+              + "RETURN r.zoned as zoned, r.offset as offset, r.local as local, r.broken as broken, "
+              + "r.signed as signed, r.negative as negative, r.big as big, r.exp as exp, "
+              + "r.inf as inf, r.notAPoint as notAPoint").next();
+      assertEquals(ZonedDateTime.parse("2021-08-05T16:18:45.262+01:00[Europe/London]"),
+              r.get("zoned").asZonedDateTime());
+      assertEquals(ZonedDateTime.parse("2021-08-05T16:18:45-05:00"),
+              r.get("offset").asZonedDateTime());
+      assertEquals(LocalDateTime.parse("2021-08-05T16:18:45"), r.get("local").asLocalDateTime());
+      assertEquals("2021-08-05T16:18:45+99", r.get("broken").asString());
+      assertEquals(42L, r.get("signed").asLong());
+      assertEquals(-17L, r.get("negative").asLong());
+      assertEquals(Long.MAX_VALUE, r.get("big").asLong());
+      assertEquals(-1500D, r.get("exp").asDouble(), 0D);
+      assertEquals(Double.POSITIVE_INFINITY, r.get("inf").asDouble(), 0D);
+      assertEquals("Pt(1 2)", r.get("notAPoint").asString());
+    }
+  }
+
   @Test
   public void testImportJSONLDShortening() throws Exception {
     try (Session session = driver.session()) {
@@ -2797,6 +2977,979 @@ public class RDFProceduresTest {
 
   }
 
+  @Test
+  public void dbpediaFragmentPipelinedTest() throws Exception {
+    try (Session session = driver.session()) {
+
+      initialiseGraphDB(neo4j.defaultDatabaseService(), "{handleMultival:'ARRAY', handleRDFTypes: 'NODES'}");
+
+      Record importResult;
+      try (CommittingThreads committingThreads = new CommittingThreads()) {
+        importResult = session.run("CALL n10s.rdf.import.fetch('" +
+                RDFProceduresTest.class.getClassLoader().getResource("dbpedia-fragment.ttl").toURI()
+                + "','Turtle', { commitSize: 200, pipelined: true })").next();
+        //the partial commits are written by the writer thread, not the one parsing
+        assertTrue(committingThreads.names.contains("n10s-import-writer"));
+      }
+      assertEquals("OK", importResult.get("terminationStatus").asString());
+      assertEquals(24869L, importResult.get("triplesLoaded").asLong());
+      assertEquals(25000L, importResult.get("triplesParsed").asLong());
+
+      Result result = session.run("MATCH (n:Resource) RETURN count(n) as nodeCount ");
+      assertEquals(4497L, result.next().get("nodeCount").asLong());
+
+      //reimporting does not duplicate anything
+      Result importResults
+              = session.run("CALL n10s.rdf.import.fetch('" +
+              RDFProceduresTest.class.getClassLoader().getResource("dbpedia-fragment.ttl").toURI()
+              + "','Turtle', { commitSize: 500, pipelined: true })");
+      assertEquals("OK", importResults.next().get("terminationStatus").asString());
+
+      result = session.run("MATCH (n:Resource) RETURN count(n) as nodeCount ");
+      assertEquals(4497L, result.next().get("nodeCount").asLong());
+
+      //not pipelined, the writer thread is not involved
+      session.run("MATCH (r:Resource) DETACH DELETE r").consume();
+      try (CommittingThreads committingThreads = new CommittingThreads()) {
+        importResult = session.run("CALL n10s.rdf.import.fetch('" +
+                RDFProceduresTest.class.getClassLoader().getResource("dbpedia-fragment.ttl").toURI()
+                + "','Turtle', { commitSize: 200 })").next();
+        assertEquals("OK", importResult.get("terminationStatus").asString());
+        assertFalse(committingThreads.names.isEmpty());
+        assertFalse(committingThreads.names.contains("n10s-import-writer"));
+      }
+    }
+
+  }
+
+  @Test
+  public void dbpediaFragmentPartitionedWriterTest() throws Exception {
+    try (Session session = driver.session()) {
+
+      initialiseGraphDB(neo4j.defaultDatabaseService(), "{handleMultival:'ARRAY', handleRDFTypes: 'NODES'}");
+
+      Record importResult;
+      try (CommittingThreads committingThreads = new CommittingThreads()) {
+        importResult = session.run("CALL n10s.rdf.import.fetch('" +
+                RDFProceduresTest.class.getClassLoader().getResource("dbpedia-fragment.ttl").toURI()
+                + "','Turtle', { commitSize: 200, writerThreads: 4 })").next();
+        //partial commits are written by the partition writers
+        assertTrue(committingThreads.names.contains("n10s-partition-writer"));
+      }
+      assertEquals("OK", importResult.get("terminationStatus").asString());
+      assertEquals(24869L, importResult.get("triplesLoaded").asLong());
+      assertEquals(25000L, importResult.get("triplesParsed").asLong());
+
+      Result result = session.run("MATCH (n:Resource) RETURN count(n) as nodeCount ");
+      assertEquals(4497L, result.next().get("nodeCount").asLong());
+      long relCount = session.run("MATCH ()-[r]->() RETURN count(r) as relCount ").next()
+              .get("relCount").asLong();
+
+      //combined with pipelining, and reimporting does not duplicate anything
+      Result importResults
+              = session.run("CALL n10s.rdf.import.fetch('" +
+              RDFProceduresTest.class.getClassLoader().getResource("dbpedia-fragment.ttl").toURI()
+              + "','Turtle', { commitSize: 500, writerThreads: 3, pipelined: true })");
+      assertEquals("OK", importResults.next().get("terminationStatus").asString());
+
+      result = session.run("MATCH (n:Resource) RETURN count(n) as nodeCount ");
+      assertEquals(4497L, result.next().get("nodeCount").asLong());
+      assertEquals(relCount, session.run("MATCH ()-[r]->() RETURN count(r) as relCount ").next()
+              .get("relCount").asLong());
+    }
+
+  }
+
+  @Test
+  public void partitionedWriterCommitsNodesBeforeRelationships() throws Exception {
+    String rdf = "@prefix ind: <neo4j://individuals#> .\n"
+        + "@prefix voc: <neo4j://vocabulary#> .\n"
+        + "ind:1 voc:name \"one\" ; voc:ACTED_IN ind:0 .\n"
+        + "ind:2 voc:name \"two\" ; voc:ACTED_IN ind:0 .\n"
+        + "ind:0 voc:title \"movie\" .\n"
+        + "<<ind:1 voc:ACTED_IN ind:0>> voc:roles \"same\" .\n"
+        + "<<ind:2 voc:ACTED_IN ind:0>> voc:roles \"same\" .\n";
+    try (Session session = driver.session()) {
+
+      initialiseGraphDB(neo4j.defaultDatabaseService(), "{ handleVocabUris: 'IGNORE' }");
+      session.run("CREATE CONSTRAINT n10s_test_unique_roles FOR ()-[r:ACTED_IN]-() "
+          + "REQUIRE r.roles IS UNIQUE").consume();
+      try {
+        Record importResult = session.run("CALL n10s.rdf.import.inline($rdf, 'Turtle-star', "
+            + "{ singleTx: false, writerThreads: 2 })", Map.of("rdf", rdf)).single();
+        assertEquals("KO", importResult.get("terminationStatus").asString());
+        //the nodes were committed before the relationship partitions failed
+        assertEquals(3L, session.run("MATCH (n:Resource) RETURN count(n) AS count").single()
+            .get("count").asLong());
+        assertTrue(session.run("MATCH ()-[r:ACTED_IN]->() RETURN count(r) AS count").single()
+            .get("count").asLong() < 2);
+      } finally {
+        session.run("DROP CONSTRAINT n10s_test_unique_roles IF EXISTS").consume();
+      }
+
+      //importing again completes the batch
+      Record importResult = session.run("CALL n10s.rdf.import.inline($rdf, 'Turtle-star', "
+          + "{ singleTx: false, writerThreads: 2 })", Map.of("rdf", rdf)).single();
+      assertEquals("OK", importResult.get("terminationStatus").asString());
+      assertEquals(3L, session.run("MATCH (n:Resource) RETURN count(n) AS count").single()
+          .get("count").asLong());
+      assertEquals(2L, session.run("MATCH ()-[r:ACTED_IN { roles: 'same' }]->() "
+          + "RETURN count(r) AS count").single().get("count").asLong());
+    }
+  }
+
+  @Test
+  public void dbpediaFragmentAdaptiveCommitTest() throws Exception {
+    try (Session session = driver.session()) {
+
+      initialiseGraphDB(neo4j.defaultDatabaseService(), "{handleMultival:'ARRAY', handleRDFTypes: 'NODES'}");
+
+      //memory target so low that batches are kept at the minimum size
+      Result importResults
+              = session.run("CALL n10s.rdf.import.fetch('" +
+              RDFProceduresTest.class.getClassLoader().getResource("dbpedia-fragment.ttl").toURI()
+              + "','Turtle', { commitSize: 5000, adaptiveCommit: true, targetCommitMemory: 1000 })");
+
+      Record importResult = importResults.next();
+      assertEquals("OK", importResult.get("terminationStatus").asString());
+      assertEquals(24869L, importResult.get("triplesLoaded").asLong());
+      Map<String, Object> batchSizes = importResult.get("batchSizes").asMap();
+      //halves down to the minimum size (AdaptiveCommitSizer.MIN_COMMIT_SIZE) after the first commit
+      assertEquals(5000L, batchSizes.get("max"));
+      assertEquals(1000L, batchSizes.get("min"));
+      assertEquals(1000L, batchSizes.get("last"));
+      assertTrue((Long) batchSizes.get("commits") > 15L);
+
+      Result result = session.run("MATCH (n:Resource) RETURN count(n) as nodeCount ");
+      assertEquals(4497L, result.next().get("nodeCount").asLong());
+
+      //a commit size below the minimum is never grown to it
+      session.run("MATCH (r:Resource) DETACH DELETE r").consume();
+      importResult = session.run("CALL n10s.rdf.import.fetch('" +
+              RDFProceduresTest.class.getClassLoader().getResource("dbpedia-fragment.ttl").toURI()
+              + "','Turtle', { commitSize: 200, adaptiveCommit: true, targetCommitMemory: 1000 })")
+          .next();
+      assertEquals("OK", importResult.get("terminationStatus").asString());
+      batchSizes = importResult.get("batchSizes").asMap();
+      assertEquals(200L, batchSizes.get("max"));
+      assertEquals(200L, batchSizes.get("last"));
+
+      //without adaptive commit sizes are not reported
+      importResults = session.run("CALL n10s.rdf.import.fetch('" +
+              RDFProceduresTest.class.getClassLoader().getResource("dbpedia-fragment.ttl").toURI()
+              + "','Turtle', { commitSize: 5000 })");
+      assertTrue(importResults.next().get("batchSizes").isNull());
+    }
+
+  }
+
+  @Test
+  public void testImportStagesRepeatedStatementsOnce() throws Exception {
+    Path file = Files.createTempFile("n10s-staging", ".ttls");
+    file.toFile().deleteOnExit();
+    Files.writeString(file, "@prefix ex: <http://example.org/> .\n"
+        + "ex:a a ex:Person ; ex:name \"a\" ; ex:alias \"a1\", \"a2\" ; ex:knows ex:b .\n"
+        + "ex:a a ex:Person ; ex:alias \"a2\", \"a3\" ; ex:knows ex:b .\n"
+        + "<<ex:a ex:knows ex:b>> ex:since 2001 .\n"
+        + "ex:b ex:name \"b\" ; ex:knows ex:a .\n");
+    try (Session session = driver.session()) {
+
+      initialiseGraphDB(neo4j.defaultDatabaseService(),
+          "{ handleVocabUris: 'IGNORE', handleMultival: 'ARRAY', multivalPropList: "
+              + "['http://example.org/alias'] }");
+      //written by a single writer and partitioned
+      for (long writerThreads : List.of(1L, 2L)) {
+        Record importResult = session.run("CALL n10s.rdf.import.fetch($url, 'Turtle-star', "
+                + "{ writerThreads: $writerThreads })",
+            Map.of("url", file.toUri().toString(), "writerThreads", writerThreads)).single();
+        assertEquals("OK", importResult.get("terminationStatus").asString());
+        assertEquals(12L, importResult.get("triplesLoaded").asLong());
+
+        Record a = session.run("MATCH (a:Resource:Person { uri: 'http://example.org/a' }) "
+            + "RETURN a.name AS name, a.alias AS alias").single();
+        assertEquals("a", a.get("name").asString());
+        assertEquals(Set.of("a1", "a2", "a3"), new HashSet<>(a.get("alias").asList()));
+        assertEquals(List.of(2001L), session.run("MATCH (:Resource { uri: 'http://example.org/a' })"
+            + "-[r:knows]->(:Resource { uri: 'http://example.org/b' }) RETURN r.since AS since")
+            .list(r -> r.get("since").asLong()));
+        assertEquals(2L, session.run("MATCH ()-[r:knows]->() RETURN count(r) AS count").single()
+            .get("count").asLong());
+        session.run("MATCH (r:Resource) DETACH DELETE r").consume();
+      }
+    }
+  }
+
+  @Test
+  public void testImportNTriplesParallelParse() throws Exception {
+    try (Session session = driver.session()) {
+
+      initialiseGraphDB(neo4j.defaultDatabaseService(), "{ handleVocabUris: 'IGNORE' }");
+
+      //several chunks worth of triples, blank node used in the first and the last one
+      StringBuilder payload = new StringBuilder();
+      payload.append("_:shared <http://example.org/voc#first> \"first\" .\n");
+      for (int i = 0; i < 30000; i++) {
+        payload.append("<http://example.org/res/").append(i)
+            .append("> <http://example.org/voc#label> \"some label for resource number ")
+            .append(i).append("\" .\n");
+      }
+      payload.append("_:shared <http://example.org/voc#last> \"last\" .\n");
+
+      Result importResults = session.run("CALL n10s.rdf.import.inline($payload, 'N-Triples', "
+          + "{ parseThreads: 4 })", Map.of("payload", payload.toString()));
+      Record importResult = importResults.next();
+      assertEquals("OK", importResult.get("terminationStatus").asString());
+      assertEquals(30002L, importResult.get("triplesLoaded").asLong());
+
+      Result result = session.run("MATCH (n:Resource) RETURN count(n) as nodeCount ");
+      assertEquals(30001L, result.next().get("nodeCount").asLong());
+      result = session.run("MATCH (n:Resource { first: 'first' }) RETURN n.last as last ");
+      assertEquals("last", result.next().get("last").asString());
+      result = session.run("MATCH (n:Resource { uri: 'http://example.org/res/29999' }) "
+          + "RETURN n.label as label ");
+      assertEquals("some label for resource number 29999", result.next().get("label").asString());
+
+      //errors are reported with the line number in the whole document
+      payload.append("<http://example.org/res/bad> <http://example.org/voc#label> .\n");
+      importResults = session.run("CALL n10s.rdf.import.inline($payload, 'N-Triples', "
+          + "{ parseThreads: 4 })", Map.of("payload", payload.toString()));
+      importResult = importResults.next();
+      assertEquals("KO", importResult.get("terminationStatus").asString());
+      assertTrue(importResult.get("extraInfo").asString().contains("line 30003"));
+    }
+  }
+
+  @Test
+  public void testImportLocalFileBytesRead() throws Exception {
+    try (Session session = driver.session()) {
+
+      initialiseGraphDB(neo4j.defaultDatabaseService(), "{ handleVocabUris: 'IGNORE' }");
+
+      //larger than the read buffer
+      Path file = Files.createTempFile("n10s-local", ".nt");
+      file.toFile().deleteOnExit();
+      try (BufferedWriter writer = Files.newBufferedWriter(file)) {
+        for (int i = 0; i < 60000; i++) {
+          writer.write("<http://example.org/res/" + i + "> <http://example.org/voc#label> "
+              + "\"a label long enough to get a file bigger than the read buffer " + i + "\" .\n");
+        }
+      }
+
+      Record importResult = session.run("CALL n10s.rdf.import.fetch($url, 'N-Triples')",
+          Map.of("url", file.toUri().toString())).single();
+      assertEquals("OK", importResult.get("terminationStatus").asString());
+      assertEquals(60000L, importResult.get("triplesLoaded").asLong());
+      assertEquals(Files.size(file), importResult.get("bytesRead").asLong());
+      assertTrue(importResult.get("bytesPerSecond").asLong() > 0);
+
+      importResult = session.run("CALL n10s.rdf.import.fetch($url, 'N-Triples', "
+          + "{ parseThreads: 3 })", Map.of("url", file.toUri().toString())).single();
+      assertEquals("OK", importResult.get("terminationStatus").asString());
+      assertEquals(60000L, importResult.get("triplesLoaded").asLong());
+      assertEquals(Files.size(file), importResult.get("bytesRead").asLong());
+
+      Result result = session.run("MATCH (n:Resource { uri: 'http://example.org/res/59999' }) "
+          + "RETURN n.label as label ");
+      assertEquals("a label long enough to get a file bigger than the read buffer 59999",
+          result.next().get("label").asString());
+
+      //errors in a file read in chunks are reported with the line number in the file
+      Files.writeString(file, "<http://example.org/res/bad> <http://example.org/voc#label> .\n",
+          StandardOpenOption.APPEND);
+      importResult = session.run("CALL n10s.rdf.import.fetch($url, 'N-Triples', "
+          + "{ parseThreads: 3 })", Map.of("url", file.toUri().toString())).single();
+      assertEquals("KO", importResult.get("terminationStatus").asString());
+      assertTrue(importResult.get("extraInfo").asString().contains("line 60001"));
+
+      //compressed files report the uncompressed bytes
+      importResult = session.run("CALL n10s.rdf.import.fetch('" +
+          RDFProceduresTest.class.getClassLoader().getResource("schema.rdf.gz").toURI()
+          + "','RDF/XML')").single();
+      assertEquals(Files.size(Paths.get(
+          RDFProceduresTest.class.getClassLoader().getResource("schema.rdf").toURI())),
+          importResult.get("bytesRead").asLong());
+    }
+  }
+
+  @Test
+  public void testImportAppendOnly() throws Exception {
+    try (Session session = driver.session()) {
+
+      initialiseGraphDB(neo4j.defaultDatabaseService(), "{ handleVocabUris: 'IGNORE' }");
+
+      String url = RDFProceduresTest.class.getClassLoader().getResource("movies-extended.ttl")
+          .toURI().toString();
+      //small commits so that resources show up again in later ones
+      Record importResult = session.run("CALL n10s.rdf.import.fetch($url, 'Turtle', "
+          + "{ appendOnly: true, commitSize: 20 })", Map.of("url", url)).single();
+      assertEquals("OK", importResult.get("terminationStatus").asString());
+      assertEquals(true, importResult.get("callParams").asMap().get("appendOnly"));
+      Record counts = session.run("MATCH (n:Resource) WITH count(n) as nodes "
+          + "MATCH ()-[r]->() RETURN nodes, count(r) as rels").single();
+
+      //the regular import finds everything in place
+      importResult = session.run("CALL n10s.rdf.import.fetch($url, 'Turtle')",
+          Map.of("url", url)).single();
+      assertEquals("OK", importResult.get("terminationStatus").asString());
+      assertEquals(counts, session.run("MATCH (n:Resource) WITH count(n) as nodes "
+          + "MATCH ()-[r]->() RETURN nodes, count(r) as rels").single());
+      assertEquals(0L, session.run("MATCH (a)-[r]->(b) WITH a, type(r) as t, b, count(r) as c "
+          + "WHERE c > 1 RETURN count(*) as dups").single().get("dups").asLong());
+    }
+  }
+
+  @Test
+  public void testImportNoDuplicateRelsForCreatedNodes() throws Exception {
+    try (Session session = driver.session()) {
+
+      initialiseGraphDB(neo4j.defaultDatabaseService(), "{ handleVocabUris: 'IGNORE' }");
+      session.run("CREATE (:Resource { uri: 'http://example.org/res/existing' })");
+
+      StringBuilder rdf = new StringBuilder();
+      for (int round = 0; round < 2; round++) {
+        for (int i = 0; i < 30; i++) {
+          rdf.append("<http://example.org/res/").append(i).append("> <http://a.org/voc#knows> ")
+              .append("<http://example.org/res/").append(i + 1).append("> .\n");
+          //same relationship type once namespaces are ignored
+          rdf.append("<http://example.org/res/").append(i).append("> <http://b.org/voc#knows> ")
+              .append("<http://example.org/res/").append(i + 1).append("> .\n");
+          rdf.append("<http://example.org/res/existing> <http://a.org/voc#knows> ")
+              .append("<http://example.org/res/").append(i).append("> .\n");
+        }
+      }
+      for (String params : new String[]{"{ singleTx: false, commitSize: 10 }",
+          "{ singleTx: false, commitSize: 7, writerThreads: 3 }", "{ singleTx: true }"}) {
+        session.run("MATCH (n:Resource) WHERE n.uri <> 'http://example.org/res/existing' "
+            + "DETACH DELETE n");
+        Record importResult = session.run("CALL n10s.rdf.import.inline($rdf, 'N-Triples', "
+            + params + ")", Map.of("rdf", rdf.toString())).single();
+        assertEquals("OK", importResult.get("terminationStatus").asString());
+        assertEquals(60L, session.run("MATCH (:Resource)-[r:knows]->(:Resource) "
+            + "RETURN count(r) as c").single().get("c").asLong());
+        assertEquals(32L, session.run("MATCH (n:Resource) RETURN count(n) as c").single()
+            .get("c").asLong());
+      }
+    }
+  }
+
+  @Test
+  public void testImportMultivalMergedAcrossBatches() throws Exception {
+    try (Session session = driver.session()) {
+
+      initialiseGraphDB(neo4j.defaultDatabaseService(),
+          "{ handleVocabUris: 'IGNORE', handleMultival: 'ARRAY' }");
+
+      StringBuilder rdf = new StringBuilder();
+      for (int round = 0; round < 3; round++) {
+        for (int i = 0; i < 50; i++) {
+          rdf.append("<http://example.org/res/1> <http://example.org/voc#num> \"").append(i)
+              .append("\"^^<http://www.w3.org/2001/XMLSchema#long> .\n");
+          rdf.append("<http://example.org/res/1> <http://example.org/voc#val> \"").append(i)
+              .append(".5\"^^<http://www.w3.org/2001/XMLSchema#double> .\n");
+          rdf.append("<http://example.org/res/1> <http://example.org/voc#name> \"name ")
+              .append(i).append("\" .\n");
+        }
+      }
+      Record importResult = session.run("CALL n10s.rdf.import.inline($rdf, 'N-Triples', "
+          + "{ singleTx: false, commitSize: 20 })", Map.of("rdf", rdf.toString())).single();
+      assertEquals("OK", importResult.get("terminationStatus").asString());
+
+      Record node = session.run("MATCH (n:Resource { uri: 'http://example.org/res/1' }) "
+          + "RETURN n.num as num, n.val as val, n.name as name").single();
+      Set<Long> nums = new HashSet<>(node.get("num").asList(Value::asLong));
+      assertEquals(50, node.get("num").size());
+      assertEquals(50, nums.size());
+      assertTrue(nums.contains(49L));
+      assertEquals(50, new HashSet<>(node.get("val").asList(Value::asDouble)).size());
+      assertTrue(node.get("val").asList(Value::asDouble).contains(12.5));
+      assertEquals(50, new HashSet<>(node.get("name").asList(Value::asString)).size());
+      assertTrue(node.get("name").asList(Value::asString).contains("name 7"));
+    }
+  }
+
+  @Test
+  public void testImportMultivalTypedArrays() throws Exception {
+    try (Session session = driver.session()) {
+
+      initialiseGraphDB(neo4j.defaultDatabaseService(),
+          "{ handleVocabUris: 'IGNORE', handleMultival: 'ARRAY' }");
+
+      String rdf = "@prefix voc: <http://example.org/voc#> .\n"
+          + "@prefix xsd: <http://www.w3.org/2001/XMLSchema#> .\n"
+          + "<http://example.org/res/1> voc:flag true, false ;\n"
+          + "  voc:day \"2020-01-01\"^^xsd:date, \"2021-06-30\"^^xsd:date ;\n"
+          + "  voc:num 1, 2, 3 ;\n"
+          + "  voc:val 1.5e0, 2.5e0 ;\n"
+          + "  voc:name \"one\", \"two\" .";
+      Record importResult = session.run("CALL n10s.rdf.import.inline($rdf, 'Turtle')",
+          Map.of("rdf", rdf)).single();
+      assertEquals("OK", importResult.get("terminationStatus").asString());
+
+      Record node = session.run("MATCH (n:Resource { uri: 'http://example.org/res/1' }) "
+          + "RETURN valueType(n.flag) as flag, valueType(n.day) as day, valueType(n.num) as num, "
+          + "valueType(n.val) as val, valueType(n.name) as name, n.day as days").single();
+      assertEquals("LIST<BOOLEAN NOT NULL> NOT NULL", node.get("flag").asString());
+      assertEquals("LIST<DATE NOT NULL> NOT NULL", node.get("day").asString());
+      assertEquals("LIST<INTEGER NOT NULL> NOT NULL", node.get("num").asString());
+      assertEquals("LIST<FLOAT NOT NULL> NOT NULL", node.get("val").asString());
+      assertEquals("LIST<STRING NOT NULL> NOT NULL", node.get("name").asString());
+      assertTrue(node.get("days").asList(Value::asLocalDate)
+          .contains(LocalDate.parse("2021-06-30")));
+    }
+  }
+
+  @Test
+  public void testImportGeneratedPrefixesSkipDefinedOnes() throws Exception {
+    try (Session session = driver.session()) {
+
+      initialiseGraphDB(neo4j.defaultDatabaseService(), null);
+      session.run("call n10s.nsprefixes.add('ns1','http://example.org/one#')");
+
+      String rdf = "<http://example.org/res/1> <http://example.org/two#name> \"one\" .\n"
+          + "<http://example.org/res/1> <http://example.org/three#name> \"two\" .\n"
+          + "<http://example.org/res/1> <http://example.org/one#name> \"three\" .";
+      Record importResult = session.run("CALL n10s.rdf.import.inline($rdf, 'N-Triples', "
+          + "{ singleTx: false, commitSize: 1 })", Map.of("rdf", rdf)).single();
+      assertEquals("OK", importResult.get("terminationStatus").asString());
+      assertEquals(3L, importResult.get("triplesLoaded").asLong());
+
+      Map<String, String> prefixes = new HashMap<>();
+      session.run("call n10s.nsprefixes.list()").forEachRemaining(
+          r -> prefixes.put(r.get("prefix").asString(), r.get("namespace").asString()));
+      assertEquals(3, prefixes.size());
+      assertEquals("http://example.org/one#", prefixes.get("ns1"));
+      assertEquals(Set.of("http://example.org/two#", "http://example.org/three#"),
+          Set.of(prefixes.get("ns2"), prefixes.get("ns3")));
+      assertEquals(1L, session.run("MATCH (n:Resource) WHERE n.ns1__name = 'three' "
+          + "AND n.ns2__name IS NOT NULL AND n.ns3__name IS NOT NULL RETURN count(n) as ct")
+          .single().get("ct").asLong());
+    }
+  }
+
+  @Test
+  public void testConcurrentImportsGenerateDistinctPrefixes() throws Exception {
+    initialiseGraphDB(neo4j.defaultDatabaseService(), null);
+    int sessions = 2;
+    int namespacesPerSession = 40;
+    ExecutorService pool = Executors.newFixedThreadPool(sessions);
+    CountDownLatch start = new CountDownLatch(1);
+    try {
+      List<Future<Record>> imports = new ArrayList<>();
+      for (int s = 0; s < sessions; s++) {
+        StringBuilder rdf = new StringBuilder();
+        for (int i = 0; i < namespacesPerSession; i++) {
+          rdf.append("<http://example.org/res/").append(s).append("-").append(i)
+              .append("> <http://example.org/voc").append(s).append("-").append(i)
+              .append("#name> \"").append(i).append("\" .\n");
+        }
+        imports.add(pool.submit(() -> {
+          try (Session session = driver.session()) {
+            start.await();
+            return session.run("CALL n10s.rdf.import.inline($rdf, 'N-Triples', "
+                + "{ singleTx: false, commitSize: 1 })", Map.of("rdf", rdf.toString())).single();
+          }
+        }));
+      }
+      start.countDown();
+      for (Future<Record> importResult : imports) {
+        assertEquals("OK", importResult.get().get("terminationStatus").asString());
+        assertEquals(namespacesPerSession, importResult.get().get("triplesLoaded").asLong());
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+
+    try (Session session = driver.session()) {
+      Map<String, String> prefixes = new HashMap<>();
+      session.run("call n10s.nsprefixes.list()").forEachRemaining(
+          r -> prefixes.put(r.get("prefix").asString(), r.get("namespace").asString()));
+      assertEquals(sessions * namespacesPerSession, prefixes.size());
+      assertEquals(sessions * namespacesPerSession, new HashSet<>(prefixes.values()).size());
+      //every property was written with the prefix its namespace ended up with
+      for (Entry<String, String> prefix : prefixes.entrySet()) {
+        String resource = "http://example.org/res/" + prefix.getValue()
+            .substring("http://example.org/voc".length(), prefix.getValue().length() - 1);
+        assertEquals(1L, session.run("MATCH (n:Resource { uri: $uri }) WHERE n[$property] "
+                + "IS NOT NULL RETURN count(n) AS count",
+            Map.of("uri", resource, "property", prefix.getKey() + "__name")).single()
+            .get("count").asLong());
+      }
+    }
+  }
+
+  @Test
+  public void testToPropertyValueArrayTypes() {
+    assertEquals(long[].class, RDFToLPGStatementProcessor.toPropertyValue(
+        new LinkedHashSet<>(List.of(1L, 2L, 3L))).getClass());
+    assertArrayEquals(new long[]{1L, 2L, 3L},
+        (long[]) RDFToLPGStatementProcessor.toPropertyValue(List.of(1L, 2L, 3L)));
+    assertEquals(double[].class,
+        RDFToLPGStatementProcessor.toPropertyValue(List.of(1.5, 2.5)).getClass());
+    assertEquals(boolean[].class,
+        RDFToLPGStatementProcessor.toPropertyValue(List.of(true, false)).getClass());
+    assertEquals(String[].class,
+        RDFToLPGStatementProcessor.toPropertyValue(List.of("one", "two")).getClass());
+    assertEquals(LocalDate[].class, RDFToLPGStatementProcessor.toPropertyValue(
+        List.of(LocalDate.parse("2020-01-01"))).getClass());
+    assertEquals(LocalDateTime[].class, RDFToLPGStatementProcessor.toPropertyValue(
+        List.of(LocalDateTime.parse("2020-01-01T10:00:00"))).getClass());
+    assertEquals(String[].class,
+        RDFToLPGStatementProcessor.toPropertyValue(List.of()).getClass());
+    //any other type goes through the generic conversion
+    assertEquals(LocalTime[].class, RDFToLPGStatementProcessor.toPropertyValue(
+        List.of(LocalTime.parse("10:00:00"), LocalTime.parse("11:00:00"))).getClass());
+
+    //mixed types are turned into strings before this point, and fail here as they did before
+    for (List<Object> mixed : List.<List<Object>>of(List.of(1L, "two"), List.of(1L, 2.5),
+        List.of(LocalDate.parse("2020-01-01"), "2021-01-01"))) {
+      try {
+        RDFToLPGStatementProcessor.toPropertyValue(mixed);
+        //should not get here
+        assertTrue(false);
+      } catch (ArrayStoreException e) {
+        //the fallback array is typed after the first value
+      }
+    }
+  }
+
+  @Test
+  public void testImportToAdminFiles() throws Exception {
+    try (Session session = driver.session()) {
+
+      initialiseGraphDB(neo4j.defaultDatabaseService(),
+          "{ handleVocabUris: 'IGNORE', handleMultival: 'ARRAY' }");
+
+      //small runs so that the values of the resource are spread across several of them
+      Path directory = Files.createTempDirectory(IMPORT_DIRECTORY, "n10s-admin");
+      Record importResult = session.run("CALL n10s.rdf.import.adminFiles($url, 'Turtle', $dir, "
+          + "{ commitSize: 4 })", Map.of("url",
+          RDFProceduresTest.class.getClassLoader().getResource("multival-multi-tx.ttl").toURI()
+              .toString(), "dir", directory.getFileName().toString())).single();
+      assertEquals("OK", importResult.get("terminationStatus").asString());
+      assertEquals(23L, importResult.get("triplesLoaded").asLong());
+      assertEquals(1L, importResult.get("nodes").asLong());
+      assertEquals(0L, importResult.get("relationships").asLong());
+      assertTrue(importResult.get("importCommand").asString().startsWith(
+          "neo4j-admin database import full neo4j --nodes=" + directory.resolve("nodes-header.csv")));
+      assertFalse(Files.exists(directory.resolve("nsprefdef.csv")));
+      assertEquals("uri:ID(Resource),:LABEL,dateTimeProp:localdatetime[],dateValue:date[],"
+              + "rev:string[],title:string[],titleBool:boolean[],totalLengthDouble:double[],"
+              + "totalLengthInt:long[]",
+          Files.readAllLines(directory.resolve("nodes-header.csv")).get(0));
+      List<String> rows = Files.readAllLines(directory.resolve("nodes.csv"));
+      assertEquals(1, rows.size());
+      assertTrue(Files.readString(directory.resolve("graphconfig.csv"))
+          .contains("\n_GraphConfig,"));
+
+      //same values as the transactional import
+      session.run("CALL n10s.rdf.import.fetch($url, 'Turtle', { commitSize: 4 })", Map.of("url",
+          RDFProceduresTest.class.getClassLoader().getResource("multival-multi-tx.ttl").toURI()
+              .toString()));
+      long values = session.run("MATCH (n:Resource) RETURN size(n.title) + size(n.dateTimeProp) "
+          + "+ size(n.dateValue) + size(n.rev) + size(n.titleBool) + size(n.totalLengthDouble) "
+          + "+ size(n.totalLengthInt) as values").single().get("values").asLong();
+      assertEquals(values - 7, rows.get(0).chars().filter(c -> c == '\u001F').count());
+
+      session.run("MATCH (n:Resource) DETACH DELETE n");
+      directory = Files.createTempDirectory(IMPORT_DIRECTORY, "n10s-admin");
+      String url = RDFProceduresTest.class.getClassLoader().getResource("movies-extended.ttl")
+          .toURI().toString();
+      importResult = session.run("CALL n10s.rdf.import.adminFiles($url, 'Turtle', $dir, "
+          + "{ commitSize: 50 })", Map.of("url", url, "dir", directory.toString())).single();
+      assertEquals("OK", importResult.get("terminationStatus").asString());
+      Record fetchResult = session.run("CALL n10s.rdf.import.fetch($url, 'Turtle')",
+          Map.of("url", url)).single();
+      assertEquals(fetchResult.get("triplesLoaded").asLong(),
+          importResult.get("triplesLoaded").asLong());
+      assertEquals(session.run("MATCH (n:Resource) RETURN count(n) as c").single().get("c")
+          .asLong(), importResult.get("nodes").asLong());
+      assertEquals(session.run("MATCH (:Resource)-[r]->(:Resource) RETURN count(r) as c")
+          .single().get("c").asLong(), importResult.get("relationships").asLong());
+      assertEquals(importResult.get("relationships").asLong(),
+          Files.readAllLines(directory.resolve("relationships.csv")).size());
+
+      //nothing is written outside the import directory
+      Path outside = Files.createTempDirectory("n10s-admin");
+      for (String dir : List.of(outside.toString(), "../" + outside.getFileName(),
+          directory.getFileName() + "/../../" + outside.getFileName())) {
+        importResult = session.run("CALL n10s.rdf.import.adminFiles($url, 'Turtle', $dir)",
+            Map.of("url", url, "dir", dir)).single();
+        assertEquals("KO", importResult.get("terminationStatus").asString());
+        assertTrue(importResult.get("extraInfo").asString()
+            .contains("is not within the import directory"));
+      }
+      assertEquals(0, outside.toFile().list().length);
+    }
+  }
+
+  @Test
+  public void testImportResumeFromCheckpoint() throws Exception {
+    try (Session session = driver.session()) {
+
+      initialiseGraphDB(neo4j.defaultDatabaseService(), "{ handleVocabUris: 'IGNORE' }");
+
+      Path file = Files.createTempFile("n10s-resume", ".nt");
+      file.toFile().deleteOnExit();
+      String url = file.toUri().toString();
+      StringBuilder triples = new StringBuilder();
+      for (int i = 0; i < 5000; i++) {
+        triples.append("<http://example.org/res/").append(i)
+            .append("> <http://example.org/voc#label> \"label ").append(i).append("\" .\n");
+      }
+      //broken line half way through
+      String content = triples.toString();
+      int brokenLine = content.indexOf("<http://example.org/res/3210>");
+      Files.writeString(file, content.substring(0, brokenLine) + "<http://example.org/res/3210> .\n"
+          + content.substring(brokenLine));
+
+      Record importResult = session.run("CALL n10s.rdf.import.fetch($url, 'N-Triples', "
+          + "{ commitSize: 500, checkpoint: true })", Map.of("url", url)).single();
+      assertEquals("KO", importResult.get("terminationStatus").asString());
+      Record checkpoint = session.run("MATCH (c:_ImportCheckpoint { _url: $url }) "
+          + "RETURN c._triplesParsed AS parsed, c._batch AS batch", Map.of("url", url)).single();
+      assertEquals(3000L, checkpoint.get("parsed").asLong());
+      assertEquals(6L, checkpoint.get("batch").asLong());
+
+      //fixed file, the first 3000 triples are skipped
+      Files.writeString(file, content);
+      importResult = session.run("CALL n10s.rdf.import.fetch($url, 'N-Triples', "
+          + "{ commitSize: 500, resumeFrom: true })", Map.of("url", url)).single();
+      assertEquals("OK", importResult.get("terminationStatus").asString());
+      assertEquals(2000L, importResult.get("triplesLoaded").asLong());
+      assertEquals(5000L, importResult.get("triplesParsed").asLong());
+
+      assertEquals(5000L, session.run("MATCH (n:Resource) RETURN count(n) AS count").single()
+          .get("count").asLong());
+      assertEquals(0L, session.run("MATCH (c:_ImportCheckpoint) RETURN count(c) AS count").single()
+          .get("count").asLong());
+
+      //explicit number of triples to skip
+      importResult = session.run("CALL n10s.rdf.import.fetch($url, 'N-Triples', "
+          + "{ resumeFrom: 4990 })", Map.of("url", url)).single();
+      assertEquals(10L, importResult.get("triplesLoaded").asLong());
+    }
+  }
+
+  @Test
+  public void testImportResumeKeepsBlankNodes() throws Exception {
+    try (Session session = driver.session()) {
+
+      initialiseGraphDB(neo4j.defaultDatabaseService(), "{ handleVocabUris: 'IGNORE' }");
+
+      Path file = Files.createTempFile("n10s-resume-bnodes", ".ttl");
+      file.toFile().deleteOnExit();
+      String url = file.toUri().toString();
+      //statements about the same blank nodes before and after the checkpoint
+      StringBuilder first = new StringBuilder();
+      StringBuilder second = new StringBuilder();
+      for (int i = 0; i < 100; i++) {
+        first.append("<http://example.org/res/").append(i).append("> <http://example.org/voc#has> ")
+            .append("_:b").append(i).append(" .\n");
+        second.append("_:b").append(i).append(" <http://example.org/voc#label> \"label ")
+            .append(i).append("\" .\n<http://example.org/res/").append(i)
+            .append("> <http://example.org/voc#other> [ <http://example.org/voc#value> \"value ")
+            .append(i).append("\" ] .\n");
+      }
+      String content = first.toString() + second;
+      int brokenLine = content.indexOf("_:b20 ");
+      Files.writeString(file, content.substring(0, brokenLine) + "<http://example.org/res/x> .\n"
+          + content.substring(brokenLine));
+
+      Record importResult = session.run("CALL n10s.rdf.import.fetch($url, 'Turtle', "
+          + "{ commitSize: 50, checkpoint: true })", Map.of("url", url)).single();
+      assertEquals("KO", importResult.get("terminationStatus").asString());
+      assertEquals(150L, session.run("MATCH (c:_ImportCheckpoint { _url: $url }) "
+          + "RETURN c._triplesParsed AS parsed", Map.of("url", url)).single().get("parsed")
+          .asLong());
+
+      //the blank nodes parsed again get the ids they had before the checkpoint
+      Files.writeString(file, content);
+      importResult = session.run("CALL n10s.rdf.import.fetch($url, 'Turtle', "
+          + "{ commitSize: 50, resumeFrom: true })", Map.of("url", url)).single();
+      assertEquals("OK", importResult.get("terminationStatus").asString());
+      assertEquals(200L, session.run("MATCH (n:Resource) WHERE n.uri STARTS WITH 'bnode://' "
+          + "RETURN count(n) AS count").single().get("count").asLong());
+      assertEquals(100L, session.run("MATCH (:Resource)-[:has]->(b:Resource) "
+          + "WHERE b.label IS NOT NULL RETURN count(b) AS count").single().get("count").asLong());
+      assertEquals(100L, session.run("MATCH (:Resource)-[:other]->(b:Resource) "
+          + "WHERE b.value IS NOT NULL RETURN count(b) AS count").single().get("count").asLong());
+
+      //importing the file again is not a resume, so its blank nodes are new ones
+      importResult = session.run("CALL n10s.rdf.import.fetch($url, 'Turtle', "
+          + "{ commitSize: 50, checkpoint: true })", Map.of("url", url)).single();
+      assertEquals("OK", importResult.get("terminationStatus").asString());
+      assertEquals(400L, session.run("MATCH (n:Resource) WHERE n.uri STARTS WITH 'bnode://' "
+          + "RETURN count(n) AS count").single().get("count").asLong());
+      //checkpoints are looked up with an index
+      assertTrue(session.run("SHOW INDEXES YIELD labelsOrTypes, properties "
+          + "WHERE labelsOrTypes = ['_ImportCheckpoint'] AND properties = ['_url'] "
+          + "RETURN *").hasNext());
+    }
+  }
+
+  @Test
+  public void testImportResumeSeveralSources() throws Exception {
+    try (Session session = driver.session()) {
+
+      initialiseGraphDB(neo4j.defaultDatabaseService(), "{ handleVocabUris: 'IGNORE' }");
+
+      Path dir = Files.createTempDirectory("n10s-resume");
+      StringBuilder first = new StringBuilder();
+      StringBuilder second = new StringBuilder();
+      for (int i = 0; i < 1000; i++) {
+        first.append("<http://example.org/a/").append(i)
+            .append("> <http://example.org/voc#label> \"a").append(i).append("\" .\n");
+        second.append("<http://example.org/b/").append(i)
+            .append("> <http://example.org/voc#label> \"b").append(i).append("\" .\n");
+      }
+      Path a = dir.resolve("resume-a.nt");
+      Path b = dir.resolve("resume-b.nt");
+      Files.writeString(a, first.toString());
+      Files.writeString(b, second.substring(0, second.length() / 2) + "<http://example.org/b> .\n");
+      String glob = dir.toUri() + "resume-*.nt";
+
+      Record importResult = session.run("CALL n10s.rdf.import.fetch($url, 'N-Triples', "
+          + "{ commitSize: 200, checkpoint: true })", Map.of("url", glob)).single();
+      assertEquals("KO", importResult.get("terminationStatus").asString());
+      assertEquals(2L, session.run("MATCH (c:_ImportCheckpoint) RETURN count(c) AS count")
+          .single().get("count").asLong());
+
+      //the same number of triples can't be skipped in every source
+      importResult = session.run("CALL n10s.rdf.import.fetch($url, 'N-Triples', "
+          + "{ resumeFrom: 400 })", Map.of("url", glob)).single();
+      assertEquals("KO", importResult.get("terminationStatus").asString());
+
+      //the first source was finished and is not imported again
+      Files.writeString(b, second.toString());
+      importResult = session.run("CALL n10s.rdf.import.fetch($url, 'N-Triples', "
+          + "{ commitSize: 200, resumeFrom: true })", Map.of("url", glob)).single();
+      assertEquals("OK", importResult.get("terminationStatus").asString());
+      assertEquals(600L, importResult.get("triplesLoaded").asLong());
+      assertTrue(importResult.get("extraInfo").asString()
+          .contains(a.toUri() + " was fully imported before"));
+      assertEquals(2000L, session.run("MATCH (n:Resource) RETURN count(n) AS count").single()
+          .get("count").asLong());
+      assertEquals(0L, session.run("MATCH (c:_ImportCheckpoint) RETURN count(c) AS count")
+          .single().get("count").asLong());
+
+      //per source offsets
+      importResult = session.run("CALL n10s.rdf.import.fetch($url, 'N-Triples', "
+              + "{ resumeFrom: $resume })",
+          Map.of("url", glob, "resume", Map.of(a.toUri().toString(), 990L))).single();
+      assertEquals("OK", importResult.get("terminationStatus").asString());
+      assertEquals(1010L, importResult.get("triplesLoaded").asLong());
+
+      //a source with failed partial commits keeps its checkpoint before the first failure
+      session.run("CREATE CONSTRAINT n10s_test_unique_label FOR (n:Resource) REQUIRE n.label "
+          + "IS UNIQUE").consume();
+      try {
+        Files.writeString(a, first.toString().replace("<http://example.org/a/500>",
+            "<http://example.org/a/duplicate>").replace("\"a500\"", "\"a10\""));
+        importResult = session.run("CALL n10s.rdf.import.fetch($url, 'N-Triples', "
+            + "{ commitSize: 200, checkpoint: true, abortOnError: false })",
+            Map.of("url", a.toUri().toString())).single();
+        assertEquals("OK", importResult.get("terminationStatus").asString());
+        assertTrue(importResult.get("extraInfo").asString().contains("partial commits failed"));
+        Record checkpoint = session.run("MATCH (c:_ImportCheckpoint { _url: $url }) "
+                + "RETURN c._triplesParsed AS parsed, c._complete AS complete",
+            Map.of("url", a.toUri().toString())).single();
+        assertEquals(400L, checkpoint.get("parsed").asLong());
+        assertTrue(checkpoint.get("complete").isNull());
+      } finally {
+        session.run("DROP CONSTRAINT n10s_test_unique_label IF EXISTS").consume();
+      }
+    }
+  }
+
+  @Test
+  public void testImportBgzfZstdAndXz() throws Exception {
+    try (Session session = driver.session()) {
+
+      initialiseGraphDB(neo4j.defaultDatabaseService(), "{ handleVocabUris: 'IGNORE' }");
+
+      //members inflated in parallel
+      Path bgzf = Paths.get(
+          RDFProceduresTest.class.getClassLoader().getResource("bgzf-sample.nt.gz").toURI());
+      Record importResult = session.run("CALL n10s.rdf.import.fetch($url, 'N-Triples', "
+          + "{ decompressThreads: 4 })", Map.of("url", bgzf.toUri().toString())).single();
+      assertEquals("OK", importResult.get("terminationStatus").asString());
+      assertEquals(5000L, importResult.get("triplesLoaded").asLong());
+      assertEquals(412780L, importResult.get("bytesRead").asLong());
+
+      Result result = session.run("MATCH (n:Resource { uri: 'http://example.org/res/4999' }) "
+          + "RETURN n.label as label ");
+      assertEquals("label number 4999", result.next().get("label").asString());
+
+      //regular gzip members after the BGZF ones are inflated sequentially
+      Path mixed = Files.createTempFile("n10s-mixed", ".nt.gz");
+      mixed.toFile().deleteOnExit();
+      try (OutputStream out = Files.newOutputStream(mixed)) {
+        out.write(Files.readAllBytes(bgzf));
+        GZIPOutputStream gzip = new GZIPOutputStream(out);
+        gzip.write("<http://example.org/res/extra> <http://example.org/voc#label> \"extra\" .\n"
+            .getBytes(StandardCharsets.UTF_8));
+        gzip.finish();
+      }
+      importResult = session.run("CALL n10s.rdf.import.fetch($url, 'N-Triples', "
+          + "{ decompressThreads: 4 })", Map.of("url", mixed.toUri().toString())).single();
+      assertEquals("OK", importResult.get("terminationStatus").asString());
+      assertEquals(5001L, importResult.get("triplesLoaded").asLong());
+
+      //a member claiming more than 64 KiB of data is rejected before allocating it
+      byte[] corrupt = Files.readAllBytes(bgzf);
+      int memberEnd = ((corrupt[16] & 0xff) | (corrupt[17] & 0xff) << 8) + 1;
+      for (int i = memberEnd - 4; i < memberEnd; i++) {
+        corrupt[i] = (byte) 0xff;
+      }
+      Path corruptFile = Files.createTempFile("n10s-corrupt", ".nt.gz");
+      corruptFile.toFile().deleteOnExit();
+      Files.write(corruptFile, corrupt);
+      importResult = session.run("CALL n10s.rdf.import.fetch($url, 'N-Triples', "
+          + "{ decompressThreads: 4 })", Map.of("url", corruptFile.toUri().toString())).single();
+      assertEquals("KO", importResult.get("terminationStatus").asString());
+      assertTrue(importResult.get("extraInfo").asString().contains("above 64 KiB"));
+
+      //xz and zstd decompressors are test dependencies
+      assertTrue(ZstdUtils.isZstdCompressionAvailable());
+      Path zstd = Files.createTempFile("n10s-sample", ".nt.zst");
+      zstd.toFile().deleteOnExit();
+      try (InputStream in = new GZIPInputStream(Files.newInputStream(bgzf));
+          OutputStream out = new ZstdCompressorOutputStream(Files.newOutputStream(zstd))) {
+        in.transferTo(out);
+      }
+      importResult = session.run("CALL n10s.rdf.import.fetch($url, 'N-Triples')",
+          Map.of("url", zstd.toUri().toString())).single();
+      assertEquals("OK", importResult.get("terminationStatus").asString());
+      assertEquals(5000L, importResult.get("triplesLoaded").asLong());
+      assertEquals(412780L, importResult.get("bytesRead").asLong());
+
+      assertTrue(XZUtils.isXZCompressionAvailable());
+      Path xz = Files.createTempFile("n10s-sample", ".nt.xz");
+      xz.toFile().deleteOnExit();
+      try (InputStream in = new GZIPInputStream(Files.newInputStream(bgzf));
+          OutputStream out = new XZCompressorOutputStream(Files.newOutputStream(xz))) {
+        in.transferTo(out);
+      }
+      importResult = session.run("CALL n10s.rdf.import.fetch($url, 'N-Triples')",
+          Map.of("url", xz.toUri().toString())).single();
+      assertEquals("OK", importResult.get("terminationStatus").asString());
+      assertEquals(5000L, importResult.get("triplesLoaded").asLong());
+      assertEquals(412780L, importResult.get("bytesRead").asLong());
+    }
+  }
+
+  @Test
+  public void fetchAllFileListAndGlobTest() throws Exception {
+    try (Session session = driver.session()) {
+
+      initialiseGraphDB(neo4j.defaultDatabaseService(), "{handleMultival:'ARRAY', handleRDFTypes: 'NODES'}");
+
+      String dbpedia = RDFProceduresTest.class.getClassLoader().getResource("dbpedia-fragment.ttl")
+              .toURI().toString();
+      String glob = dbpedia.replace("dbpedia-fragment.ttl", "multival-multi-tx*.ttl");
+      String missing = dbpedia.replace("dbpedia-fragment.ttl", "not-there.ttl");
+
+      List<Record> rows;
+      try (CommittingThreads committingThreads = new CommittingThreads()) {
+        rows = session.run("CALL n10s.rdf.import.fetchAll($urls,'Turtle', "
+            + "{ commitSize: 500, workers: 3 })", Map.of("urls", List.of(dbpedia, glob, missing)))
+            .list();
+        //each source is imported by one of the workers
+        assertTrue(committingThreads.names.contains("n10s-import-worker"));
+      }
+      assertEquals(4, rows.size());
+      assertEquals(dbpedia, rows.get(0).get("url").asString());
+      assertEquals("OK", rows.get(0).get("terminationStatus").asString());
+      assertEquals(24869L, rows.get(0).get("triplesLoaded").asLong());
+      assertTrue(rows.get(1).get("url").asString().endsWith("multival-multi-tx-heterogeneous-types.ttl"));
+      assertEquals("OK", rows.get(1).get("terminationStatus").asString());
+      assertTrue(rows.get(2).get("url").asString().endsWith("multival-multi-tx.ttl"));
+      assertEquals("OK", rows.get(2).get("terminationStatus").asString());
+      assertEquals(missing, rows.get(3).get("url").asString());
+      assertEquals("KO", rows.get(3).get("terminationStatus").asString());
+    }
+  }
+
+  @Test
+  public void fetchAllOverlappingSourcesTest() throws Exception {
+    try (Session session = driver.session()) {
+
+      initialiseGraphDB(neo4j.defaultDatabaseService(), "{handleMultival:'ARRAY', handleRDFTypes: 'NODES'}");
+
+      //same resources created concurrently by both sources
+      String dbpedia = RDFProceduresTest.class.getClassLoader().getResource("dbpedia-fragment.ttl")
+              .toURI().toString();
+      Result importResults = session.run("CALL n10s.rdf.import.fetchAll($urls,'Turtle', "
+              + "{ commitSize: 1000, workers: 2 })", Map.of("urls", List.of(dbpedia, dbpedia)));
+
+      for (Record row : importResults.list()) {
+        assertEquals("OK", row.get("terminationStatus").asString());
+        assertEquals(24869L, row.get("triplesLoaded").asLong());
+      }
+
+      Result result = session.run("MATCH (n:Resource) RETURN count(n) as nodeCount ");
+      assertEquals(4497L, result.next().get("nodeCount").asLong());
+      //relationships to nodes created by the other source are not duplicated either
+      assertEquals(0L, session.run("MATCH (a:Resource)-[r]->(b:Resource) "
+          + "WITH a, b, type(r) AS type, count(r) AS rels WHERE rels > 1 RETURN count(*) AS c")
+          .single().get("c").asLong());
+    }
+  }
+
+  @Test
+  public void dbpediaFragmentSmallNodeCacheTest() throws Exception {
+    try (Session session = driver.session()) {
+
+      initialiseGraphDB(neo4j.defaultDatabaseService(), "{handleMultival:'ARRAY', handleRDFTypes: 'NODES'}");
+
+      //node cache much smaller than the number of resources, entries get evicted across batches
+      Result importResults
+              = session.run("CALL n10s.rdf.import.fetch('" +
+              RDFProceduresTest.class.getClassLoader().getResource("dbpedia-fragment.ttl").toURI()
+              + "','Turtle', { commitSize: 200, nodeCacheSize: 100 })");
+
+      Record importResult = importResults.next();
+      assertEquals("OK", importResult.get("terminationStatus").asString());
+      assertEquals(24869L, importResult.get("triplesLoaded").asLong());
+
+      Result result = session.run("MATCH (n:Resource) RETURN count(n) as nodeCount ");
+      assertEquals(4497L, result.next().get("nodeCount").asLong());
+
+      //importing again through a loader to check the cache is bounded but still used
+      GraphDatabaseService db = neo4j.defaultDatabaseService();
+      Map<String, Object> props = new HashMap<>();
+      props.put("commitSize", 200L);
+      props.put("nodeCacheSize", 100L);
+      DirectStatementLoader loader;
+      try (org.neo4j.graphdb.Transaction tx = db.beginTx();
+          InputStream in = RDFProceduresTest.class.getClassLoader()
+              .getResourceAsStream("dbpedia-fragment.ttl")) {
+        loader = new DirectStatementLoader(db, tx,
+            new RDFParserConfig(props, new GraphConfig(tx)), NullLog.getInstance());
+        RDFParser parser = Rio.createParser(RDFFormat.TURTLE);
+        parser.setRDFHandler(loader);
+        parser.parse(in, "http://neo4j.com/base/");
+      }
+      CacheStats cacheStats = loader.getNodeCacheStats();
+      assertTrue(cacheStats.evictionCount() > 0);
+      assertTrue(cacheStats.hitCount() > 0);
+      result = session.run("MATCH (n:Resource) RETURN count(n) as nodeCount ");
+      assertEquals(4497L, result.next().get("nodeCount").asLong());
+
+      //cached ids of nodes deleted in earlier batches must not be reused
+      Result deleteResults = session.run("CALL n10s.rdf.delete.fetch('" +
+              RDFProceduresTest.class.getClassLoader().getResource("dbpedia-fragment.ttl").toURI()
+              + "','Turtle', { commitSize: 300, nodeCacheSize: 50 })");
+      assertEquals("", deleteResults.next().get("extraInfo").asString());
+
+      assertEquals(0L, session.run("MATCH ()-[r]->() RETURN count(r) as relCount ").next()
+              .get("relCount").asLong());
+      result = session.run("MATCH (n:Resource) RETURN count(n) as nodeCount ");
+      assertEquals(0L, result.next().get("nodeCount").asLong());
+    }
+
+  }
+
   @Test
   public void multivalMultitypeSamePartialTx() throws Exception {
     try (Session session = driver.session()) {
@@ -3495,6 +4648,118 @@ public class RDFProceduresTest {
     }
   }
 
+  @Test
+  public void testDeleteManyValuesFromMultiLiteral() throws Exception {
+    try (Session session = driver.session()) {
+
+      initialiseGraphDB(neo4j.defaultDatabaseService(),
+          "{ handleVocabUris: 'IGNORE', handleMultival: 'ARRAY' }");
+
+      StringBuilder rdf = new StringBuilder();
+      StringBuilder toDelete = new StringBuilder();
+      for (int i = 0; i < 1000; i++) {
+        StringBuilder target = i % 3 == 0 ? toDelete : rdf;
+        target.append("<http://example.org/res/1> <http://example.org/voc#num> \"").append(i)
+            .append("\"^^<http://www.w3.org/2001/XMLSchema#long> .\n");
+        target.append("<http://example.org/res/1> <http://example.org/voc#name> \"name ")
+            .append(i).append("\" .\n");
+      }
+      rdf.append(toDelete);
+      session.run("CALL n10s.rdf.import.inline($rdf, 'N-Triples')",
+          Map.of("rdf", rdf.toString()));
+
+      Record deleteResult = session.run("CALL n10s.rdf.delete.inline($rdf, 'N-Triples', "
+          + "{ singleTx: false, commitSize: 100 })", Map.of("rdf", toDelete.toString())).single();
+      assertEquals(668L, deleteResult.get("triplesDeleted").asLong());
+
+      Record node = session.run("MATCH (n:Resource { uri: 'http://example.org/res/1' }) "
+          + "RETURN n.num as num, n.name as name").single();
+      List<Long> nums = node.get("num").asList(Value::asLong);
+      assertEquals(666, nums.size());
+      assertTrue(nums.stream().noneMatch(n -> n % 3 == 0));
+      assertEquals(List.of(1L, 2L, 4L), nums.subList(0, 3));
+      List<String> names = node.get("name").asList(Value::asString);
+      assertEquals(666, names.size());
+      assertFalse(names.contains("name 999"));
+      assertTrue(names.contains("name 998"));
+    }
+  }
+
+  @Test
+  public void testDeleteByPattern() throws Exception {
+    try (Session session = driver.session()) {
+
+      initialiseGraphDB(neo4j.defaultDatabaseService(), "{ handleMultival: 'ARRAY' }");
+
+      StringBuilder rdf = new StringBuilder();
+      for (int i = 0; i < 20; i++) {
+        String subject = "<http://example.org/" + (i % 2 == 0 ? "even/" : "odd/") + i + ">";
+        rdf.append(subject).append(" <http://www.w3.org/1999/02/22-rdf-syntax-ns#type> "
+            + "<http://example.org/voc#Thing> .\n");
+        rdf.append(subject).append(" <http://example.org/voc#name> \"name ").append(i)
+            .append("\" .\n");
+        rdf.append(subject).append(" <http://example.org/other#code> \"").append(i)
+            .append("\"^^<http://www.w3.org/2001/XMLSchema#long> .\n");
+        rdf.append(subject).append(" <http://example.org/voc#next> <http://example.org/odd/")
+            .append(i + 1).append("> .\n");
+      }
+      Record importResult = session.run("CALL n10s.rdf.import.inline($rdf, 'N-Triples')",
+          Map.of("rdf", rdf.toString())).single();
+      assertEquals(80L, importResult.get("triplesLoaded").asLong());
+
+      //one predicate everywhere
+      Record deleteResult = session.run("CALL n10s.rdf.delete.pattern(null, "
+          + "'http://example.org/other#code', null, false, null, null, { commitSize: 3 })")
+          .single();
+      assertEquals("OK", deleteResult.get("terminationStatus").asString());
+      assertEquals(20L, deleteResult.get("triplesDeleted").asLong());
+      assertEquals(0L, session.run("MATCH (n:Resource) WHERE n.ns1__code IS NOT NULL "
+          + "RETURN count(n) as ct").single().get("ct").asLong());
+
+      //a given value of a predicate
+      deleteResult = session.run("CALL n10s.rdf.delete.pattern(null, "
+          + "'http://example.org/voc#name', 'name 3', true)").single();
+      assertEquals(1L, deleteResult.get("triplesDeleted").asLong());
+      assertEquals(19L, session.run("MATCH (n:Resource) WHERE n.ns0__name IS NOT NULL "
+          + "RETURN count(n) as ct").single().get("ct").asLong());
+
+      //everything in a namespace about a set of subjects
+      deleteResult = session.run("CALL n10s.rdf.delete.pattern('http://example.org/even/*', "
+          + "'http://example.org/voc#*', null, false, null, null, { commitSize: 4 })").single();
+      assertEquals("OK", deleteResult.get("terminationStatus").asString());
+      assertEquals(20L, deleteResult.get("triplesDeleted").asLong());
+      assertEquals(0L, session.run("MATCH (n:Resource) WHERE n.uri STARTS WITH "
+          + "'http://example.org/even/' AND (n.ns0__name IS NOT NULL OR (n)-->()) "
+          + "RETURN count(n) as ct").single().get("ct").asLong());
+
+      //the types are left, and the nodes go once they are deleted
+      deleteResult = session.run("CALL n10s.rdf.delete.pattern('http://example.org/even/*', "
+          + "null, null)").single();
+      assertEquals(10L, deleteResult.get("triplesDeleted").asLong());
+      assertEquals(0L, session.run("MATCH (n:Resource) WHERE n.uri STARTS WITH "
+          + "'http://example.org/even/' RETURN count(n) as ct").single().get("ct").asLong());
+      assertEquals(10L, session.run("MATCH (n:Resource:ns0__Thing) WHERE n.uri STARTS WITH "
+          + "'http://example.org/odd/' AND (n)-[:ns0__next]->() RETURN count(n) as ct")
+          .single().get("ct").asLong());
+
+      //subjects over several pages, none of them left out or deleted twice
+      StringBuilder many = new StringBuilder();
+      for (int i = 0; i < 2500; i++) {
+        many.append("<http://example.org/many/").append(i)
+            .append("> <http://example.org/voc#name> \"many ").append(i).append("\" .\n");
+      }
+      session.run("CALL n10s.rdf.import.inline($rdf, 'N-Triples')",
+          Map.of("rdf", many.toString())).consume();
+      deleteResult = session.run("CALL n10s.rdf.delete.pattern(null, "
+          + "'http://example.org/voc#name', null, false, null, null, { commitSize: 700 })")
+          .single();
+      assertEquals("OK", deleteResult.get("terminationStatus").asString());
+      assertEquals(2509L, deleteResult.get("triplesDeleted").asLong());
+      assertEquals(0L, session.run("MATCH (n:Resource) WHERE n.ns0__name IS NOT NULL "
+          + "RETURN count(n) as ct").single().get("ct").asLong());
+    }
+  }
+
   @Test
   public void testDeleteSubjectNode() throws Exception {
     try (Session session = driver.session()) {
@@ -3792,6 +5057,239 @@ public class RDFProceduresTest {
     }
   }
 
+  @Test
+  public void testImportQuadRDFWithAndWithoutIndexOnUriAndGraphUri() throws Exception {
+    try (Session session = driver.session()) {
+
+      initialiseGraphDBForQuads(neo4j.defaultDatabaseService(), "{ handleMultival: 'ARRAY' }");
+
+      //without the composite index resources are looked up by uri
+      Record importResult = session.run("CALL n10s.experimental.quadrdf.import.inline('"
+          + rdfTriGSnippet + "','TriG')").single();
+      assertEquals("OK", importResult.get("terminationStatus").asString());
+      assertFalse(session.run("SHOW INDEXES YIELD name "
+          + "WHERE name = 'n10s_resource_uri_graph' RETURN *").hasNext());
+      long nodes = session.run("MATCH (n) RETURN count(n) AS count").single().get("count")
+          .asLong();
+      long rels = session.run("MATCH ()-[r]->() RETURN count(r) AS count").single().get("count")
+          .asLong();
+      importResult = session.run("CALL n10s.experimental.quadrdf.import.inline('"
+          + rdfTriGSnippet + "','TriG', { commitSize: 2 })").single();
+      assertEquals("OK", importResult.get("terminationStatus").asString());
+      assertEquals(nodes, session.run("MATCH (n) RETURN count(n) AS count").single().get("count")
+          .asLong());
+      assertEquals(rels, session.run("MATCH ()-[r]->() RETURN count(r) AS count").single()
+          .get("count").asLong());
+
+      //with it a second import resolves the same nodes in every graph
+      session.run(CommonProcedures.QUAD_INDEX_ON_URI_AND_GRAPH_STATEMENT).consume();
+      session.run("CALL db.awaitIndexes(300)").consume();
+      importResult = session.run("CALL n10s.experimental.quadrdf.import.inline('"
+          + rdfTriGSnippet + "','TriG', { commitSize: 2 })").single();
+      assertEquals("OK", importResult.get("terminationStatus").asString());
+      assertEquals(nodes, session.run("MATCH (n) RETURN count(n) AS count").single().get("count")
+          .asLong());
+      assertEquals(rels, session.run("MATCH ()-[r]->() RETURN count(r) AS count").single()
+          .get("count").asLong());
+      assertEquals(3L, session.run("MATCH (n:Resource "
+          + "{uri: 'http://www.example.org/exampleDocument#Monica'}) RETURN count(n) AS count")
+          .single().get("count").asLong());
+    }
+  }
+
+  @Test
+  public void testImportQuadRDFWriterThreads() throws Exception {
+    StringBuilder nquads = new StringBuilder();
+    for (int g = 0; g < 20; g++) {
+      for (int i = 0; i < 10; i++) {
+        nquads.append("<http://example.org/r").append(i).append("> <http://example.org/name> \"r")
+            .append(i).append("\" <http://example.org/g").append(g).append("> .\n");
+        nquads.append("<http://example.org/r").append(i).append("> <http://example.org/next> ")
+            .append("<http://example.org/r").append(i + 1).append("> <http://example.org/g")
+            .append(g).append("> .\n");
+      }
+    }
+    nquads.append("<http://example.org/r0> <http://example.org/name> \"r0\" .\n");
+    try (Session session = driver.session()) {
+
+      initialiseGraphDBForQuads(neo4j.defaultDatabaseService(), "{ handleVocabUris: 'IGNORE' }");
+
+      for (int run = 0; run < 2; run++) {
+        Record importResult;
+        try (CommittingThreads committingThreads = new CommittingThreads()) {
+          importResult = session.run("CALL n10s.experimental.quadrdf.import.inline($rdf, "
+                  + "'N-Quads', { commitSize: 50, writerThreads: 4 })",
+              Map.of("rdf", nquads.toString())).single();
+          if (run == 0) {
+            //the graphs are written by the quad writers
+            assertTrue(committingThreads.names.contains("n10s-quad-writer"));
+          }
+        }
+        assertEquals("OK", importResult.get("terminationStatus").asString());
+        assertEquals(401L, importResult.get("triplesLoaded").asLong());
+        //a second import finds the nodes written by every writer
+        assertEquals(221L, session.run("MATCH (n:Resource) RETURN count(n) AS count").single()
+            .get("count").asLong());
+        assertEquals(200L, session.run("MATCH ()-[r:next]->() RETURN count(r) AS count").single()
+            .get("count").asLong());
+        assertEquals(20L, session.run("MATCH (n:Resource) WHERE n.graphUri IS NOT NULL "
+            + "RETURN count(DISTINCT n.graphUri) AS count").single().get("count").asLong());
+        assertEquals(0L, session.run("MATCH (a)-[:next]->(b) WHERE a.graphUri <> b.graphUri "
+            + "RETURN count(*) AS count").single().get("count").asLong());
+        assertEquals("r0", session.run("MATCH (n:Resource {uri: 'http://example.org/r0'}) "
+            + "WHERE n.graphUri IS NULL RETURN n.name AS name").single().get("name").asString());
+      }
+    }
+  }
+
+  @Test
+  public void testImportQuadRDFWriterThreadsPrefixesAndFailures() throws Exception {
+    StringBuilder nquads = new StringBuilder();
+    for (int g = 0; g < 4; g++) {
+      for (int i = 0; i < 5; i++) {
+        nquads.append("<http://example.org/r").append(i).append("> <http://example.org/name> \"g")
+            .append(g).append("r").append(i % (g == 0 ? 2 : 5)).append("\" <http://example.org/g")
+            .append(g).append("> .\n");
+        nquads.append("<http://example.org/r").append(i).append("> <http://rels.example.org/next> ")
+            .append("<http://example.org/r").append(i + 1).append("> <http://example.org/g")
+            .append(g).append("> .\n");
+      }
+    }
+    try (Session session = driver.session()) {
+
+      initialiseGraphDBForQuads(neo4j.defaultDatabaseService(), "{}");
+      //the prefix for the namespace only used in relationships is persisted
+      Record importResult = session.run("CALL n10s.experimental.quadrdf.import.inline($rdf, "
+          + "'N-Quads', { writerThreads: 3 })", Map.of("rdf", nquads.toString())).single();
+      assertEquals("OK", importResult.get("terminationStatus").asString());
+      assertEquals(40L, importResult.get("triplesLoaded").asLong());
+      Map<String, String> prefixes = new HashMap<>();
+      session.run("CALL n10s.nsprefixes.list()").forEachRemaining(
+          r -> prefixes.put(r.get("namespace").asString(), r.get("prefix").asString()));
+      String relsPrefix = prefixes.get("http://rels.example.org/");
+      assertNotNull(relsPrefix);
+      assertEquals(20L, session.run("MATCH ()-[r:" + relsPrefix + "__next]->() "
+          + "RETURN count(r) AS count").single().get("count").asLong());
+
+      //the partition of g0 (repeated names) fails, the rest are committed
+      String name = prefixes.get("http://example.org/") + "__name";
+      session.run("MATCH (n:Resource) DETACH DELETE n").consume();
+      session.run("CREATE CONSTRAINT n10s_test_unique_name FOR (n:Resource) "
+          + "REQUIRE n." + name + " IS UNIQUE").consume();
+      try {
+        importResult = session.run("CALL n10s.experimental.quadrdf.import.inline($rdf, "
+                + "'N-Quads', { writerThreads: 4, abortOnError: false })",
+            Map.of("rdf", nquads.toString())).single();
+        assertEquals("OK", importResult.get("terminationStatus").asString());
+        long loaded = importResult.get("triplesLoaded").asLong();
+        assertTrue(loaded < 40L);
+        assertEquals(40L - loaded + " triples could not be imported because of failed "
+            + "partial commits. Check logs for details. ",
+            importResult.get("extraInfo").asString());
+        assertEquals(0L, session.run("MATCH (n:Resource {graphUri: 'http://example.org/g0'}) "
+            + "RETURN count(n) AS count").single().get("count").asLong());
+        assertEquals(loaded, session.run("MATCH (n:Resource) WHERE n." + name + " IS NOT NULL "
+            + "RETURN count(n) AS count").single().get("count").asLong() * 2);
+
+        session.run("MATCH (n:Resource) DETACH DELETE n").consume();
+        importResult = session.run("CALL n10s.experimental.quadrdf.import.inline($rdf, "
+            + "'N-Quads', { writerThreads: 4 })", Map.of("rdf", nquads.toString())).single();
+        assertEquals("KO", importResult.get("terminationStatus").asString());
+      } finally {
+        session.run("DROP CONSTRAINT n10s_test_unique_name IF EXISTS").consume();
+      }
+    }
+  }
+
+  @Test
+  public void testQuadRDFReplaceAndDeleteGraph() throws Exception {
+    String current = "<http://example.org/a> <http://example.org/name> \"a\" <http://example.org/g1> .\n"
+        + "<http://example.org/a> <http://example.org/knows> <http://example.org/b> <http://example.org/g1> .\n"
+        + "<http://example.org/b> <http://example.org/knows> <http://example.org/c> <http://example.org/g1> .\n"
+        + "<http://example.org/a> <http://example.org/knows> <http://example.org/b> <http://example.org/g2> .\n"
+        + "<http://example.org/b> <http://example.org/knows> <http://example.org/c> <http://example.org/g2> .\n"
+        + "<http://example.org/c> <http://example.org/name> \"c\" <http://example.org/g2> .\n";
+    String newVersion = "<http://example.org/a> <http://example.org/name> \"a2\" <http://example.org/g1> .\n"
+        + "<http://example.org/a> <http://example.org/knows> <http://example.org/d> <http://example.org/g1> .\n"
+        + "<http://example.org/d> <http://example.org/name> \"d\" <http://example.org/g2> .\n";
+    try (Session session = driver.session()) {
+
+      initialiseGraphDBForQuads(neo4j.defaultDatabaseService(), "{ handleVocabUris: 'IGNORE' }");
+      session.run("CALL n10s.experimental.quadrdf.import.inline($rdf, 'N-Quads')",
+          Map.of("rdf", current)).consume();
+
+      //the 3 current nodes alone are over the limit, so nothing is loaded
+      Record replaceResult = session.run("CALL n10s.experimental.quadrdf.replace.inline("
+              + "'http://example.org/g1', $rdf, 'N-Quads', { swapLimit: 2 })",
+          Map.of("rdf", newVersion)).single();
+      assertEquals("KO", replaceResult.get("terminationStatus").asString());
+      assertTrue(replaceResult.get("extraInfo").asString().contains("swapLimit (2)"));
+      assertEquals(0L, replaceResult.get("triplesParsed").asLong());
+
+      //the swap would update the 3 current nodes and the 2 new ones in a single transaction
+      replaceResult = session.run("CALL n10s.experimental.quadrdf.replace.inline("
+              + "'http://example.org/g1', $rdf, 'N-Quads', { swapLimit: 4 })",
+          Map.of("rdf", newVersion)).single();
+      assertEquals("KO", replaceResult.get("terminationStatus").asString());
+      assertTrue(replaceResult.get("extraInfo").asString().contains("swapLimit (4)"));
+      assertEquals(List.of("http://example.org/a", "http://example.org/b",
+          "http://example.org/c"), session.run(
+          "MATCH (n:Resource {graphUri: 'http://example.org/g1'}) RETURN n.uri AS uri "
+              + "ORDER BY uri").list(r -> r.get("uri").asString()));
+      assertEquals(2L, session.run("MATCH (n:Resource) RETURN count(DISTINCT n.graphUri) "
+          + "AS count").single().get("count").asLong());
+
+      replaceResult = session.run("CALL n10s.experimental.quadrdf.replace.inline("
+              + "'http://example.org/g1', $rdf, 'N-Quads', { commitSize: 1, swapLimit: 5 })",
+          Map.of("rdf", newVersion)).single();
+      assertEquals("OK", replaceResult.get("terminationStatus").asString());
+      assertEquals(2L, replaceResult.get("triplesLoaded").asLong());
+      assertEquals(3L, replaceResult.get("triplesParsed").asLong());
+      assertEquals("Replaced graph http://example.org/g1: 3 nodes and 2 relationships of the "
+          + "previous version deleted", replaceResult.get("extraInfo").asString());
+      assertEquals(List.of("http://example.org/a", "http://example.org/d"), session.run(
+          "MATCH (n:Resource {graphUri: 'http://example.org/g1'}) RETURN n.uri AS uri "
+              + "ORDER BY uri").list(r -> r.get("uri").asString()));
+      assertEquals("a2", session.run("MATCH (a:Resource {graphUri: 'http://example.org/g1'})"
+          + "-[:knows]->(:Resource {uri: 'http://example.org/d'}) RETURN a.name AS name")
+          .single().get("name").asString());
+      //other graphs are untouched and no staging graph is left behind
+      assertEquals(3L, session.run("MATCH (n:Resource {graphUri: 'http://example.org/g2'}) "
+          + "RETURN count(n) AS count").single().get("count").asLong());
+      assertEquals(2L, session.run("MATCH (n:Resource) RETURN count(DISTINCT n.graphUri) "
+          + "AS count").single().get("count").asLong());
+
+      //a replace that fails part way leaves the current version in place, even without abortOnError
+      session.run("CREATE CONSTRAINT n10s_test_unique_name FOR (n:Resource) REQUIRE n.name "
+          + "IS UNIQUE").consume();
+      try {
+        replaceResult = session.run("CALL n10s.experimental.quadrdf.replace.inline("
+                + "'http://example.org/g1', $rdf, 'N-Quads', { commitSize: 1, abortOnError: false })",
+            Map.of("rdf", "<http://example.org/e> <http://example.org/name> \"e\" "
+                + "<http://example.org/g1> .\n<http://example.org/f> <http://example.org/name> "
+                + "\"c\" <http://example.org/g1> .\n")).single();
+        assertEquals("KO", replaceResult.get("terminationStatus").asString());
+        assertEquals(List.of("http://example.org/a", "http://example.org/d"), session.run(
+            "MATCH (n:Resource {graphUri: 'http://example.org/g1'}) RETURN n.uri AS uri "
+                + "ORDER BY uri").list(r -> r.get("uri").asString()));
+        assertEquals(2L, session.run("MATCH (n:Resource) RETURN count(DISTINCT n.graphUri) "
+            + "AS count").single().get("count").asLong());
+      } finally {
+        session.run("DROP CONSTRAINT n10s_test_unique_name IF EXISTS").consume();
+      }
+
+      Record dropResult = session.run("CALL n10s.experimental.quadrdf.delete.graph("
+          + "'http://example.org/g2', { commitSize: 2 })").single();
+      assertEquals("OK", dropResult.get("terminationStatus").asString());
+      assertEquals(3L, dropResult.get("nodesDeleted").asLong());
+      assertEquals(2L, dropResult.get("relationshipsDeleted").asLong());
+      assertEquals(2L, session.run("MATCH (n:Resource) RETURN count(n) AS count").single()
+          .get("count").asLong());
+      assertEquals(1L, session.run("MATCH ()-[r]->() RETURN count(r) AS count").single()
+          .get("count").asLong());
+    }
+  }
+
   @Test
   public void testImportQuadRDFNQuads() throws Exception {
     try (Session session = driver.session()) {